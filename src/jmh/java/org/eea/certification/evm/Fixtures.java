@@ -0,0 +1,40 @@
+package org.eea.certification.evm;
+
+import org.apache.tuweni.eth.EthJsonModule;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+
+/**
+ * Mappers and test resources shared by the benchmarks.
+ */
+final class Fixtures {
+
+  private Fixtures() {}
+
+  static ObjectMapper yamlMapper() {
+    ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    mapper.registerModule(new JsonModule());
+    mapper.registerModule(new EthJsonModule());
+    return mapper;
+  }
+
+  static ObjectMapper jsonMapper() {
+    ObjectMapper mapper = new ObjectMapper();
+    mapper.registerModule(new JsonModule());
+    mapper.registerModule(new EthJsonModule());
+    return mapper;
+  }
+
+  static byte[] resource(String name) throws IOException {
+    try (InputStream in = Fixtures.class.getResourceAsStream("/" + name)) {
+      if (in == null) {
+        throw new IOException("Missing test resource " + name);
+      }
+      return in.readAllBytes();
+    }
+  }
+}
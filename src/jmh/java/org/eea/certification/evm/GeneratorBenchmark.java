@@ -0,0 +1,57 @@
+package org.eea.certification.evm;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hyperledger.besu.evm.operation.Operation;
+import org.hyperledger.besu.evm.operation.OperationRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the generation of a single test, for one opcode of each class: arithmetic, stack, memory, copy, hashing,
+ * storage, logging and contract creation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GeneratorBenchmark {
+
+  @Param({"london"})
+  public String hardFork;
+
+  @Param({"ADD", "SWAP15", "MSTORE", "CODECOPY", "SHA3", "SSTORE", "LOG2", "CREATE2"})
+  public String opcodeName;
+
+  private EVMOpcodeTestGenerator generator;
+  private int opcode;
+  private int index;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    generator = new EVMOpcodeTestGenerator(42L);
+    OperationRegistry registry = EVMExecutors.cache.get(hardFork).getOperationsRegistry();
+    opcode = -1;
+    for (int i = 0; i < 256; i++) {
+      Operation operation = registry.get(i);
+      if (operation != null && operation.getName().equals(opcodeName)) {
+        opcode = i;
+      }
+    }
+    if (opcode < 0) {
+      throw new IllegalArgumentException("Unknown opcode " + opcodeName + " for hard fork " + hardFork);
+    }
+  }
+
+  @Benchmark
+  public OpcodeTestModel generate() {
+    // a new index per invocation, so each test is generated from fresh random values
+    return generator.generate(hardFork, opcode, index++);
+  }
+}
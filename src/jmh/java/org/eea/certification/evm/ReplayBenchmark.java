@@ -0,0 +1,38 @@
+package org.eea.certification.evm;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the replay of stored tests against the hard fork they record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReplayBenchmark {
+
+  @Param({"CREATE2-2.yaml", "SWAP15-4.yaml"})
+  public String fixture;
+
+  private OpcodeTestModel model;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    model = Fixtures.yamlMapper().readValue(Fixtures.resource(fixture), OpcodeTestModel.class);
+  }
+
+  @Benchmark
+  public OpcodeTestModel run() {
+    return EVMOpcodeTestGenerator.run(model, model.getHardFork());
+  }
+}
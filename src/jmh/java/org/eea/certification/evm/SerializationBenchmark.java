@@ -0,0 +1,62 @@
+package org.eea.certification.evm;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures reading and writing test models as YAML, and parsing reference tests from JSON.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializationBenchmark {
+
+  private static final TypeReference<HashMap<String, JsonReferenceTest>> REFERENCE_TESTS = new TypeReference<>() {};
+
+  @Param({"CREATE2-2.yaml", "SWAP15-4.yaml"})
+  public String fixture;
+
+  private ObjectMapper yamlMapper;
+  private ObjectMapper jsonMapper;
+  private byte[] yaml;
+  private byte[] referenceTest;
+  private OpcodeTestModel model;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    yamlMapper = Fixtures.yamlMapper();
+    jsonMapper = Fixtures.jsonMapper();
+    yaml = Fixtures.resource(fixture);
+    referenceTest = Fixtures.resource("add3.json");
+    model = yamlMapper.readValue(yaml, OpcodeTestModel.class);
+  }
+
+  @Benchmark
+  public OpcodeTestModel readYaml() throws IOException {
+    return yamlMapper.readValue(yaml, OpcodeTestModel.class);
+  }
+
+  @Benchmark
+  public byte[] writeYaml() throws IOException {
+    return yamlMapper.writeValueAsBytes(model);
+  }
+
+  @Benchmark
+  public Map<String, JsonReferenceTest> readReferenceTest() throws IOException {
+    return jsonMapper.readValue(referenceTest, REFERENCE_TESTS);
+  }
+}
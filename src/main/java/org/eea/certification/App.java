@@ -3,28 +3,51 @@ package org.eea.certification;
 import org.apache.tuweni.eth.EthJsonModule;
 
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
-import java.nio.file.FileVisitor;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Supplier;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
-import org.eea.certification.evm.EVMExecutorConfiguration;
+import org.eea.certification.evm.CorpusArchive;
+import org.eea.certification.evm.CorpusIndex;
+import org.eea.certification.evm.CorpusManifest;
+import org.eea.certification.evm.CorpusPack;
+import org.eea.certification.evm.CorpusVerifier;
+import org.eea.certification.evm.CorpusWriter;
 import org.eea.certification.evm.EVMExecutors;
 import org.eea.certification.evm.EVMOpcodeTestGenerator;
+import org.eea.certification.evm.ExecutionMatrix;
+import org.eea.certification.evm.ExecutionServer;
 import org.eea.certification.evm.JsonModule;
-import org.eea.certification.evm.JsonReferenceTest;
+import org.eea.certification.evm.Metrics;
+import org.eea.certification.evm.MetricsServer;
+import org.eea.certification.evm.OpcodeBenchmark;
 import org.eea.certification.evm.OpcodeTestModel;
+import org.eea.certification.evm.ProgramFuzzer;
+import org.eea.certification.evm.ReferenceTestReader;
+import org.eea.certification.evm.RegenerationManifest;
+import org.eea.certification.evm.SaturationProgramGenerator;
+import org.eea.certification.evm.Shard;
+import org.eea.certification.evm.ShardManifest;
 
 /**
  * Entry point of the application.
@@ -32,34 +55,236 @@ import org.eea.certification.evm.OpcodeTestModel;
 public class App {
 
   private static final ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+  private static final ObjectMapper jsonMapper = new ObjectMapper();
+  private static final ObjectMapper deltaMapper = new ObjectMapper(new YAMLFactory());
+
+  /**
+   * The mapper writing the tests of a corpus, the delta mapper when --delta-after is passed.
+   */
+  private static ObjectMapper testMapper = mapper;
 
   static {
     mapper.registerModule(new JsonModule());
     mapper.registerModule(new EthJsonModule());
+    deltaMapper.registerModule(JsonModule.withDeltaAfterState());
+    deltaMapper.registerModule(new EthJsonModule());
+    jsonMapper.registerModule(new JsonModule());
+    jsonMapper.registerModule(new EthJsonModule());
   }
 
   /**
-   * @param args A set of command line arguments used to run the application Arguments are expected to be: generate,
-   *        followed by an optional argument of a path to generate tests. If no path is provided, the working directory
-   *        is used. recreate, followed by the path of a yaml file containing a valid test model, and an optional
-   *        argument of a path to generate tests. If no path is provided, the working directory is used.
+   * Runs a command. Paths default to the working directory, and options of the form {@code --name=value} may be passed
+   * anywhere after the command.
+   * <ul>
+   * <li>{@code generate [path]} generates a corpus, with a manifest.yaml to rebuild it. Accepts {@code --seed=N} to
+   * make it reproducible and {@code --tests-per-opcode=N}.</li>
+   * <li>{@code rebuild manifest [path]} generates the corpus of a manifest again.</li>
+   * <li>{@code recreate models... [path]} runs test models, given as YAML files, folders of such files or glob
+   * patterns, against every hard fork. The last argument is the destination when there are several.</li>
+   * <li>{@code vmtests folder [path]} converts the tests of an ethereum/tests VMTests folder and runs them against
+   * every hard fork.</li>
+   * <li>{@code verify [paths...]} replays the tests of files, folders or archives and reports the tests whose outcome
+   * changed. Accepts {@code --fail-fast} to stop at the first mismatch.</li>
+   * <li>{@code pack folder [destination]} writes one indexed pack file per hard fork.</li>
+   * <li>{@code unpack pack [path]} writes the tests of a pack file or folder of packs back in the YAML layout.</li>
+   * <li>{@code merge shards... destination} validates the output folders of every shard of a build and combines them
+   * into a single corpus.</li>
+   * <li>{@code index [path]} rebuilds the .corpus-index file of a folder of tests, otherwise updated as tests are
+   * written.</li>
+   * <li>{@code query [path]} prints the tests of a folder matching {@code --name}, {@code --fork},
+   * {@code --halt-reason} and the {@code --min-} and {@code --max-} bounds of {@code gas-used}, {@code all-gas-used}
+   * and {@code code-size}, using its index. {@code --per-opcode=N} samples up to N of them per opcode and hard fork,
+   * drawn with {@code --seed=N}.</li>
+   * <li>{@code fuzz [path]} mutates and splices multi-opcode programs on all hard forks and writes those reaching new
+   * coverage features as FUZZ tests. Accepts {@code --seed=N}, {@code --executions=N}, {@code --duration=N} in
+   * seconds, 60 by default, and {@code --coverage-bits=N}, the base 2 logarithm of the size of the coverage map.</li>
+   * <li>{@code bench [models...]} times tests against their hard fork after {@code --warmup=N} rounds, 5 by default,
+   * over {@code --iterations=N} runs each, 50 by default. Prints the run time percentiles and median time per gas of
+   * each opcode, flags the tests whose time per gas is more than {@code --outlier-factor=X} times away from the median
+   * of their hard fork, 10 by default, and writes all timings to the YAML file given by {@code --report=path}.</li>
+   * <li>{@code saturate [path]} writes a benchmark corpus, one test per opcode and hard fork looping over the opcode
+   * until the {@code --gas=N} of the test, 1000000 by default, runs out. Accepts {@code --seed=N} and
+   * {@code --unroll=N}, the repetitions of the opcode in the body of the loop, 16 by default.</li>
+   * <li>{@code serve} runs the test models posted to /run against the hard forks of the forks query parameter. Accepts
+   * {@code --port=N} and {@code --cache-size=N}, the number of results cached by model hash.</li>
+   * </ul>
+   * Options shared by several commands:
+   * <ul>
+   * <li>{@code --parallelism=N}, the number of worker threads, the number of processors by default.</li>
+   * <li>{@code --force} makes recreate and vmtests rerun the (model, hard fork) pairs whose input, hard fork and EVM
+   * are unchanged since the last run.</li>
+   * <li>{@code --shard=i/N} makes generate, rebuild, recreate and vmtests only produce the tests of shard i of N,
+   * numbered from 0, with a shard.yaml manifest of the files written.</li>
+   * <li>{@code --archive=file.zip} makes generate, rebuild, recreate and vmtests write the tests as the entries of a
+   * zip archive, which verify reads in place.</li>
+   * <li>{@code --delta-after} makes generate, rebuild, recreate, vmtests, fuzz, saturate and unpack write the accounts
+   * of the after state as accountChanges, only holding what differs from the before state. Every command reads both
+   * layouts, and recreate and vmtests only rewrite up-to-date tests in the other layout with {@code --force}.</li>
+   * <li>{@code --metrics-port=N} serves the metrics in the Prometheus text format at /metrics while a command runs, and
+   * {@code --metrics-file=path} dumps them as JSON when it exits.</li>
+   * </ul>
+   *
+   * @param args the command, followed by its arguments and options
    */
   public static void main(String[] args) {
-    if (args.length > 0) {
-      String action = args[0];
+    List<String> arguments = new ArrayList<>();
+    Map<String, String> options = new HashMap<>();
+    for (String arg : args) {
+      if (arg.startsWith("--")) {
+        int separator = arg.indexOf('=');
+        if (separator == -1) {
+          options.put(arg.substring(2), "true");
+        } else {
+          options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+      } else {
+        arguments.add(arg);
+      }
+    }
+    if (options.containsKey("delta-after")) {
+      testMapper = deltaMapper;
+    }
+    MetricsServer metricsServer = startMetrics(options);
+    try {
+      run(arguments, options);
+    } finally {
+      if (metricsServer != null) {
+        metricsServer.close();
+      }
+    }
+  }
+
+  private static void run(List<String> arguments, Map<String, String> options) {
+    if (arguments.size() > 0) {
+      String action = arguments.get(0);
       if ("generate".equals(action)) {
-        Path path = Paths.get(args.length >= 2 ? args[1] : "");
-        generate(path);
+        Path path = Paths.get(arguments.size() >= 2 ? arguments.get(1) : "");
+        CorpusManifest manifest = new CorpusManifest(
+            longOption(options, "seed", new SecureRandom().nextLong()),
+            intOption(options, "tests-per-opcode", 5),
+            new ArrayList<>(EVMExecutors.registry.keySet()));
+        generate(
+            path,
+            manifest,
+            intOption(options, "parallelism", Runtime.getRuntime().availableProcessors()),
+            shardOption(options),
+            archiveOption(options));
+      } else if ("rebuild".equals(action)) {
+        Path manifestPath = Paths.get(arguments.size() >= 2 ? arguments.get(1) : "");
+        Path path = Paths.get(arguments.size() >= 3 ? arguments.get(2) : "");
+        generate(
+            path,
+            readManifest(manifestPath),
+            intOption(options, "parallelism", Runtime.getRuntime().availableProcessors()),
+            shardOption(options),
+            archiveOption(options));
       } else if ("recreate".equals(action)) {
-        Path modelPath = Paths.get(args.length >= 2 ? args[1] : "");
-        Path testsPath = Paths.get(args.length >= 3 ? args[2] : "");
+        // with several arguments, the last one is the destination
+        List<String> models = arguments.size() >= 3
+            ? arguments.subList(1, arguments.size() - 1)
+            : arguments.subList(1, arguments.size());
+        Path testsPath = Paths.get(arguments.size() >= 3 ? arguments.get(arguments.size() - 1) : "");
 
-        recreate(modelPath, testsPath);
+        recreate(
+            models,
+            testsPath,
+            intOption(options, "parallelism", Runtime.getRuntime().availableProcessors()),
+            options.containsKey("force"),
+            shardOption(options),
+            archiveOption(options));
       } else if ("vmtests".equals(action)) {
-        Path referenceTests = Paths.get(args.length >= 2 ? args[1] : "");
-        Path testsPath = Paths.get(args.length >= 3 ? args[2] : "");
+        Path referenceTests = Paths.get(arguments.size() >= 2 ? arguments.get(1) : "");
+        Path testsPath = Paths.get(arguments.size() >= 3 ? arguments.get(2) : "");
 
-        vmtests(referenceTests, testsPath);
+        vmtests(
+            referenceTests,
+            testsPath,
+            intOption(options, "parallelism", Runtime.getRuntime().availableProcessors()),
+            options.containsKey("force"),
+            shardOption(options),
+            archiveOption(options));
+      } else if ("verify".equals(action)) {
+        List<Path> paths = new ArrayList<>();
+        for (String argument : arguments.subList(1, arguments.size())) {
+          paths.add(Paths.get(argument));
+        }
+        if (paths.isEmpty()) {
+          paths.add(Paths.get(""));
+        }
+        verify(
+            paths,
+            intOption(options, "parallelism", Runtime.getRuntime().availableProcessors()),
+            options.containsKey("fail-fast"));
+      } else if ("pack".equals(action)) {
+        Path yamlRoot = Paths.get(arguments.size() >= 2 ? arguments.get(1) : "");
+        Path packRoot = Paths.get(arguments.size() >= 3 ? arguments.get(2) : "");
+        try {
+          CorpusPack.pack(yamlRoot, packRoot, mapper);
+        } catch (IOException e) {
+          System.err.println("Cannot pack tests from " + yamlRoot + ": " + e.getMessage());
+          e.printStackTrace();
+          System.exit(1);
+        }
+      } else if ("unpack".equals(action)) {
+        Path pack = Paths.get(arguments.size() >= 2 ? arguments.get(1) : "");
+        Path testsPath = Paths.get(arguments.size() >= 3 ? arguments.get(2) : "");
+        int parallelism = intOption(options, "parallelism", Runtime.getRuntime().availableProcessors());
+        try (CorpusWriter writer = new CorpusWriter(testsPath, testMapper, parallelism, 1024)) {
+          CorpusPack.unpack(List.of(pack), writer);
+        } catch (IOException e) {
+          System.err.println("Cannot unpack tests from " + pack + ": " + e.getMessage());
+          e.printStackTrace();
+          System.exit(1);
+        }
+      } else if ("merge".equals(action)) {
+        if (arguments.size() < 3) {
+          System.err.println("Usage: merge <shard folders...> <destination>");
+          System.exit(1);
+        }
+        List<Path> shardFolders = new ArrayList<>();
+        for (String argument : arguments.subList(1, arguments.size() - 1)) {
+          shardFolders.add(Paths.get(argument));
+        }
+        merge(shardFolders, Paths.get(arguments.get(arguments.size() - 1)));
+      } else if ("index".equals(action)) {
+        Path root = Paths.get(arguments.size() >= 2 ? arguments.get(1) : "");
+        buildIndex(root, intOption(options, "parallelism", Runtime.getRuntime().availableProcessors()));
+      } else if ("query".equals(action)) {
+        Path root = Paths.get(arguments.size() >= 2 ? arguments.get(1) : "");
+        query(root, options);
+      } else if ("fuzz".equals(action)) {
+        Path path = Paths.get(arguments.size() >= 2 ? arguments.get(1) : "");
+        fuzz(
+            path,
+            longOption(options, "seed", new SecureRandom().nextLong()),
+            intOption(options, "parallelism", Runtime.getRuntime().availableProcessors()),
+            longOption(options, "executions", Long.MAX_VALUE),
+            intOption(options, "duration", 60),
+            intOption(options, "coverage-bits", 24));
+      } else if ("saturate".equals(action)) {
+        Path path = Paths.get(arguments.size() >= 2 ? arguments.get(1) : "");
+        saturate(
+            path,
+            longOption(options, "seed", new SecureRandom().nextLong()),
+            longOption(options, "gas", SaturationProgramGenerator.DEFAULT_GAS),
+            intOption(options, "unroll", SaturationProgramGenerator.DEFAULT_UNROLL),
+            intOption(options, "parallelism", Runtime.getRuntime().availableProcessors()));
+      } else if ("bench".equals(action)) {
+        List<String> patterns = new ArrayList<>(arguments.subList(1, arguments.size()));
+        if (patterns.isEmpty()) {
+          patterns.add("");
+        }
+        bench(
+            patterns,
+            intOption(options, "warmup", 5),
+            intOption(options, "iterations", 50),
+            doubleOption(options, "outlier-factor", 10),
+            options.get("report"));
+      } else if ("serve".equals(action)) {
+        serve(
+            intOption(options, "port", 8545),
+            intOption(options, "parallelism", Runtime.getRuntime().availableProcessors()),
+            longOption(options, "cache-size", 10_000));
       } else {
         System.err.println("Unrecognized command " + action);
         System.exit(1);
@@ -71,107 +296,709 @@ public class App {
 
   }
 
-  private static void vmtests(Path referenceTestsFolder, Path testsPath) {
-    if (!referenceTestsFolder.toFile().exists()) {
-      System.err.println("Cannot find reference test folder: " + referenceTestsFolder);
+  private static void fuzz(
+      Path path,
+      long seed,
+      int parallelism,
+      long executions,
+      int durationSeconds,
+      int coverageBits) {
+    List<String> hardForks = new ArrayList<>(EVMExecutors.registry.keySet());
+    ProgramFuzzer fuzzer;
+    try {
+      fuzzer = new ProgramFuzzer(seed, hardForks, coverageBits);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
       System.exit(1);
+      return;
     }
-    TypeReference<HashMap<String, JsonReferenceTest>> ref = new TypeReference<>() {};
-    List<OpcodeTestModel> referenceTests = new ArrayList<>();
-    FileVisitor<Path> visitor = new SimpleFileVisitor<>() {
-      @Override
-      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-        if (file.getFileName().toString().endsWith(".json")) {
-          Map<String, JsonReferenceTest> tests = mapper.readValue(file.toFile(), ref);
-          for (Map.Entry<String, JsonReferenceTest> entry : tests.entrySet()) {
-            OpcodeTestModel model = OpcodeTestModel.fromJsonReferenceTest("frontier", entry.getKey(), entry.getValue());
-            referenceTests.add(model);
-          }
-        }
-        return FileVisitResult.CONTINUE;
+    CorpusIndex index = loadIndex(path);
+    for (CorpusIndex.Entry entry : index.query(entry -> ProgramFuzzer.NAME.equals(entry.getName()))) {
+      fuzzer.continueAfter(entry.getHardFork(), entry.getIndex());
+    }
+    try (CorpusWriter writer = corpusWriter(null, path, parallelism, index::written)) {
+      writer.createFolders(hardForkFolders(hardForks));
+      long deadline = System.nanoTime() + durationSeconds * 1_000_000_000L;
+      fuzzer.run(parallelism, executions, deadline, seed, model -> {
+        index.expect(writer.fileOf(model), model);
+        writer.accept(model);
+      });
+    } catch (IOException e) {
+      System.err.println("Error writing tests under " + path + ": " + e.getMessage());
+      e.printStackTrace();
+      System.exit(1);
+    }
+    saveIndex(index, path);
+  }
+
+  private static void saturate(Path path, long seed, long gas, int unroll, int parallelism) {
+    SaturationProgramGenerator generator;
+    try {
+      generator = new SaturationProgramGenerator(seed, gas, unroll);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.exit(1);
+      return;
+    }
+    List<String> hardForks = new ArrayList<>(EVMExecutors.registry.keySet());
+    CorpusIndex index = loadIndex(path);
+    try (CorpusWriter writer = corpusWriter(null, path, parallelism, index::written)) {
+      writer.createFolders(hardForkFolders(hardForks));
+      generator.generate(hardForks, parallelism, model -> {
+        index.expect(writer.fileOf(model), model);
+        writer.accept(model);
+      });
+    } catch (IOException e) {
+      System.err.println("Error writing tests under " + path + ": " + e.getMessage());
+      e.printStackTrace();
+      System.exit(1);
+    }
+    saveIndex(index, path);
+  }
+
+  private static void bench(
+      List<String> patterns,
+      int warmupRounds,
+      int iterations,
+      double outlierFactor,
+      String reportFile) {
+    List<OpcodeTestModel> models;
+    OpcodeBenchmark benchmark;
+    try {
+      List<Path> files = ExecutionMatrix.resolve(patterns);
+      models = ExecutionMatrix.read(files, mapper, Runtime.getRuntime().availableProcessors());
+      benchmark = new OpcodeBenchmark(warmupRounds, iterations, outlierFactor);
+    } catch (IOException | IllegalArgumentException e) {
+      System.err.println("Cannot benchmark tests: " + e.getMessage());
+      System.exit(1);
+      return;
+    }
+    benchmark.run(models);
+    System.out.println("hardFork\topcode\truns\tp50 ns/run\tp99 ns/run\tmax ns/run\tp50 ns/gas");
+    for (OpcodeBenchmark.OpcodeResult opcode : benchmark.getOpcodes()) {
+      System.out
+          .printf(
+              "%s\t%s\t%d\t%d\t%d\t%d\t%.3f%n",
+              opcode.getHardFork(),
+              opcode.getName(),
+              opcode.getRuns(),
+              opcode.getNanosPerRunP50(),
+              opcode.getNanosPerRunP99(),
+              opcode.getNanosPerRunMax(),
+              opcode.getNanosPerGasP50());
+    }
+    for (OpcodeBenchmark.TestResult test : benchmark.getMispriced()) {
+      System.out
+          .printf(
+              "Possibly mispriced: %s/%s-%d, %.3f ns/gas over %d gas%n",
+              test.getHardFork(),
+              test.getName(),
+              test.getIndex(),
+              test.getNanosPerGas(),
+              test.getGasUsed());
+    }
+    if (reportFile != null) {
+      Map<String, Object> report = new LinkedHashMap<>();
+      report.put("opcodes", benchmark.getOpcodes());
+      report.put("tests", benchmark.getTests());
+      try {
+        mapper.writeValue(Paths.get(reportFile).toFile(), report);
+      } catch (IOException e) {
+        System.err.println("Cannot write benchmark report " + reportFile + ": " + e.getMessage());
+        System.exit(1);
       }
-    };
+    }
+  }
+
+  private static void serve(int port, int parallelism, long cacheSize) {
+    ExecutionServer server = null;
     try {
-      Files.walkFileTree(referenceTestsFolder, visitor);
+      server = ExecutionServer.start(port, mapper, jsonMapper, parallelism, cacheSize);
     } catch (IOException e) {
-      System.err.println("Cannot read reference test folder: " + referenceTestsFolder + ": " + e.getMessage());
+      System.err.println("Cannot start the execution server on port " + port + ": " + e.getMessage());
+      e.printStackTrace();
       System.exit(1);
     }
-    testsPath.toFile().mkdirs();
-    for (OpcodeTestModel model : referenceTests) {
-      if (model.getName().contains("loop")) {
-        continue;
+    Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+    System.out.println("Serving test runs on port " + server.getPort());
+    // serve until the process is stopped
+    try {
+      Thread.currentThread().join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void merge(List<Path> shardFolders, Path destination) {
+    try {
+      int merged = ShardManifest.merge(shardFolders, destination, mapper);
+      System.out.println("Merged " + merged + " tests from " + shardFolders.size() + " shards into " + destination);
+    } catch (IOException e) {
+      System.err.println("Cannot merge shards " + shardFolders + ": " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  private static CorpusIndex buildIndex(Path root, int parallelism) {
+    try {
+      CorpusIndex index = CorpusIndex.build(root, mapper, parallelism);
+      index.save();
+      return index;
+    } catch (IOException e) {
+      System.err.println("Cannot index tests under " + root + ": " + e.getMessage());
+      e.printStackTrace();
+      System.exit(1);
+      return null;
+    }
+  }
+
+  private static void query(Path root, Map<String, String> options) {
+    long start = System.nanoTime();
+    CorpusIndex index;
+    if (Files.exists(root.resolve(CorpusIndex.FILE_NAME))) {
+      index = loadIndex(root);
+    } else {
+      index = buildIndex(root, intOption(options, "parallelism", Runtime.getRuntime().availableProcessors()));
+    }
+    Predicate<CorpusIndex.Entry> filter = entry -> true;
+    String name = options.get("name");
+    if (name != null) {
+      filter = filter.and(entry -> entry.getName().equals(name));
+    }
+    String fork = options.get("fork");
+    if (fork != null) {
+      filter = filter.and(entry -> entry.getHardFork().equals(fork));
+    }
+    String haltReason = options.get("halt-reason");
+    if (haltReason != null) {
+      filter = filter.and(entry -> entry.getHaltReason().equals(haltReason));
+    }
+    filter = filter.and(range(options, "gas-used", CorpusIndex.Entry::getGasUsed));
+    filter = filter.and(range(options, "all-gas-used", CorpusIndex.Entry::getAllGasUsed));
+    filter = filter.and(range(options, "code-size", CorpusIndex.Entry::getCodeSize));
+    List<CorpusIndex.Entry> entries = index.query(filter);
+    if (options.containsKey("per-opcode")) {
+      entries = CorpusIndex.sample(entries, intOption(options, "per-opcode", 1), longOption(options, "seed", 0));
+    }
+    for (CorpusIndex.Entry entry : entries) {
+      System.out.println(entry.getFile());
+    }
+    System.err.printf("%d tests in %d ms%n", entries.size(), (System.nanoTime() - start) / 1_000_000);
+  }
+
+  /**
+   * @return a filter of the values between the --min- and --max- options of a field, inclusive
+   */
+  private static Predicate<CorpusIndex.Entry> range(
+      Map<String, String> options,
+      String field,
+      ToLongFunction<CorpusIndex.Entry> value) {
+    long min = longOption(options, "min-" + field, Long.MIN_VALUE);
+    long max = longOption(options, "max-" + field, Long.MAX_VALUE);
+    return entry -> value.applyAsLong(entry) >= min && value.applyAsLong(entry) <= max;
+  }
+
+  private static MetricsServer startMetrics(Map<String, String> options) {
+    String metricsFile = options.get("metrics-file");
+    if (metricsFile != null) {
+      // a shutdown hook also covers the commands exiting on errors
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> dumpMetrics(Paths.get(metricsFile))));
+    }
+    if (!options.containsKey("metrics-port")) {
+      return null;
+    }
+    int port = intOption(options, "metrics-port", 0);
+    try {
+      return MetricsServer.start(Metrics.global, port);
+    } catch (IOException e) {
+      System.err.println("Cannot serve metrics on port " + port + ": " + e.getMessage());
+      System.exit(1);
+      return null;
+    }
+  }
+
+  private static void dumpMetrics(Path metricsFile) {
+    try {
+      jsonMapper.writerWithDefaultPrettyPrinter().writeValue(metricsFile.toFile(), Metrics.global.snapshot());
+    } catch (IOException e) {
+      System.err.println("Cannot write metrics to " + metricsFile + ": " + e.getMessage());
+    }
+  }
+
+  private static int intOption(Map<String, String> options, String name, int defaultValue) {
+    String value = options.get(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      int result = Integer.parseInt(value);
+      if (result < 1) {
+        throw new NumberFormatException();
       }
-      for (Supplier<EVMExecutorConfiguration> executor : EVMExecutors.registry.values()) {
-        String hardFork = executor.get().getHardFork();
-        Path folder = testsPath.resolve(hardFork);
-        folder.toFile().mkdirs();
-        OpcodeTestModel result = EVMOpcodeTestGenerator.run(model, hardFork);
-        if (result == null) {
-          continue;
+      return result;
+    } catch (NumberFormatException e) {
+      System.err.println("Invalid value for --" + name + ": " + value);
+      System.exit(1);
+      return defaultValue;
+    }
+  }
+
+  private static long longOption(Map<String, String> options, String name, long defaultValue) {
+    String value = options.get(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      System.err.println("Invalid value for --" + name + ": " + value);
+      System.exit(1);
+      return defaultValue;
+    }
+  }
+
+  private static double doubleOption(Map<String, String> options, String name, double defaultValue) {
+    String value = options.get(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      System.err.println("Invalid value for --" + name + ": " + value);
+      System.exit(1);
+      return defaultValue;
+    }
+  }
+
+  private static Shard shardOption(Map<String, String> options) {
+    String value = options.get("shard");
+    if (value == null) {
+      return Shard.ALL;
+    }
+    try {
+      return Shard.parse(value);
+    } catch (IllegalArgumentException e) {
+      System.err.println("Invalid value for --shard: " + e.getMessage());
+      System.exit(1);
+      return Shard.ALL;
+    }
+  }
+
+  private static Path archiveOption(Map<String, String> options) {
+    String value = options.get("archive");
+    if (value == null) {
+      return null;
+    }
+    if (shardOption(options).getCount() > 1) {
+      // shards are merged from folders
+      System.err.println("--archive cannot be combined with --shard");
+      System.exit(1);
+    }
+    return Paths.get(value);
+  }
+
+  private static CorpusWriter corpusWriter(
+      CorpusArchive.Writer archive,
+      Path root,
+      int parallelism,
+      BiConsumer<Path, ByteBuffer> listener) {
+    return archive == null
+        ? new CorpusWriter(root, testMapper, parallelism, 1024, listener)
+        : new CorpusWriter(archive, root, testMapper, parallelism, 1024, listener);
+  }
+
+  private static CorpusArchive.Writer openArchive(Path archive) throws IOException {
+    return archive == null ? null : new CorpusArchive.Writer(archive);
+  }
+
+  private static CorpusManifest readManifest(Path manifestPath) {
+    try {
+      CorpusManifest manifest = mapper.readValue(manifestPath.toFile(), CorpusManifest.class);
+      manifest.checkGeneratorVersion();
+      return manifest;
+    } catch (IOException | IllegalStateException e) {
+      System.err.println("Cannot rebuild manifest " + manifestPath + ": " + e.getMessage());
+      System.exit(1);
+      return null;
+    }
+  }
+
+  private static void vmtests(
+      Path referenceTestsFolder,
+      Path testsPath,
+      int parallelism,
+      boolean force,
+      Shard shard,
+      Path archive) {
+    if (!referenceTestsFolder.toFile().exists()) {
+      System.err.println("Cannot find reference test folder: " + referenceTestsFolder);
+      System.exit(1);
+    }
+    ReferenceTestReader reader = new ReferenceTestReader(jsonMapper);
+    // the first test read of a name would depend on thread timing, so the winners are picked from the names first
+    ConcurrentMap<String, TestSource> winners = new ConcurrentHashMap<>();
+    try {
+      reader.readAllNames(referenceTestsFolder, parallelism, (file, position, name) -> {
+        if (!name.contains("loop")) {
+          winners.merge(name, new TestSource(file, position), BinaryOperator.minBy(Comparator.naturalOrder()));
+        }
+      });
+    } catch (IOException e) {
+      System.err.println("Cannot read reference tests from " + referenceTestsFolder + ": " + e.getMessage());
+      e.printStackTrace();
+      System.exit(1);
+    }
+    // models are converted and run as they are read, so only the tests in flight are held in memory
+    Matrix matrix = (hardForks, cell) -> {
+      reader.readAll(referenceTestsFolder, parallelism, (file, position, name, test) -> {
+        TestSource winner = winners.get(name);
+        if (winner == null) {
+          return;
+        }
+        if (!winner.equals(new TestSource(file, position))) {
+          System.err.println("Skipping duplicate test " + name + " at position " + position + " of " + file);
+          return;
         }
-        Path testFile = folder.resolve(result.getName() + "-" + result.getIndex() + ".yaml");
+        OpcodeTestModel model = OpcodeTestModel.fromJsonReferenceTest("frontier", name, test);
         try {
-          mapper.writeValue(testFile.toFile(), result);
+          byte[] input = mapper.writeValueAsBytes(model);
+          for (String hardFork : hardForks) {
+            cell.run(model, () -> input, hardFork);
+          }
         } catch (IOException e) {
-          System.err.println("Cannot write test file contents: " + testFile);
-          e.printStackTrace();
-          System.exit(1);
+          throw new UncheckedIOException(e);
         }
-      }
+      });
+    };
+    runMatrix(matrix, testsPath, parallelism, force, shard, archive);
+  }
+
+  /**
+   * Where a reference test was read from, ordered by file then position.
+   */
+  private static final class TestSource implements Comparable<TestSource> {
+
+    final Path file;
+    final int position;
+
+    TestSource(Path file, int position) {
+      this.file = file;
+      this.position = position;
+    }
+
+    @Override
+    public int compareTo(TestSource other) {
+      int byFile = file.compareTo(other.file);
+      return byFile != 0 ? byFile : Integer.compare(position, other.position);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof TestSource && compareTo((TestSource) o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * file.hashCode() + position;
     }
   }
 
-  private static void recreate(Path modelPath, Path testsPath) {
-    if (!modelPath.toFile().exists()) {
-      System.err.println("Cannot find test file: " + modelPath);
+  private static void verify(List<Path> paths, int parallelism, boolean failFast) {
+    CorpusVerifier.Report report = null;
+    try {
+      report = new CorpusVerifier(mapper, parallelism, failFast).verify(paths);
+    } catch (IOException e) {
+      System.err.println("Cannot verify tests under " + paths + ": " + e.getMessage());
+      e.printStackTrace();
       System.exit(1);
     }
-    if (!modelPath.toFile().canRead()) {
-      System.err.println("Cannot read test file: " + modelPath);
+    for (CorpusVerifier.Mismatch mismatch : report.getMismatches()) {
+      System.out.println(mismatch);
+    }
+    System.out
+        .printf(
+            "Verified %d tests in %d ms (%.1f tests/sec), %d mismatches%n",
+            report.getVerified(),
+            report.getElapsedNanos() / 1_000_000,
+            report.getTestsPerSecond(),
+            report.getMismatches().size());
+    if (!report.getMismatches().isEmpty()) {
       System.exit(1);
     }
-    OpcodeTestModel model = null;
+  }
+
+  private static void recreate(
+      List<String> modelPatterns,
+      Path testsPath,
+      int parallelism,
+      boolean force,
+      Shard shard,
+      Path archive) {
+    List<OpcodeTestModel> models = null;
     try {
-      model = mapper.readValue(modelPath.toFile(), OpcodeTestModel.class);
+      List<Path> files = ExecutionMatrix.resolve(modelPatterns);
+      if (files.isEmpty()) {
+        System.err.println("Cannot find test files: " + modelPatterns);
+        System.exit(1);
+      }
+      models = ExecutionMatrix.read(files, mapper, parallelism);
     } catch (IOException e) {
-      System.err.println("Cannot interpret test file contents: " + modelPath);
+      System.err.println(e.getMessage());
       e.printStackTrace();
       System.exit(1);
     }
-    testsPath.toFile().mkdirs();
-    for (Supplier<EVMExecutorConfiguration> executor : EVMExecutors.registry.values()) {
-      String hardFork = executor.get().getHardFork();
-      Path folder = testsPath.resolve(hardFork);
-      folder.toFile().mkdirs();
-      OpcodeTestModel result = EVMOpcodeTestGenerator.run(model, hardFork);
-      Path testFile = folder.resolve(result.getName() + "-" + result.getIndex() + ".yaml");
-      try {
-        mapper.writeValue(testFile.toFile(), result);
-      } catch (IOException e) {
-        System.err.println("Cannot write test file contents: " + testFile);
-        e.printStackTrace();
-        System.exit(1);
+    runMatrix(ExecutionMatrix.distinct(models), testsPath, parallelism, force, shard, archive);
+  }
+
+  /**
+   * Hands every (model, hard fork) pair of a matrix to a cell.
+   */
+  @FunctionalInterface
+  private interface Matrix {
+
+    void run(List<String> hardForks, MatrixCell cell) throws IOException;
+  }
+
+  /**
+   * Regenerates a (model, hard fork) pair, given the serialized model the key of the pair is computed from.
+   */
+  @FunctionalInterface
+  private interface MatrixCell {
+
+    void run(OpcodeTestModel model, Input input, String hardFork) throws IOException;
+  }
+
+  @FunctionalInterface
+  private interface Input {
+
+    byte[] get() throws IOException;
+  }
+
+  /**
+   * Runs the pairs of a list of models in parallel, serializing each model once for all its pairs.
+   */
+  private static void runMatrix(
+      List<OpcodeTestModel> models,
+      Path testsPath,
+      int parallelism,
+      boolean force,
+      Shard shard,
+      Path archivePath) {
+    Matrix matrix = (hardForks, cell) -> {
+      AtomicReferenceArray<byte[]> inputs = new AtomicReferenceArray<>(models.size());
+      ExecutionMatrix
+          .run(
+              models.size(),
+              hardForks,
+              parallelism,
+              (model, hardFork) -> cell.run(models.get(model), () -> input(inputs, models, model), hardFork));
+    };
+    runMatrix(matrix, testsPath, parallelism, force, shard, archivePath);
+  }
+
+  /**
+   * Runs every model of the shard against every hard fork, skipping the pairs whose output is up to date in the
+   * manifest. Archives are always written from scratch.
+   */
+  private static void runMatrix(
+      Matrix matrix,
+      Path testsPath,
+      int parallelism,
+      boolean force,
+      Shard shard,
+      Path archivePath) {
+    List<String> hardForks = new ArrayList<>(EVMExecutors.registry.keySet());
+    RegenerationManifest manifest;
+    if (archivePath == null) {
+      testsPath.toFile().mkdirs();
+      manifest = loadRegenerationManifest(testsPath, force);
+    } else {
+      manifest = RegenerationManifest.empty(testsPath);
+    }
+    ShardManifest shardManifest = shard.getCount() == 1 ? null : new ShardManifest(shard, testsPath);
+    CorpusIndex index = archivePath == null ? loadIndex(testsPath) : CorpusIndex.empty(testsPath);
+    BiConsumer<Path, ByteBuffer> listener = manifest::written;
+    listener = listener.andThen(index::written);
+    if (shardManifest != null) {
+      listener = listener.andThen(shardManifest::written);
+    }
+    boolean failed = false;
+    try (CorpusArchive.Writer archive = openArchive(archivePath);
+        CorpusWriter writer = corpusWriter(archive, testsPath, parallelism, listener)) {
+      writer.createFolders(hardForkFolders(hardForks));
+      matrix.run(hardForks, (test, input, hardFork) -> {
+        if (shard.owns(EVMExecutors.cache.get(hardFork).getHardFork(), test.getName(), test.getIndex())) {
+          regenerate(test, input.get(), hardFork, writer, manifest, shardManifest, index);
+        }
+      });
+    } catch (IOException e) {
+      System.err.println("Cannot write tests under " + testsPath + ": " + e.getMessage());
+      e.printStackTrace();
+      failed = true;
+    }
+    if (archivePath == null) {
+      // the tests that were written are recorded, so the next run only redoes the others
+      saveRegenerationManifest(manifest, testsPath);
+      saveIndex(index, testsPath);
+    }
+    if (failed) {
+      System.exit(1);
+    }
+    saveShardManifest(shardManifest, testsPath);
+  }
+
+  /**
+   * @return the folders of the hard forks, as named by their configurations
+   */
+  private static Set<String> hardForkFolders(List<String> hardForks) {
+    Set<String> folders = new TreeSet<>();
+    for (String hardFork : hardForks) {
+      folders.add(EVMExecutors.cache.get(hardFork).getHardFork());
+    }
+    return folders;
+  }
+
+  private static byte[] input(AtomicReferenceArray<byte[]> inputs, List<OpcodeTestModel> models, int model)
+      throws IOException {
+    // serialized by the first pair of the model to run, pairs racing it serialize the same bytes
+    byte[] input = inputs.get(model);
+    if (input == null) {
+      input = mapper.writeValueAsBytes(models.get(model));
+      inputs.compareAndSet(model, null, input);
+    }
+    return input;
+  }
+
+  /**
+   * Runs a model against a hard fork, unless its output is up to date in the manifest.
+   */
+  private static void regenerate(
+      OpcodeTestModel model,
+      byte[] input,
+      String hardFork,
+      CorpusWriter writer,
+      RegenerationManifest manifest,
+      ShardManifest shardManifest,
+      CorpusIndex index) throws IOException {
+    String key = RegenerationManifest.key(input, hardFork);
+    if (manifest.isUpToDate(key)) {
+      Path output = manifest.outputOf(key);
+      if (shardManifest != null && output != null) {
+        // outputs kept from a previous run are part of the shard all the same
+        shardManifest.written(output, ByteBuffer.wrap(Files.readAllBytes(output)));
+      }
+      if (output != null && !index.contains(output)) {
+        index.put(output, mapper.readValue(output.toFile(), OpcodeTestModel.class));
       }
+      return;
     }
+    OpcodeTestModel result = EVMOpcodeTestGenerator.run(model, hardFork);
+    if (result == null) {
+      manifest.rejected(key);
+      return;
+    }
+    manifest.expect(writer.fileOf(result), key);
+    index.expect(writer.fileOf(result), result);
+    writer.accept(result);
   }
 
-  private static void generate(Path path) {
-    path.toFile().mkdirs();
+  private static CorpusIndex loadIndex(Path testsPath) {
+    try {
+      return CorpusIndex.load(testsPath);
+    } catch (IOException e) {
+      System.err.println("Cannot read corpus index, it will only list the tests written: " + e.getMessage());
+      return CorpusIndex.empty(testsPath);
+    }
+  }
 
-    EVMOpcodeTestGenerator generator = new EVMOpcodeTestGenerator();
-    List<OpcodeTestModel> tests = generator.generateForAllHardForks(5);
-    for (OpcodeTestModel test : tests) {
-      Path folder = path.resolve(test.getHardFork());
-      folder.toFile().mkdirs();
-      Path testFile = folder.resolve(test.getName() + "-" + test.getIndex() + ".yaml");
+  private static void saveIndex(CorpusIndex index, Path testsPath) {
+    try {
+      index.save();
+    } catch (IOException e) {
+      System.err.println("Cannot write corpus index under " + testsPath + ": " + e.getMessage());
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  private static RegenerationManifest loadRegenerationManifest(Path testsPath, boolean force) {
+    if (force) {
+      return RegenerationManifest.empty(testsPath);
+    }
+    try {
+      return RegenerationManifest.load(testsPath);
+    } catch (IOException e) {
+      System.err.println("Cannot read regeneration manifest, regenerating all tests: " + e.getMessage());
+      return RegenerationManifest.empty(testsPath);
+    }
+  }
+
+  private static void saveRegenerationManifest(RegenerationManifest manifest, Path testsPath) {
+    try {
+      manifest.save();
+    } catch (IOException e) {
+      System.err.println("Cannot write regeneration manifest under " + testsPath + ": " + e.getMessage());
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  private static void saveShardManifest(ShardManifest shardManifest, Path testsPath) {
+    if (shardManifest == null) {
+      return;
+    }
+    try {
+      shardManifest.save(mapper);
+    } catch (IOException e) {
+      System.err.println("Cannot write shard manifest under " + testsPath + ": " + e.getMessage());
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  private static void generate(
+      Path path,
+      CorpusManifest manifest,
+      int parallelism,
+      Shard shard,
+      Path archivePath) {
+    if (archivePath == null) {
+      path.toFile().mkdirs();
+
+      Path manifestFile = path.resolve("manifest.yaml");
       try {
-        mapper.writeValue(testFile.toFile(), test);
+        mapper.writeValue(manifestFile.toFile(), manifest);
       } catch (IOException e) {
-        System.err.println("Error writing file " + testFile + ": " + e.getMessage());
+        System.err.println("Error writing file " + manifestFile + ": " + e.getMessage());
         e.printStackTrace();
         System.exit(1);
       }
     }
+    ShardManifest shardManifest = shard.getCount() == 1 ? null : new ShardManifest(shard, path);
+    BiConsumer<Path, ByteBuffer> listener = shardManifest == null ? (file, contents) -> {} : shardManifest::written;
+    CorpusIndex index = archivePath == null ? loadIndex(path) : null;
+    if (index != null) {
+      listener = listener.andThen(index::written);
+    }
+    try (CorpusArchive.Writer archive = openArchive(archivePath);
+        CorpusWriter writer = corpusWriter(archive, path, parallelism, listener)) {
+      if (archive != null) {
+        archive.put("manifest.yaml", ByteBuffer.wrap(mapper.writeValueAsBytes(manifest)));
+      }
+      writer.createFolders(hardForkFolders(manifest.getHardForks()));
+      manifest.rebuild(parallelism, shard, index == null ? writer : model -> {
+        index.expect(writer.fileOf(model), model);
+        writer.accept(model);
+      });
+    } catch (IOException e) {
+      System.err.println("Error writing tests under " + path + ": " + e.getMessage());
+      e.printStackTrace();
+      System.exit(1);
+    }
+    if (index != null) {
+      saveIndex(index, path);
+    }
+    saveShardManifest(shardManifest, path);
   }
 }
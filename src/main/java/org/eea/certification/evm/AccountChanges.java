@@ -0,0 +1,372 @@
+package org.eea.certification.evm;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.units.bigints.UInt256;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.google.common.base.Suppliers;
+import org.hyperledger.besu.datatypes.Address;
+import org.hyperledger.besu.datatypes.Wei;
+import org.hyperledger.besu.evm.account.Account;
+import org.hyperledger.besu.evm.fluent.SimpleAccount;
+
+/**
+ * The accounts of an after state, recorded as their differences with the accounts of the before state.
+ * <p>
+ * Each account of the after state has one change, in order, holding its address and only the fields that differ from
+ * the account of the same address before, or from an empty account if there was none: balance, code, nonce, the
+ * storage slots set to a new value and the storage slots no longer set. Accounts left as they were take one line:
+ *
+ * <pre>
+ * accountChanges:
+ * - address: 0x...
+ * - address: 0x...
+ *   balance: 0x...
+ *   storage:
+ *   - key: 0x...
+ *     value: 0x...
+ *   clearedStorage:
+ *   - 0x...
+ * </pre>
+ */
+public final class AccountChanges {
+
+  /**
+   * The differences of one account.
+   */
+  static final class Change {
+
+    private final Address address;
+    private final Wei balance;
+    private final Bytes code;
+    private final Long nonce;
+    private final Map<UInt256, UInt256> storage;
+    private final List<UInt256> clearedStorage;
+
+    Change(
+        Address address,
+        Wei balance,
+        Bytes code,
+        Long nonce,
+        Map<UInt256, UInt256> storage,
+        List<UInt256> clearedStorage) {
+      this.address = address;
+      this.balance = balance;
+      this.code = code;
+      this.nonce = nonce;
+      this.storage = storage;
+      this.clearedStorage = clearedStorage;
+    }
+
+    /**
+     * @return true if the account is left as it was
+     */
+    boolean isEmpty() {
+      return balance == null && code == null && nonce == null && storage.isEmpty() && clearedStorage.isEmpty();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Change)) {
+        return false;
+      }
+      Change that = (Change) o;
+      return address.equals(that.address)
+          && Objects.equals(balance, that.balance)
+          && Objects.equals(code, that.code)
+          && Objects.equals(nonce, that.nonce)
+          && storage.equals(that.storage)
+          && clearedStorage.equals(that.clearedStorage);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(address, balance, code, nonce, storage, clearedStorage);
+    }
+  }
+
+  private final List<Change> changes;
+
+  AccountChanges(List<Change> changes) {
+    this.changes = changes;
+  }
+
+  /**
+   * Records the differences of the accounts of an after state with the accounts of a before state.
+   *
+   * @param before the accounts before, or null
+   * @param after the accounts after
+   * @return the changes rebuilding the accounts after from the accounts before
+   */
+  public static AccountChanges diff(List<Account> before, List<Account> after) {
+    Map<Address, Account> previous = byAddress(before);
+    List<Change> changes = new ArrayList<>(after.size());
+    for (Account account : after) {
+      if (account == null) {
+        continue;
+      }
+      Account base = previous.get(account.getAddress());
+      Wei baseBalance = base == null ? Wei.ZERO : base.getBalance();
+      Bytes baseCode = base == null || base.getCode() == null ? Bytes.EMPTY : base.getCode();
+      long baseNonce = base == null ? 0 : base.getNonce();
+      Map<UInt256, UInt256> baseStorage = storage(base);
+      Map<UInt256, UInt256> afterStorage = storage(account);
+      Map<UInt256, UInt256> storage = new LinkedHashMap<>();
+      for (Map.Entry<UInt256, UInt256> entry : afterStorage.entrySet()) {
+        if (!entry.getValue().equals(baseStorage.get(entry.getKey()))) {
+          storage.put(entry.getKey(), entry.getValue());
+        }
+      }
+      List<UInt256> clearedStorage = new ArrayList<>();
+      for (UInt256 key : baseStorage.keySet()) {
+        if (!afterStorage.containsKey(key)) {
+          clearedStorage.add(key);
+        }
+      }
+      Bytes code = account.getCode() == null ? Bytes.EMPTY : account.getCode();
+      changes.add(
+          new Change(
+              account.getAddress(),
+              account.getBalance().equals(baseBalance) ? null : account.getBalance(),
+              code.equals(baseCode) ? null : code,
+              account.getNonce() == baseNonce ? null : account.getNonce(),
+              storage,
+              clearedStorage));
+    }
+    return new AccountChanges(changes);
+  }
+
+  /**
+   * Rebuilds the accounts of the after state.
+   *
+   * @param before the accounts before, or null
+   * @return the accounts after, as new accounts
+   */
+  public List<Account> apply(List<Account> before) {
+    Map<Address, Account> previous = byAddress(before);
+    List<Account> accounts = new ArrayList<>(changes.size());
+    for (Change change : changes) {
+      Account base = previous.get(change.address);
+      long nonce = change.nonce != null ? change.nonce : base == null ? 0 : base.getNonce();
+      Wei balance = change.balance != null ? change.balance : base == null ? Wei.ZERO : base.getBalance();
+      Bytes code = change.code != null ? change.code : base == null ? Bytes.EMPTY : base.getCode();
+      Map<UInt256, UInt256> storage = new LinkedHashMap<>(storage(base));
+      change.clearedStorage.forEach(storage::remove);
+      storage.putAll(change.storage);
+      SimpleAccount account = new SimpleAccount(change.address, nonce, balance);
+      account.setCode(code == null ? Bytes.EMPTY : code);
+      for (Map.Entry<UInt256, UInt256> entry : storage.entrySet()) {
+        account.setStorageValue(entry.getKey(), entry.getValue());
+      }
+      accounts.add(account);
+    }
+    return accounts;
+  }
+
+  /**
+   * Rebuilds the accounts of the after state on first access, so tests only read for their other fields never pay for
+   * it.
+   *
+   * @param before the accounts before, or null
+   * @return a read-only view of the accounts after
+   */
+  List<Account> applyLazily(List<Account> before) {
+    return new LazyAccounts(Suppliers.memoize(() -> Collections.unmodifiableList(apply(before))), changes.size());
+  }
+
+  /**
+   * @return the number of accounts of the after state
+   */
+  public int size() {
+    return changes.size();
+  }
+
+  /**
+   * @return the number of accounts of the after state differing from their state before
+   */
+  public int getChangedCount() {
+    int count = 0;
+    for (Change change : changes) {
+      if (!change.isEmpty()) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static Map<Address, Account> byAddress(List<Account> accounts) {
+    Map<Address, Account> result = new LinkedHashMap<>();
+    if (accounts != null) {
+      for (Account account : accounts) {
+        if (account != null) {
+          result.putIfAbsent(account.getAddress(), account);
+        }
+      }
+    }
+    return result;
+  }
+
+  private static Map<UInt256, UInt256> storage(Account account) {
+    if (account instanceof SimpleAccount) {
+      return ((SimpleAccount) account).getUpdatedStorage();
+    }
+    return Map.of();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof AccountChanges && changes.equals(((AccountChanges) o).changes);
+  }
+
+  @Override
+  public int hashCode() {
+    return changes.hashCode();
+  }
+
+  private static final class LazyAccounts extends AbstractList<Account> {
+
+    private final Supplier<List<Account>> accounts;
+    private final int size;
+
+    LazyAccounts(Supplier<List<Account>> accounts, int size) {
+      this.accounts = accounts;
+      this.size = size;
+    }
+
+    @Override
+    public Account get(int index) {
+      return accounts.get().get(index);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+
+  static class Serializer extends StdSerializer<AccountChanges> {
+
+    Serializer() {
+      super(AccountChanges.class);
+    }
+
+    @Override
+    public void serialize(AccountChanges value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+      gen.writeStartArray();
+      for (Change change : value.changes) {
+        gen.writeStartObject();
+        gen.writeStringField("address", change.address.toHexString());
+        if (change.balance != null) {
+          gen.writeStringField("balance", change.balance.toShortHexString());
+        }
+        if (change.code != null) {
+          gen.writeStringField("code", change.code.toHexString());
+        }
+        if (change.nonce != null) {
+          gen.writeStringField("nonce", Bytes.ofUnsignedLong(change.nonce).toShortHexString());
+        }
+        if (!change.storage.isEmpty()) {
+          gen.writeArrayFieldStart("storage");
+          for (Map.Entry<UInt256, UInt256> entry : change.storage.entrySet()) {
+            gen.writeStartObject();
+            gen.writeStringField("key", entry.getKey().toHexString());
+            gen.writeStringField("value", entry.getValue().toHexString());
+            gen.writeEndObject();
+          }
+          gen.writeEndArray();
+        }
+        if (!change.clearedStorage.isEmpty()) {
+          gen.writeArrayFieldStart("clearedStorage");
+          for (UInt256 key : change.clearedStorage) {
+            gen.writeString(key.toHexString());
+          }
+          gen.writeEndArray();
+        }
+        gen.writeEndObject();
+      }
+      gen.writeEndArray();
+    }
+  }
+
+  static class Deserializer extends StdDeserializer<AccountChanges> {
+
+    Deserializer() {
+      super(AccountChanges.class);
+    }
+
+    @Override
+    public AccountChanges deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+      if (p.currentToken() != JsonToken.START_ARRAY) {
+        return (AccountChanges) ctxt.handleUnexpectedToken(AccountChanges.class, p);
+      }
+      List<Change> changes = new ArrayList<>();
+      while (p.nextToken() != JsonToken.END_ARRAY) {
+        Address address = null;
+        Wei balance = null;
+        Bytes code = null;
+        Long nonce = null;
+        Map<UInt256, UInt256> storage = new LinkedHashMap<>();
+        List<UInt256> clearedStorage = new ArrayList<>();
+        while (p.nextToken() != JsonToken.END_OBJECT) {
+          String field = p.getCurrentName();
+          p.nextToken();
+          if ("address".equals(field)) {
+            address = Address.fromHexString(p.getText());
+          } else if ("balance".equals(field)) {
+            balance = Wei.fromHexString(p.getText());
+          } else if ("code".equals(field)) {
+            code = Bytes.fromHexString(p.getText());
+          } else if ("nonce".equals(field)) {
+            nonce = Bytes.fromHexStringLenient(p.getText()).toLong();
+          } else if ("storage".equals(field)) {
+            while (p.nextToken() != JsonToken.END_ARRAY) {
+              UInt256 key = null;
+              UInt256 value = null;
+              while (p.nextToken() != JsonToken.END_OBJECT) {
+                String slotField = p.getCurrentName();
+                p.nextToken();
+                if ("key".equals(slotField)) {
+                  key = UInt256.fromHexString(p.getText());
+                } else if ("value".equals(slotField)) {
+                  value = UInt256.fromHexString(p.getText());
+                }
+              }
+              storage.put(key, value);
+            }
+          } else if ("clearedStorage".equals(field)) {
+            while (p.nextToken() != JsonToken.END_ARRAY) {
+              clearedStorage.add(UInt256.fromHexString(p.getText()));
+            }
+          } else {
+            p.skipChildren();
+          }
+        }
+        if (address == null) {
+          throw JsonMappingException.from(p, "Account change without an address");
+        }
+        changes.add(new Change(address, balance, code, nonce, storage, clearedStorage));
+      }
+      return new AccountChanges(changes);
+    }
+  }
+}
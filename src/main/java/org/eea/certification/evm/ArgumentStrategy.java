@@ -0,0 +1,244 @@
+package org.eea.certification.evm;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.units.bigints.UInt256;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import org.hyperledger.besu.evm.operation.Operation;
+
+/**
+ * Synthesizes the stack arguments of an opcode under test.
+ * <p>
+ * Opcodes reading or writing memory get bounded offsets and sizes, and arguments are checked to keep the memory
+ * expansion within the limits of a test before anything is executed. Other arguments are random words, mixed with
+ * boundary values such as 0, 1, 2^255 and 2^256-1.
+ */
+final class ArgumentStrategy {
+
+  /**
+   * The kind of value of an argument.
+   */
+  enum Kind {
+    /**
+     * Any word, of 1 to 32 random bytes or a boundary value.
+     */
+    WORD,
+    /**
+     * A memory offset, bounded so the memory of the test stays small.
+     */
+    OFFSET,
+    /**
+     * A memory size, bounded so the memory of the test stays small.
+     */
+    SIZE,
+    /**
+     * A byte index or bit shift, around the width of a word.
+     */
+    INDEX
+  }
+
+  /**
+   * A memory range accessed by an opcode, given by the positions of its offset and size arguments.
+   */
+  private static final class Region {
+
+    final int offset;
+    final int size;
+    final long fixedSize;
+
+    private Region(int offset, int size, long fixedSize) {
+      this.offset = offset;
+      this.size = size;
+      this.fixedSize = fixedSize;
+    }
+
+    static Region of(int offset, int size) {
+      return new Region(offset, size, -1);
+    }
+
+    static Region fixed(int offset, long size) {
+      return new Region(offset, -1, size);
+    }
+  }
+
+  private static final int MAX_OFFSET = 4096;
+  private static final int MAX_SIZE = 2048;
+  private static final int MAX_DRAWS = 64;
+
+  /**
+   * The lowest gas available to a generated test, which the memory expansion must fit in.
+   */
+  private static final long MIN_GAS = 100_000_000L;
+
+  private static final List<Bytes> WORD_BOUNDARIES = List
+      .of(
+          Bytes.of(0),
+          Bytes.of(1),
+          UInt256.ONE.shiftLeft(255).toBytes(),
+          UInt256.MAX_VALUE.toBytes());
+
+  private static final long[] OFFSET_BOUNDARIES = {0, 1, 31, 32};
+  private static final long[] SIZE_BOUNDARIES = {0, 1, 32};
+  private static final long[] INDEX_BOUNDARIES = {0, 1, 31, 32, 255, 256};
+
+  private static final Map<String, ArgumentStrategy> strategies = new HashMap<>();
+
+  static {
+    Kind o = Kind.OFFSET;
+    Kind s = Kind.SIZE;
+    Kind w = Kind.WORD;
+    Kind i = Kind.INDEX;
+    register("CALLDATALOAD", List.of(o));
+    register("MLOAD", List.of(o), Region.fixed(0, 32));
+    register("MSTORE", List.of(o, w), Region.fixed(0, 32));
+    register("MSTORE8", List.of(o, w), Region.fixed(0, 1));
+    register("SHA3", List.of(o, s), Region.of(0, 1));
+    register("KECCAK256", List.of(o, s), Region.of(0, 1));
+    register("CALLDATACOPY", List.of(o, o, s), Region.of(0, 2));
+    register("CODECOPY", List.of(o, o, s), Region.of(0, 2));
+    register("RETURNDATACOPY", List.of(o, o, s), Region.of(0, 2));
+    register("EXTCODECOPY", List.of(w, o, o, s), Region.of(1, 3));
+    register("RETURN", List.of(o, s), Region.of(0, 1));
+    register("REVERT", List.of(o, s), Region.of(0, 1));
+    register("LOG0", List.of(o, s), Region.of(0, 1));
+    register("LOG1", List.of(o, s, w), Region.of(0, 1));
+    register("LOG2", List.of(o, s, w, w), Region.of(0, 1));
+    register("LOG3", List.of(o, s, w, w, w), Region.of(0, 1));
+    register("LOG4", List.of(o, s, w, w, w, w), Region.of(0, 1));
+    register("CREATE", List.of(w, o, s), Region.of(1, 2));
+    register("CREATE2", List.of(w, o, s, w), Region.of(1, 2));
+    register("BYTE", List.of(i, w));
+    register("SIGNEXTEND", List.of(i, w));
+    register("SHL", List.of(i, w));
+    register("SHR", List.of(i, w));
+    register("SAR", List.of(i, w));
+  }
+
+  private static final ArgumentStrategy[] WORDS_ONLY = new ArgumentStrategy[17];
+
+  static {
+    for (int count = 0; count < WORDS_ONLY.length; count++) {
+      WORDS_ONLY[count] = new ArgumentStrategy(Collections.nCopies(count, Kind.WORD), List.of());
+    }
+  }
+
+  private final List<Kind> kinds;
+  private final List<Region> regions;
+
+  private ArgumentStrategy(List<Kind> kinds, List<Region> regions) {
+    this.kinds = kinds;
+    this.regions = regions;
+  }
+
+  private static void register(String name, List<Kind> kinds, Region... regions) {
+    strategies.put(name, new ArgumentStrategy(kinds, List.of(regions)));
+  }
+
+  /**
+   * @param operation the opcode under test
+   * @return the strategy for the arguments of the opcode
+   */
+  static ArgumentStrategy of(Operation operation) {
+    ArgumentStrategy strategy = strategies.get(operation.getName());
+    int consumed = operation.getStackItemsConsumed();
+    if (strategy != null && strategy.kinds.size() == consumed) {
+      return strategy;
+    }
+    if (consumed < WORDS_ONLY.length) {
+      return WORDS_ONLY[consumed];
+    }
+    return new ArgumentStrategy(Collections.nCopies(consumed, Kind.WORD), List.of());
+  }
+
+  /**
+   * Draws the arguments of the opcode, redrawing the ones whose memory expansion cannot be part of a test.
+   *
+   * @param random the source of randomness of the test
+   * @return the arguments, in the order the opcode pops them, each of 1 to 32 bytes
+   */
+  List<Bytes> arguments(SplittableRandom random) {
+    List<Bytes> arguments = new ArrayList<>(kinds.size());
+    for (int draw = 0; draw < MAX_DRAWS; draw++) {
+      arguments.clear();
+      for (Kind kind : kinds) {
+        arguments.add(argument(kind, random));
+      }
+      if (isFeasible(arguments)) {
+        break;
+      }
+    }
+    return arguments;
+  }
+
+  private static Bytes argument(Kind kind, SplittableRandom random) {
+    boolean boundary = random.nextInt(4) == 0;
+    switch (kind) {
+      case OFFSET:
+        return boundary ? pick(OFFSET_BOUNDARIES, random) : minimal(random.nextInt(MAX_OFFSET));
+      case SIZE:
+        return boundary ? pick(SIZE_BOUNDARIES, random) : minimal(random.nextInt(MAX_SIZE + 1));
+      case INDEX:
+        return boundary ? pick(INDEX_BOUNDARIES, random) : minimal(random.nextInt(300));
+      default:
+        if (boundary) {
+          return WORD_BOUNDARIES.get(random.nextInt(WORD_BOUNDARIES.size()));
+        }
+        byte[] bytes = new byte[random.nextInt(32) + 1];
+        random.nextBytes(bytes);
+        return Bytes.wrap(bytes);
+    }
+  }
+
+  private static Bytes pick(long[] values, SplittableRandom random) {
+    return minimal(values[random.nextInt(values.length)]);
+  }
+
+  private static Bytes minimal(long value) {
+    Bytes bytes = Bytes.minimalBytes(value);
+    return bytes.isEmpty() ? Bytes.of(0) : bytes;
+  }
+
+  /**
+   * Checks that the memory touched by the arguments fits in a test, and that its expansion and copy costs fit in the
+   * gas of any generated test.
+   */
+  boolean isFeasible(List<Bytes> arguments) {
+    long words = 0;
+    for (Region region : regions) {
+      UInt256 offset = UInt256.fromBytes(arguments.get(region.offset));
+      long size;
+      if (region.fixedSize >= 0) {
+        size = region.fixedSize;
+      } else {
+        UInt256 sizeValue = UInt256.fromBytes(arguments.get(region.size));
+        if (!sizeValue.fitsLong()) {
+          return false;
+        }
+        size = sizeValue.toLong();
+      }
+      if (size == 0) {
+        continue;
+      }
+      if (!offset.fitsLong() || offset.toLong() > Integer.MAX_VALUE || size > Integer.MAX_VALUE) {
+        return false;
+      }
+      words = Math.max(words, (offset.toLong() + size + 31) / 32);
+      if (words > RecordingTracer.MAX_MEMORY_WORDS) {
+        return false;
+      }
+    }
+    long gas = 3 * words + words * words / 512;
+    for (Region region : regions) {
+      if (region.fixedSize < 0) {
+        gas += 3 * ((UInt256.fromBytes(arguments.get(region.size)).toLong() + 31) / 32);
+      }
+    }
+    return gas <= MIN_GAS;
+  }
+}
@@ -0,0 +1,76 @@
+package org.eea.certification.evm;
+
+import org.apache.tuweni.bytes.Bytes;
+
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.hyperledger.besu.datatypes.Hash;
+import org.hyperledger.besu.evm.Code;
+import org.hyperledger.besu.evm.EVM;
+
+/**
+ * Cache of analysed code, shared by all hard forks.
+ * <p>
+ * Code objects hold the code hash and the lazily computed jump destinations, neither of which depends on the hard
+ * fork for legacy bytecode, so the same object can be executed by the EVM of any fork. Entries are keyed by the
+ * bytecode itself, so a hit costs neither a keccak nor an analysis, and the cache is bounded by the total size of the
+ * cached bytecode.
+ */
+public class CodeCache {
+
+  private final Cache<Bytes, Code> codes;
+
+  /**
+   * @param maximumBytes the maximum total size of the cached bytecode
+   */
+  public CodeCache(long maximumBytes) {
+    this.codes = CacheBuilder
+        .newBuilder()
+        .maximumWeight(maximumBytes)
+        .weigher((Bytes bytes, Code code) -> bytes.size() + 1)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Gets the analysed code of some bytecode, analysing it with the given EVM on first use.
+   *
+   * @param evm the EVM to analyse the code with if it is not cached
+   * @param bytecode the bytecode
+   * @return the shared code object
+   */
+  public Code get(EVM evm, Bytes bytecode) {
+    try {
+      return codes.get(bytecode, () -> evm.getCode(Hash.hash(bytecode), bytecode));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw new IllegalStateException("Cannot analyse code " + bytecode, e.getCause());
+    }
+  }
+
+  public CacheStats getStats() {
+    return codes.stats();
+  }
+
+  /**
+   * @return the number of cached code objects
+   */
+  public long size() {
+    return codes.size();
+  }
+
+  @Override
+  public String toString() {
+    CacheStats stats = codes.stats();
+    return String
+        .format(
+            "code cache: %d entries, %d hits, %d misses (%.1f%% hit rate)",
+            codes.size(),
+            stats.hitCount(),
+            stats.missCount(),
+            100 * stats.hitRate());
+  }
+}
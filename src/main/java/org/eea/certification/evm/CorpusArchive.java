@@ -0,0 +1,168 @@
+package org.eea.certification.evm;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * A zip archive holding a corpus, with one deflated entry per test in the {@code <hardFork>/<name>-<index>.yaml}
+ * layout.
+ * <p>
+ * Archives are written as a stream, without any file per test, and read in place: entries are only inflated when the
+ * test is read, from any number of threads.
+ */
+public class CorpusArchive implements Closeable {
+
+  public static final String EXTENSION = ".zip";
+
+  /**
+   * The time of all entries, the earliest a zip entry can record, so that archives of the same tests only differ by the
+   * order of their entries. It is set as a local time, as an instant would fall out of the range of zip times west of
+   * UTC and make the entries depend on the time zone.
+   */
+  private static final LocalDateTime ENTRY_TIME = LocalDateTime.of(1980, 1, 1, 0, 0);
+
+  /**
+   * Appends entries to a new archive.
+   */
+  public static final class Writer implements Closeable {
+
+    private final ZipOutputStream out;
+    private long entries;
+
+    public Writer(Path file) throws IOException {
+      Path parent = file.toAbsolutePath().getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+      this.out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+    }
+
+    /**
+     * Appends an entry.
+     *
+     * @param name the name of the entry, with forward slashes
+     * @param contents the contents of the entry, from its position to its limit
+     * @throws IOException if the entry cannot be written
+     */
+    public synchronized void put(String name, ByteBuffer contents) throws IOException {
+      ZipEntry entry = new ZipEntry(name);
+      entry.setTimeLocal(ENTRY_TIME);
+      out.putNextEntry(entry);
+      if (contents.hasArray()) {
+        out.write(contents.array(), contents.arrayOffset() + contents.position(), contents.remaining());
+      } else {
+        byte[] bytes = new byte[contents.remaining()];
+        contents.duplicate().get(bytes);
+        out.write(bytes);
+      }
+      out.closeEntry();
+      entries++;
+    }
+
+    public synchronized long getEntries() {
+      return entries;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      out.close();
+    }
+  }
+
+  private final Path file;
+  private final ZipFile zip;
+  private final List<String> names;
+
+  private CorpusArchive(Path file, ZipFile zip, List<String> names) {
+    this.file = file;
+    this.zip = zip;
+    this.names = Collections.unmodifiableList(names);
+  }
+
+  /**
+   * @param path a path
+   * @return true if the path is an existing archive file
+   */
+  public static boolean isArchive(Path path) {
+    return Files.isRegularFile(path) && path.getFileName().toString().endsWith(EXTENSION);
+  }
+
+  /**
+   * Opens an archive, reading its central directory.
+   *
+   * @param file the archive file
+   * @return the opened archive
+   * @throws IOException if the file is not a readable zip archive
+   */
+  public static CorpusArchive open(Path file) throws IOException {
+    ZipFile zip = new ZipFile(file.toFile());
+    List<String> names = new ArrayList<>();
+    Enumeration<? extends ZipEntry> entries = zip.entries();
+    while (entries.hasMoreElements()) {
+      ZipEntry entry = entries.nextElement();
+      String name = entry.getName();
+      String fileName = name.substring(name.lastIndexOf('/') + 1);
+      if (!entry.isDirectory()
+          && fileName.endsWith(".yaml")
+          && !"manifest.yaml".equals(fileName)
+          && !ShardManifest.FILE_NAME.equals(fileName)) {
+        names.add(name);
+      }
+    }
+    Collections.sort(names);
+    return new CorpusArchive(file, zip, names);
+  }
+
+  /**
+   * @return the names of the test entries, sorted
+   */
+  public List<String> getNames() {
+    return names;
+  }
+
+  /**
+   * @param name the name of an entry
+   * @return a path identifying the entry in reports, made of the path of the archive and the name of the entry
+   */
+  public Path pathOf(String name) {
+    return file.resolve(name);
+  }
+
+  /**
+   * Reads a test, inflating its entry.
+   *
+   * @param name the name of the entry
+   * @param mapper the mapper reading the test
+   * @return the test
+   * @throws IOException if the entry does not exist or cannot be read
+   */
+  public OpcodeTestModel read(String name, ObjectMapper mapper) throws IOException {
+    ZipEntry entry = zip.getEntry(name);
+    if (entry == null) {
+      throw new IOException("No entry " + name + " in " + file);
+    }
+    try (InputStream in = zip.getInputStream(entry)) {
+      return mapper.readValue(in, OpcodeTestModel.class);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    zip.close();
+  }
+}
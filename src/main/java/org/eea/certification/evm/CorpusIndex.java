@@ -0,0 +1,338 @@
+package org.eea.certification.evm;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.hyperledger.besu.evm.frame.ExceptionalHaltReason;
+
+/**
+ * Index of the tests of a corpus folder, to find tests without reading them.
+ * <p>
+ * Each test is summarized by its file, name, hard fork, index, halt reason, gas figures and code size. The index is
+ * stored as a sorted tab-separated file at the root of the folder, loaded as a whole, and updated as tests are
+ * written: a test about to be written is only recorded once a {@link CorpusWriter} reports it written, so tests whose
+ * write failed are left out.
+ */
+public class CorpusIndex {
+
+  public static final String FILE_NAME = ".corpus-index";
+
+  private static final String HEADER = "file\tname\thardFork\tindex\thaltReason\tgasUsed\tallGasUsed\tcodeSize";
+
+  /**
+   * The summary of a test.
+   */
+  public static final class Entry {
+
+    private final String file;
+    private final String name;
+    private final String hardFork;
+    private final int index;
+    private final String haltReason;
+    private final long gasUsed;
+    private final long allGasUsed;
+    private final int codeSize;
+
+    Entry(
+        String file,
+        String name,
+        String hardFork,
+        int index,
+        String haltReason,
+        long gasUsed,
+        long allGasUsed,
+        int codeSize) {
+      this.file = file;
+      this.name = name;
+      this.hardFork = hardFork;
+      this.index = index;
+      this.haltReason = haltReason;
+      this.gasUsed = gasUsed;
+      this.allGasUsed = allGasUsed;
+      this.codeSize = codeSize;
+    }
+
+    static Entry of(String file, OpcodeTestModel model) {
+      Object haltReason = model.getHaltReason();
+      return new Entry(
+          file,
+          model.getName(),
+          model.getHardFork(),
+          model.getIndex(),
+          haltReason instanceof ExceptionalHaltReason
+              ? ((ExceptionalHaltReason) haltReason).name()
+              : String.valueOf(haltReason),
+          model.getGasUsed(),
+          model.getAllGasUsed(),
+          model.getCode() == null ? 0 : model.getCode().size());
+    }
+
+    static Entry parse(String line) throws IOException {
+      String[] fields = line.split("\t", -1);
+      if (fields.length != 8) {
+        throw new IOException("Invalid index line: " + line);
+      }
+      try {
+        return new Entry(
+            fields[0],
+            fields[1],
+            fields[2],
+            Integer.parseInt(fields[3]),
+            fields[4],
+            Long.parseLong(fields[5]),
+            Long.parseLong(fields[6]),
+            Integer.parseInt(fields[7]));
+      } catch (NumberFormatException e) {
+        throw new IOException("Invalid index line: " + line, e);
+      }
+    }
+
+    String toLine() {
+      return file
+          + '\t'
+          + name
+          + '\t'
+          + hardFork
+          + '\t'
+          + index
+          + '\t'
+          + haltReason
+          + '\t'
+          + gasUsed
+          + '\t'
+          + allGasUsed
+          + '\t'
+          + codeSize;
+    }
+
+    /**
+     * @return the path of the test file, relative to the root of the corpus
+     */
+    public String getFile() {
+      return file;
+    }
+
+    /**
+     * @return the name of the test, which is the opcode name for generated tests
+     */
+    public String getName() {
+      return name;
+    }
+
+    public String getHardFork() {
+      return hardFork;
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    public String getHaltReason() {
+      return haltReason;
+    }
+
+    public long getGasUsed() {
+      return gasUsed;
+    }
+
+    public long getAllGasUsed() {
+      return allGasUsed;
+    }
+
+    public int getCodeSize() {
+      return codeSize;
+    }
+  }
+
+  private final Path root;
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Path, Entry> pending = new ConcurrentHashMap<>();
+
+  private CorpusIndex(Path root) {
+    this.root = root;
+  }
+
+  /**
+   * @param root the folder of the corpus
+   * @return an index with no entries
+   */
+  public static CorpusIndex empty(Path root) {
+    return new CorpusIndex(root);
+  }
+
+  /**
+   * Loads the index of a folder, if any.
+   *
+   * @param root the folder of the corpus
+   * @return the index, empty if the folder has none
+   * @throws IOException if the index cannot be read
+   */
+  public static CorpusIndex load(Path root) throws IOException {
+    CorpusIndex index = new CorpusIndex(root);
+    Path file = root.resolve(FILE_NAME);
+    if (Files.exists(file)) {
+      List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+      for (String line : lines) {
+        if (!line.isEmpty() && !HEADER.equals(line)) {
+          Entry entry = Entry.parse(line);
+          index.entries.put(entry.file, entry);
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Builds the index of a folder from scratch, reading every test. Each test is dropped as soon as it is summarized.
+   *
+   * @param root the folder of the corpus
+   * @param mapper the mapper reading the tests
+   * @param parallelism the number of worker threads to use
+   * @return the index
+   * @throws IOException if a test cannot be read
+   */
+  public static CorpusIndex build(Path root, ObjectMapper mapper, int parallelism) throws IOException {
+    CorpusIndex index = new CorpusIndex(root);
+    List<Path> files = ExecutionMatrix.resolve(List.of(root.toString()));
+    ExecutionMatrix.inPool(parallelism, () -> {
+      files.parallelStream().forEach(file -> {
+        try {
+          index.put(file, mapper.readValue(file.toFile(), OpcodeTestModel.class));
+        } catch (IOException e) {
+          throw new UncheckedIOException(new IOException("Cannot interpret test file contents: " + file, e));
+        }
+      });
+      return null;
+    });
+    return index;
+  }
+
+  /**
+   * Records a test, replacing any previous entry of its file.
+   *
+   * @param file the file the test is written to
+   * @param model the test
+   */
+  public void put(Path file, OpcodeTestModel model) {
+    Entry entry = Entry.of(relative(file), model);
+    entries.put(entry.file, entry);
+  }
+
+  private String relative(Path file) {
+    return root.relativize(file).toString().replace('\\', '/');
+  }
+
+  /**
+   * Registers a test about to be written. The test is recorded once its file is written.
+   *
+   * @param file the file the test is written to
+   * @param model the test
+   */
+  public void expect(Path file, OpcodeTestModel model) {
+    pending.put(file.toAbsolutePath().normalize(), Entry.of(relative(file), model));
+  }
+
+  /**
+   * Records a test registered with {@link #expect(Path, OpcodeTestModel)}, to be registered as a {@link CorpusWriter}
+   * listener.
+   *
+   * @param file the file written
+   * @param contents the contents of the file
+   */
+  public void written(Path file, ByteBuffer contents) {
+    Entry entry = pending.remove(file.toAbsolutePath().normalize());
+    if (entry != null) {
+      entries.put(entry.file, entry);
+    }
+  }
+
+  /**
+   * @param file a test file
+   * @return true if the index has an entry for the file
+   */
+  public boolean contains(Path file) {
+    return entries.containsKey(relative(file));
+  }
+
+  /**
+   * @return all entries, sorted by file
+   */
+  public List<Entry> getEntries() {
+    List<Entry> sorted = new ArrayList<>(entries.values());
+    sorted.sort(Comparator.comparing(Entry::getFile));
+    return sorted;
+  }
+
+  /**
+   * Finds the entries matching a filter.
+   *
+   * @param filter the filter
+   * @return the matching entries, sorted by file
+   */
+  public List<Entry> query(Predicate<Entry> filter) {
+    return getEntries().stream().filter(filter).collect(Collectors.toList());
+  }
+
+  /**
+   * Draws a stratified sample of entries: up to a number of entries of each (hard fork, name) pair.
+   * <p>
+   * The sample only depends on the entries and the seed.
+   *
+   * @param entries the entries to sample, sorted by file
+   * @param perGroup the maximum number of entries of each pair
+   * @param seed the seed of the draw
+   * @return the sampled entries, sorted by file
+   */
+  public static List<Entry> sample(List<Entry> entries, int perGroup, long seed) {
+    Map<String, List<Entry>> groups = new LinkedHashMap<>();
+    for (Entry entry : entries) {
+      groups.computeIfAbsent(entry.hardFork + "/" + entry.name, key -> new ArrayList<>()).add(entry);
+    }
+    SplittableRandom random = new SplittableRandom(seed);
+    List<Entry> sample = new ArrayList<>();
+    for (List<Entry> group : groups.values()) {
+      // partial Fisher-Yates shuffle of the first entries of the group
+      int size = Math.min(perGroup, group.size());
+      for (int i = 0; i < size; i++) {
+        Collections.swap(group, i, i + random.nextInt(group.size() - i));
+      }
+      sample.addAll(group.subList(0, size));
+    }
+    sample.sort(Comparator.comparing(Entry::getFile));
+    return sample;
+  }
+
+  /**
+   * Writes the index at the root of the folder.
+   *
+   * @throws IOException if the index cannot be written
+   */
+  public void save() throws IOException {
+    Files.createDirectories(root);
+    try (BufferedWriter writer = Files.newBufferedWriter(root.resolve(FILE_NAME), StandardCharsets.UTF_8)) {
+      writer.write(HEADER);
+      writer.newLine();
+      for (Entry entry : getEntries()) {
+        writer.write(entry.toLine());
+        writer.newLine();
+      }
+    }
+  }
+}
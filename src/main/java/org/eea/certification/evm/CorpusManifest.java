@@ -0,0 +1,109 @@
+package org.eea.certification.evm;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Manifest of a generated corpus.
+ * <p>
+ * Generated tests only depend on the seed and the version of the generator, so the manifest records them and the shape
+ * of the corpus instead of the tests themselves. The corpus can be rebuilt on demand from the manifest, by a generator
+ * of the same {@link EVMOpcodeTestGenerator#VERSION version}. Manifests written before the version was recorded have
+ * version 0.
+ */
+@JsonPropertyOrder(value = {"seed", "testsPerOpcode", "hardForks", "generatorVersion"})
+public class CorpusManifest {
+
+  private final long seed;
+  private final int testsPerOpcode;
+  private final List<String> hardForks;
+  private final int generatorVersion;
+
+  /**
+   * Creates the manifest of a corpus generated by this version of the generator.
+   */
+  public CorpusManifest(long seed, int testsPerOpcode, List<String> hardForks) {
+    this(seed, testsPerOpcode, hardForks, EVMOpcodeTestGenerator.VERSION);
+  }
+
+  @JsonCreator
+  public CorpusManifest(
+      @JsonProperty("seed") long seed,
+      @JsonProperty("testsPerOpcode") int testsPerOpcode,
+      @JsonProperty("hardForks") List<String> hardForks,
+      @JsonProperty("generatorVersion") int generatorVersion) {
+    this.seed = seed;
+    this.testsPerOpcode = testsPerOpcode;
+    this.hardForks = hardForks;
+    this.generatorVersion = generatorVersion;
+  }
+
+  public long getSeed() {
+    return seed;
+  }
+
+  public int getTestsPerOpcode() {
+    return testsPerOpcode;
+  }
+
+  public List<String> getHardForks() {
+    return hardForks;
+  }
+
+  public int getGeneratorVersion() {
+    return generatorVersion;
+  }
+
+  /**
+   * @throws IllegalStateException if the corpus was generated by another version of the generator, which would not
+   *         rebuild the same tests
+   */
+  public void checkGeneratorVersion() {
+    if (generatorVersion != EVMOpcodeTestGenerator.VERSION) {
+      throw new IllegalStateException(
+          "Corpus generated by version "
+              + generatorVersion
+              + " of the generator, which cannot be rebuilt by version "
+              + EVMOpcodeTestGenerator.VERSION);
+    }
+  }
+
+  /**
+   * Rebuilds the corpus described by this manifest.
+   *
+   * @param parallelism the number of worker threads to use
+   * @return the tests of the corpus, ordered by hard fork, opcode and index
+   * @throws IllegalStateException if the corpus was generated by another version of the generator
+   */
+  public List<OpcodeTestModel> rebuild(int parallelism) {
+    checkGeneratorVersion();
+    return new EVMOpcodeTestGenerator(seed).generateForHardForks(hardForks, testsPerOpcode, parallelism);
+  }
+
+  /**
+   * Rebuilds the corpus described by this manifest, streaming each test to a sink as it is generated.
+   *
+   * @param parallelism the number of worker threads to use
+   * @param sink the consumer of the tests, called concurrently from the worker threads
+   */
+  public void rebuild(int parallelism, Consumer<OpcodeTestModel> sink) {
+    rebuild(parallelism, Shard.ALL, sink);
+  }
+
+  /**
+   * Rebuilds one shard of the corpus described by this manifest, streaming each test to a sink as it is generated.
+   *
+   * @param parallelism the number of worker threads to use
+   * @param shard the shard to rebuild
+   * @param sink the consumer of the tests, called concurrently from the worker threads
+   * @throws IllegalStateException if the corpus was generated by another version of the generator
+   */
+  public void rebuild(int parallelism, Shard shard, Consumer<OpcodeTestModel> sink) {
+    checkGeneratorVersion();
+    new EVMOpcodeTestGenerator(seed).generateForHardForks(hardForks, testsPerOpcode, parallelism, shard, sink);
+  }
+}
@@ -0,0 +1,287 @@
+package org.eea.certification.evm;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+/**
+ * A pack file holding many test models, with an index allowing random access.
+ * <p>
+ * A pack starts with a magic number and a version, followed by the records encoded by {@link PackCodec}, then by the
+ * index of the records, and ends with the offset of the index. Packs are memory-mapped when opened, and records are
+ * only decoded when read.
+ */
+public class CorpusPack {
+
+  static final int MAGIC = 0x45454150;
+  /**
+   * The version of the packs written. Version 1 packs, holding every memory word, are still read.
+   */
+  static final int VERSION = 2;
+
+  /**
+   * Location of a record in a pack.
+   */
+  public static final class Entry {
+
+    private final String name;
+    private final String hardFork;
+    private final int index;
+    private final long offset;
+    private final int length;
+
+    Entry(String name, String hardFork, int index, long offset, int length) {
+      this.name = name;
+      this.hardFork = hardFork;
+      this.index = index;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    /**
+     * @return the name of the test, which is the opcode name for generated tests
+     */
+    public String getName() {
+      return name;
+    }
+
+    public String getHardFork() {
+      return hardFork;
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    public int getLength() {
+      return length;
+    }
+  }
+
+  /**
+   * Appends test models to a new pack file.
+   */
+  public static final class Writer implements Closeable {
+
+    private final DataOutputStream out;
+    private final List<Entry> entries = new ArrayList<>();
+    private long position;
+
+    public Writer(Path file) throws IOException {
+      this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      position = 8;
+    }
+
+    public synchronized void add(OpcodeTestModel model) throws IOException {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      PackCodec.write(model, new DataOutputStream(buffer));
+      buffer.writeTo(out);
+      entries.add(new Entry(model.getName(), model.getHardFork(), model.getIndex(), position, buffer.size()));
+      position += buffer.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      long indexOffset = position;
+      out.writeInt(entries.size());
+      for (Entry entry : entries) {
+        out.writeUTF(entry.name);
+        out.writeUTF(entry.hardFork);
+        out.writeInt(entry.index);
+        out.writeLong(entry.offset);
+        out.writeInt(entry.length);
+      }
+      out.writeLong(indexOffset);
+      out.close();
+    }
+  }
+
+  private final Path file;
+  private final ByteBuffer buffer;
+  private final int version;
+  private final List<Entry> entries;
+  private final Map<String, Entry> byKey = new HashMap<>();
+
+  private CorpusPack(Path file, ByteBuffer buffer, int version, List<Entry> entries) {
+    this.file = file;
+    this.buffer = buffer;
+    this.version = version;
+    this.entries = Collections.unmodifiableList(entries);
+    for (Entry entry : entries) {
+      byKey.put(key(entry.hardFork, entry.name, entry.index), entry);
+    }
+  }
+
+  /**
+   * Opens a pack file, mapping it in memory and reading its index.
+   *
+   * @param file the pack file
+   * @return the opened pack
+   * @throws IOException if the file cannot be read or is not a pack
+   */
+  public static CorpusPack open(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Pack file too large to map: " + file);
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      if (size < 20 || buffer.getInt(0) != MAGIC) {
+        throw new IOException("Not a corpus pack: " + file);
+      }
+      int version = buffer.getInt(4);
+      if (version < 1 || version > VERSION) {
+        throw new IOException("Unsupported corpus pack version " + buffer.getInt(4) + ": " + file);
+      }
+      int indexOffset = (int) buffer.getLong((int) size - 8);
+      DataInputStream in = stream(buffer, indexOffset, (int) size - 8 - indexOffset);
+      int count = in.readInt();
+      List<Entry> entries = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        entries.add(new Entry(in.readUTF(), in.readUTF(), in.readInt(), in.readLong(), in.readInt()));
+      }
+      return new CorpusPack(file, buffer, version, entries);
+    }
+  }
+
+  private static DataInputStream stream(ByteBuffer buffer, int offset, int length) {
+    ByteBuffer slice = buffer.duplicate();
+    slice.position(offset);
+    slice.limit(offset + length);
+    return new DataInputStream(new ByteBufferBackedInputStream(slice.slice()));
+  }
+
+  private static String key(String hardFork, String name, int index) {
+    return hardFork + "/" + name + "-" + index;
+  }
+
+  public Path getFile() {
+    return file;
+  }
+
+  /**
+   * @return the index entries of the pack, in the order the records were written
+   */
+  public List<Entry> getEntries() {
+    return entries;
+  }
+
+  /**
+   * Finds a record by its coordinates.
+   *
+   * @param hardFork the hard fork of the test
+   * @param name the name of the test
+   * @param index the index of the test
+   * @return the entry of the record, if present
+   */
+  public Optional<Entry> find(String hardFork, String name, int index) {
+    return Optional.ofNullable(byKey.get(key(hardFork, name, index)));
+  }
+
+  /**
+   * Finds all the records of a test name, such as all the tests of an opcode.
+   *
+   * @param name the name of the tests
+   * @return the entries of the records
+   */
+  public List<Entry> findByName(String name) {
+    return entries.stream().filter(entry -> entry.name.equals(name)).collect(Collectors.toList());
+  }
+
+  /**
+   * Decodes a record. Records can be read concurrently.
+   *
+   * @param entry the entry of the record
+   * @return the test model
+   * @throws IOException if the record cannot be decoded
+   */
+  public OpcodeTestModel read(Entry entry) throws IOException {
+    return PackCodec.read(stream(buffer, (int) entry.offset, entry.length), version);
+  }
+
+  /**
+   * Converts a YAML corpus into packs, one per hard fork folder.
+   *
+   * @param yamlRoot the folder holding one sub-folder of YAML tests per hard fork
+   * @param packRoot the folder in which to write {@code <hardFork>.pack} files
+   * @param mapper the mapper used to read the YAML tests
+   * @throws IOException if a test cannot be read or a pack cannot be written
+   */
+  public static void pack(Path yamlRoot, Path packRoot, ObjectMapper mapper) throws IOException {
+    Files.createDirectories(packRoot);
+    List<Path> folders;
+    try (Stream<Path> list = Files.list(yamlRoot)) {
+      folders = list.filter(Files::isDirectory).sorted().collect(Collectors.toList());
+    }
+    for (Path folder : folders) {
+      List<Path> files;
+      try (Stream<Path> list = Files.list(folder)) {
+        files = list
+            .filter(path -> path.getFileName().toString().endsWith(".yaml"))
+            .sorted()
+            .collect(Collectors.toList());
+      }
+      try (Writer writer = new Writer(packRoot.resolve(folder.getFileName() + ".pack"))) {
+        for (Path file : files) {
+          writer.add(mapper.readValue(file.toFile(), OpcodeTestModel.class));
+        }
+      }
+    }
+  }
+
+  /**
+   * Hands every test of a set of packs to a consumer, such as a {@link CorpusWriter} recreating the YAML layout.
+   *
+   * @param packs pack files, or folders holding {@code .pack} files
+   * @param consumer the consumer of the tests
+   * @throws IOException if a pack cannot be read
+   */
+  public static void unpack(List<Path> packs, Consumer<OpcodeTestModel> consumer) throws IOException {
+    for (Path path : packs) {
+      List<Path> files;
+      if (Files.isDirectory(path)) {
+        try (Stream<Path> list = Files.list(path)) {
+          files = list
+              .filter(file -> file.getFileName().toString().endsWith(".pack"))
+              .sorted()
+              .collect(Collectors.toList());
+        }
+      } else {
+        files = List.of(path);
+      }
+      for (Path file : files) {
+        CorpusPack pack = open(file);
+        for (Entry entry : pack.getEntries()) {
+          consumer.accept(pack.read(entry));
+        }
+      }
+    }
+  }
+}
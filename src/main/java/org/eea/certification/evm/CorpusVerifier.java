@@ -0,0 +1,296 @@
+package org.eea.certification.evm;
+
+import org.apache.tuweni.units.bigints.UInt256;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.hyperledger.besu.datatypes.Address;
+import org.hyperledger.besu.evm.account.Account;
+import org.hyperledger.besu.evm.fluent.SimpleAccount;
+
+/**
+ * Replays a corpus of test models and checks that the recorded outcome still matches the EVM.
+ * <p>
+ * Each test is replayed against the hard fork it records, and its halt reason, total gas used and after state are
+ * compared with the stored ones. The gas used by the opcode alone is not compared, as replays do not measure it.
+ */
+public class CorpusVerifier {
+
+  /**
+   * A test whose replay differs from the stored outcome.
+   */
+  public static final class Mismatch {
+
+    private final Path file;
+    private final String reason;
+
+    Mismatch(Path file, String reason) {
+      this.file = file;
+      this.reason = reason;
+    }
+
+    public Path getFile() {
+      return file;
+    }
+
+    public String getReason() {
+      return reason;
+    }
+
+    @Override
+    public String toString() {
+      return file + ": " + reason;
+    }
+  }
+
+  /**
+   * Outcome of the verification of a corpus.
+   */
+  public static final class Report {
+
+    private final long verified;
+    private final long elapsedNanos;
+    private final List<Mismatch> mismatches;
+
+    Report(long verified, long elapsedNanos, List<Mismatch> mismatches) {
+      this.verified = verified;
+      this.elapsedNanos = elapsedNanos;
+      this.mismatches = mismatches;
+    }
+
+    public long getVerified() {
+      return verified;
+    }
+
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    public List<Mismatch> getMismatches() {
+      return mismatches;
+    }
+
+    public double getTestsPerSecond() {
+      return elapsedNanos == 0 ? 0 : verified * 1_000_000_000.0 / elapsedNanos;
+    }
+  }
+
+  /**
+   * Reads a stored test.
+   */
+  @FunctionalInterface
+  private interface Source {
+
+    OpcodeTestModel read() throws IOException;
+  }
+
+  /**
+   * A stored test to verify.
+   */
+  private static final class Item {
+
+    final Path file;
+    final Source source;
+
+    Item(Path file, Source source) {
+      this.file = file;
+      this.source = source;
+    }
+  }
+
+  private final ObjectMapper mapper;
+  private final int parallelism;
+  private final boolean failFast;
+
+  /**
+   * @param mapper the mapper used to read test models
+   * @param parallelism the number of worker threads to use
+   * @param failFast whether to stop at the first mismatch
+   */
+  public CorpusVerifier(ObjectMapper mapper, int parallelism, boolean failFast) {
+    this.mapper = mapper;
+    this.parallelism = parallelism;
+    this.failFast = failFast;
+  }
+
+  /**
+   * Verifies every test model found under a set of paths.
+   *
+   * @param paths test files, {@link CorpusArchive} files read in place, or folders to walk for YAML test files
+   * @return the report of the verification
+   * @throws IOException if the paths cannot be walked or an archive cannot be opened
+   */
+  public Report verify(List<Path> paths) throws IOException {
+    List<CorpusArchive> archives = new ArrayList<>();
+    try {
+      List<Item> items = new ArrayList<>();
+      for (Path path : paths) {
+        if (CorpusArchive.isArchive(path)) {
+          CorpusArchive archive = CorpusArchive.open(path);
+          archives.add(archive);
+          for (String name : archive.getNames()) {
+            items.add(new Item(archive.pathOf(name), () -> archive.read(name, mapper)));
+          }
+          continue;
+        }
+        try (Stream<Path> walk = Files.walk(path)) {
+          walk
+              .filter(Files::isRegularFile)
+              .filter(file -> file.getFileName().toString().endsWith(".yaml"))
+              .filter(file -> !"manifest.yaml".equals(file.getFileName().toString()))
+              .filter(file -> !ShardManifest.FILE_NAME.equals(file.getFileName().toString()))
+              .sorted()
+              .forEach(file -> items.add(new Item(file, () -> mapper.readValue(file.toFile(), OpcodeTestModel.class))));
+        }
+      }
+      return verifyAll(items);
+    } finally {
+      for (CorpusArchive archive : archives) {
+        archive.close();
+      }
+    }
+  }
+
+  private Report verifyAll(List<Item> items) throws IOException {
+    AtomicBoolean stop = new AtomicBoolean(false);
+    LongAdder verified = new LongAdder();
+    ConcurrentLinkedQueue<Mismatch> mismatches = new ConcurrentLinkedQueue<>();
+    long start = System.nanoTime();
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      pool.submit(() -> items.parallelStream().forEach(item -> {
+        if (stop.get()) {
+          return;
+        }
+        Mismatch mismatch = verify(item.file, item.source);
+        verified.increment();
+        if (mismatch != null) {
+          mismatches.add(mismatch);
+          if (failFast) {
+            stop.set(true);
+          }
+        }
+      })).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while verifying tests", e);
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+    long elapsed = System.nanoTime() - start;
+    List<Mismatch> sorted = new ArrayList<>(mismatches);
+    sorted.sort(Comparator.comparing(Mismatch::getFile));
+    return new Report(verified.sum(), elapsed, sorted);
+  }
+
+  private Mismatch verify(Path file, Source source) {
+    OpcodeTestModel expected;
+    try {
+      expected = source.read();
+    } catch (IOException e) {
+      return new Mismatch(file, "cannot read test: " + e.getMessage());
+    }
+    OpcodeTestModel actual;
+    try {
+      actual = EVMOpcodeTestGenerator.run(expected, expected.getHardFork());
+    } catch (RuntimeException e) {
+      return new Mismatch(file, "replay failed: " + e);
+    }
+    if (actual == null) {
+      return new Mismatch(file, "replay rejected the test");
+    }
+    String difference = compare(expected, actual);
+    return difference == null ? null : new Mismatch(file, difference);
+  }
+
+  /**
+   * Compares the outcome of two executions of a test, stopping at the first difference.
+   *
+   * @param expected the stored test
+   * @param actual the replayed test
+   * @return a description of the first difference, or null if the outcomes match
+   */
+  public static String compare(OpcodeTestModel expected, OpcodeTestModel actual) {
+    if (!String.valueOf(expected.getHaltReason()).equals(String.valueOf(actual.getHaltReason()))) {
+      return difference("haltReason", expected.getHaltReason(), actual.getHaltReason());
+    }
+    if (expected.getAllGasUsed() != actual.getAllGasUsed()) {
+      return difference("allGasUsed", expected.getAllGasUsed(), actual.getAllGasUsed());
+    }
+    OpcodeTestModel.After expectedAfter = expected.getAfter();
+    OpcodeTestModel.After actualAfter = actual.getAfter();
+    if (!Objects.equals(expectedAfter.getStack(), actualAfter.getStack())) {
+      return difference("after.stack", expectedAfter.getStack(), actualAfter.getStack());
+    }
+    if (!Objects.equals(expectedAfter.getMemory(), actualAfter.getMemory())) {
+      return difference("after.memory", expectedAfter.getMemory(), actualAfter.getMemory());
+    }
+    if (!Objects.equals(expectedAfter.getLogs(), actualAfter.getLogs())) {
+      return difference("after.logs", expectedAfter.getLogs(), actualAfter.getLogs());
+    }
+    return compareAccounts(expectedAfter.getAccounts(), actualAfter.getAccounts());
+  }
+
+  private static String compareAccounts(List<Account> expected, List<Account> actual) {
+    Map<Address, Account> expectedAccounts = byAddress(expected);
+    Map<Address, Account> actualAccounts = byAddress(actual);
+    if (!expectedAccounts.keySet().equals(actualAccounts.keySet())) {
+      return difference("after.accounts", expectedAccounts.keySet(), actualAccounts.keySet());
+    }
+    for (Account expectedAccount : expectedAccounts.values()) {
+      Account actualAccount = actualAccounts.get(expectedAccount.getAddress());
+      String prefix = "after.accounts[" + expectedAccount.getAddress() + "].";
+      if (expectedAccount.getNonce() != actualAccount.getNonce()) {
+        return difference(prefix + "nonce", expectedAccount.getNonce(), actualAccount.getNonce());
+      }
+      if (!Objects.equals(expectedAccount.getBalance(), actualAccount.getBalance())) {
+        return difference(prefix + "balance", expectedAccount.getBalance(), actualAccount.getBalance());
+      }
+      if (!Objects.equals(expectedAccount.getCode(), actualAccount.getCode())) {
+        return difference(prefix + "code", expectedAccount.getCode(), actualAccount.getCode());
+      }
+      if (!storage(expectedAccount).equals(storage(actualAccount))) {
+        return difference(prefix + "storage", storage(expectedAccount), storage(actualAccount));
+      }
+    }
+    return null;
+  }
+
+  private static Map<Address, Account> byAddress(List<Account> accounts) {
+    Map<Address, Account> result = new LinkedHashMap<>();
+    for (Account account : accounts) {
+      if (account != null) {
+        result.put(account.getAddress(), account);
+      }
+    }
+    return result;
+  }
+
+  private static Map<UInt256, UInt256> storage(Account account) {
+    if (account instanceof SimpleAccount) {
+      return ((SimpleAccount) account).getUpdatedStorage();
+    }
+    return Map.of();
+  }
+
+  private static String difference(String field, Object expected, Object actual) {
+    return field + " expected " + expected + " but was " + actual;
+  }
+}
@@ -0,0 +1,404 @@
+package org.eea.certification.evm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streams test models to disk as they are produced.
+ * <p>
+ * Models handed to the writer go through a bounded queue to a set of serializer threads. Each document is serialized
+ * into a pooled buffer, which is handed to a small pool of I/O threads writing it with a {@link FileChannel}. Producers
+ * block when the queue is full or when too many bytes are waiting to be written, so memory use stays flat however many
+ * tests are produced. Tests are written to {@code <root>/<hardFork>/<name>-<index>.yaml}, or as entries of a
+ * {@link CorpusArchive} named by their path relative to the root.
+ * <p>
+ * Errors do not stop the writer: the tests that could be written are, and {@link #close()} reports the failures once
+ * everything was flushed.
+ */
+public class CorpusWriter implements Consumer<OpcodeTestModel>, Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(CorpusWriter.class);
+
+  /**
+   * The default number of threads writing files.
+   */
+  public static final int IO_THREADS = 2;
+
+  /**
+   * The default maximum number of serialized bytes waiting to be written.
+   */
+  public static final int MAX_IN_FLIGHT_BYTES = 64 * 1024 * 1024;
+
+  /**
+   * Buffers that grew larger than this are not returned to the pool.
+   */
+  private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+  private static final int MAX_REPORTED_FAILURES = 10;
+
+  private static final Metrics.Histogram serializationLatency =
+      Metrics.global.histogram("corpus_serialization_duration_nanoseconds");
+
+  private static final Metrics.Histogram writeLatency = Metrics.global.histogram("corpus_write_duration_nanoseconds");
+
+  private static final Metrics.Counter bytesWritten = Metrics.global.counter("corpus_bytes_written_total");
+
+  private static final Metrics.Counter filesWritten = Metrics.global.counter("corpus_files_written_total");
+
+  /**
+   * Marks the end of the models queue for a serializer thread.
+   */
+  private static final Object END = new Object();
+
+  /**
+   * A reusable serialization buffer, exposing its array to avoid copying documents.
+   */
+  private static final class Buffer extends ByteArrayOutputStream {
+
+    Buffer() {
+      super(16 * 1024);
+    }
+
+    ByteBuffer contents() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+
+    int capacity() {
+      return buf.length;
+    }
+  }
+
+  private final Path root;
+  private final ObjectMapper mapper;
+  private final BlockingQueue<Object> models;
+  private final List<Thread> serializers = new ArrayList<>();
+  private final ThreadPoolExecutor io;
+  private final BlockingQueue<Buffer> buffers;
+  private final Semaphore inFlightBytes;
+  private final int maxInFlightBytes;
+  private final Set<Path> folders = ConcurrentHashMap.newKeySet();
+  private final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger failed = new AtomicInteger();
+  private final AtomicLong written = new AtomicLong();
+  private final BiConsumer<Path, ByteBuffer> listener;
+  private final LongSupplier modelQueueDepth;
+  private final LongSupplier documentQueueDepth;
+  private final LongSupplier usedInFlightBytes;
+  private final CorpusArchive.Writer archive;
+
+  /**
+   * Creates a writer and starts its threads.
+   *
+   * @param root the folder under which tests are written
+   * @param mapper the mapper used to serialize tests
+   * @param serializerThreads the number of threads serializing tests
+   * @param queueCapacity the maximum number of tests waiting to be serialized
+   */
+  public CorpusWriter(Path root, ObjectMapper mapper, int serializerThreads, int queueCapacity) {
+    this(root, mapper, serializerThreads, queueCapacity, (file, contents) -> {
+    });
+  }
+
+  /**
+   * Creates a writer and starts its threads.
+   *
+   * @param root the folder under which tests are written
+   * @param mapper the mapper used to serialize tests
+   * @param serializerThreads the number of threads serializing tests
+   * @param queueCapacity the maximum number of tests waiting to be serialized
+   * @param listener called from the I/O threads with each file and its contents once written
+   */
+  public CorpusWriter(
+      Path root,
+      ObjectMapper mapper,
+      int serializerThreads,
+      int queueCapacity,
+      BiConsumer<Path, ByteBuffer> listener) {
+    this(root, mapper, serializerThreads, queueCapacity, IO_THREADS, MAX_IN_FLIGHT_BYTES, listener);
+  }
+
+  /**
+   * Creates a writer and starts its threads.
+   *
+   * @param root the folder under which tests are written
+   * @param mapper the mapper used to serialize tests
+   * @param serializerThreads the number of threads serializing tests
+   * @param queueCapacity the maximum number of tests waiting to be serialized
+   * @param ioThreads the number of threads writing files
+   * @param maxInFlightBytes the maximum number of serialized bytes waiting to be written
+   * @param listener called from the I/O threads with each file and its contents once written. The contents are only
+   *        valid during the call.
+   */
+  public CorpusWriter(
+      Path root,
+      ObjectMapper mapper,
+      int serializerThreads,
+      int queueCapacity,
+      int ioThreads,
+      int maxInFlightBytes,
+      BiConsumer<Path, ByteBuffer> listener) {
+    this(null, root, mapper, serializerThreads, queueCapacity, ioThreads, maxInFlightBytes, listener);
+  }
+
+  /**
+   * Creates a writer appending tests to an archive, and starts its threads. The archive is not closed by the writer.
+   *
+   * @param archive the archive to append tests to
+   * @param root the folder the names of the entries are relative to
+   * @param mapper the mapper used to serialize tests
+   * @param serializerThreads the number of threads serializing tests
+   * @param queueCapacity the maximum number of tests waiting to be serialized
+   * @param listener called with each file and its contents once appended. The contents are only valid during the call.
+   */
+  public CorpusWriter(
+      CorpusArchive.Writer archive,
+      Path root,
+      ObjectMapper mapper,
+      int serializerThreads,
+      int queueCapacity,
+      BiConsumer<Path, ByteBuffer> listener) {
+    // entries are appended one at a time, a single I/O thread keeps the serializers busy
+    this(archive, root, mapper, serializerThreads, queueCapacity, 1, MAX_IN_FLIGHT_BYTES, listener);
+  }
+
+  private CorpusWriter(
+      CorpusArchive.Writer archive,
+      Path root,
+      ObjectMapper mapper,
+      int serializerThreads,
+      int queueCapacity,
+      int ioThreads,
+      int maxInFlightBytes,
+      BiConsumer<Path, ByteBuffer> listener) {
+    this.archive = archive;
+    this.root = root;
+    this.listener = listener;
+    this.mapper = mapper;
+    this.models = new ArrayBlockingQueue<>(queueCapacity);
+    this.maxInFlightBytes = maxInFlightBytes;
+    this.inFlightBytes = new Semaphore(maxInFlightBytes);
+    this.buffers = new ArrayBlockingQueue<>(serializerThreads + 2 * ioThreads);
+    this.io = new ThreadPoolExecutor(
+        ioThreads,
+        ioThreads,
+        0,
+        TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>(),
+        new ThreadFactoryBuilder().setNameFormat("corpus-io-%d").setDaemon(true).build());
+    this.modelQueueDepth = models::size;
+    this.documentQueueDepth = io.getQueue()::size;
+    this.usedInFlightBytes = () -> maxInFlightBytes - inFlightBytes.availablePermits();
+    Metrics.global.gauge("corpus_queue_depth", modelQueueDepth, "queue", "models");
+    Metrics.global.gauge("corpus_queue_depth", documentQueueDepth, "queue", "documents");
+    Metrics.global.gauge("corpus_in_flight_bytes", usedInFlightBytes);
+    for (int i = 0; i < serializerThreads; i++) {
+      Thread thread = new Thread(this::serialize, "corpus-serializer-" + i);
+      thread.setDaemon(true);
+      serializers.add(thread);
+      thread.start();
+    }
+  }
+
+  /**
+   * Creates the folders of hard forks up front, instead of checking for them as tests are written.
+   *
+   * @param hardForks the hard forks, as reported by {@link OpcodeTestModel#getHardFork()}
+   * @throws IOException if a folder cannot be created
+   */
+  public void createFolders(Collection<String> hardForks) throws IOException {
+    if (archive != null) {
+      return;
+    }
+    for (String hardFork : hardForks) {
+      Path folder = root.resolve(hardFork);
+      Files.createDirectories(folder);
+      folders.add(folder);
+    }
+  }
+
+  /**
+   * Queues a test to be written, blocking while the pipeline is full.
+   *
+   * @param model the test to write
+   */
+  @Override
+  public void accept(OpcodeTestModel model) {
+    try {
+      models.put(model);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while queueing a test", e);
+    }
+  }
+
+  /**
+   * @param model a test
+   * @return the file the test is written to
+   */
+  public Path fileOf(OpcodeTestModel model) {
+    return root.resolve(model.getHardFork()).resolve(model.getName() + "-" + model.getIndex() + ".yaml");
+  }
+
+  public long getWritten() {
+    return written.get();
+  }
+
+  private void serialize() {
+    try {
+      while (true) {
+        Object entry = models.take();
+        if (entry == END) {
+          return;
+        }
+        OpcodeTestModel model = (OpcodeTestModel) entry;
+        Path file = fileOf(model);
+        Buffer buffer = buffers.poll();
+        if (buffer == null) {
+          buffer = new Buffer();
+        }
+        buffer.reset();
+        try {
+          long start = System.nanoTime();
+          mapper.writeValue(buffer, model);
+          serializationLatency.recordSince(start);
+        } catch (IOException | RuntimeException e) {
+          fail(file, e);
+          release(buffer);
+          continue;
+        }
+        // a document larger than the bound only waits for all others to be written
+        int permits = Math.min(buffer.size(), maxInFlightBytes);
+        inFlightBytes.acquire(permits);
+        Buffer document = buffer;
+        io.execute(() -> write(file, document, permits));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void write(Path file, Buffer buffer, int permits) {
+    try {
+      if (archive != null) {
+        long start = System.nanoTime();
+        archive.put(root.relativize(file).toString().replace('\\', '/'), buffer.contents());
+        writeLatency.recordSince(start);
+      } else {
+        writeFile(file, buffer);
+      }
+      written.incrementAndGet();
+      filesWritten.increment();
+      bytesWritten.add(buffer.size());
+      listener.accept(file, buffer.contents().asReadOnlyBuffer());
+    } catch (IOException | RuntimeException e) {
+      fail(file, e);
+    } finally {
+      inFlightBytes.release(permits);
+      release(buffer);
+    }
+  }
+
+  private void writeFile(Path file, Buffer buffer) throws IOException {
+    Path folder = file.getParent();
+    if (!folders.contains(folder)) {
+      Files.createDirectories(folder);
+      folders.add(folder);
+    }
+    long start = System.nanoTime();
+    ByteBuffer contents = buffer.contents();
+    try (FileChannel channel = FileChannel
+        .open(
+            file,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      while (contents.hasRemaining()) {
+        channel.write(contents);
+      }
+    }
+    writeLatency.recordSince(start);
+  }
+
+  private void release(Buffer buffer) {
+    if (buffer.capacity() <= MAX_POOLED_BUFFER_SIZE) {
+      buffers.offer(buffer);
+    }
+  }
+
+  private void fail(Path file, Throwable error) {
+    logger.error("Error writing file {}", file, error);
+    failed.incrementAndGet();
+    if (failures.size() < MAX_REPORTED_FAILURES) {
+      failures.add(error);
+    }
+  }
+
+  /**
+   * Waits for all queued tests to be written.
+   *
+   * @throws IOException if any test could not be serialized or written, once all other tests were written
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      for (int i = 0; i < serializers.size(); i++) {
+        models.put(END);
+      }
+      for (Thread serializer : serializers) {
+        serializer.join();
+      }
+      io.shutdown();
+      while (!io.awaitTermination(1, TimeUnit.MINUTES)) {
+        logger.info("Waiting for {} files to be written", io.getQueue().size());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      io.shutdownNow();
+      throw new IOException("Interrupted while writing tests", e);
+    } finally {
+      // the global registry would otherwise keep the queues of closed writers
+      Metrics.global.remove("corpus_queue_depth", modelQueueDepth, "queue", "models");
+      Metrics.global.remove("corpus_queue_depth", documentQueueDepth, "queue", "documents");
+      Metrics.global.remove("corpus_in_flight_bytes", usedInFlightBytes);
+    }
+    logger.info("Wrote {} tests under {}", written.get(), root);
+    if (failed.get() > 0) {
+      Throwable first = failures.poll();
+      IOException error = new IOException(
+          "Cannot write " + failed.get() + " tests under " + root + ", first error: " + first.getMessage(),
+          first);
+      for (Throwable failure : failures) {
+        error.addSuppressed(failure);
+      }
+      throw error;
+    }
+  }
+}
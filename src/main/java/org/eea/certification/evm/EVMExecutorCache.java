@@ -0,0 +1,85 @@
+package org.eea.certification.evm;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Cache of executor configurations, building the configuration of each hard fork once.
+ * <p>
+ * The EVM, precompile registry and operation registry of a configuration hold no per-execution state, so a cached
+ * configuration can be shared by all threads. Message call processors and world state must still be created per
+ * execution.
+ */
+public class EVMExecutorCache {
+
+  private final Map<String, Supplier<EVMExecutorConfiguration>> factories;
+  private final ConcurrentMap<String, EVMExecutorConfiguration> configurations = new ConcurrentHashMap<>();
+  private final LongAdder lookups = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  public EVMExecutorCache(Map<String, Supplier<EVMExecutorConfiguration>> factories) {
+    this.factories = factories;
+  }
+
+  /**
+   * Gets the configuration of a hard fork, building it on first use.
+   *
+   * @param hardFork the name of the hard fork, either as registered in {@link EVMExecutors#registry} or as reported by
+   *        {@link EVMExecutorConfiguration#getHardFork()}
+   * @return the shared configuration of the hard fork
+   * @throws IllegalArgumentException if the hard fork is unknown
+   */
+  public EVMExecutorConfiguration get(String hardFork) {
+    lookups.increment();
+    EVMExecutorConfiguration configuration = configurations.get(hardFork);
+    if (configuration == null) {
+      misses.increment();
+      configuration = configurations.computeIfAbsent(resolve(hardFork), this::build);
+      configurations.putIfAbsent(hardFork, configuration);
+    }
+    return configuration;
+  }
+
+  /**
+   * Creates a supplier returning the cached configuration of a hard fork.
+   *
+   * @param hardFork the name of the hard fork
+   * @return a supplier backed by this cache
+   */
+  public Supplier<EVMExecutorConfiguration> supplier(String hardFork) {
+    return () -> get(hardFork);
+  }
+
+  private String resolve(String hardFork) {
+    if (factories.containsKey(hardFork)) {
+      return hardFork;
+    }
+    // test models record the hard fork name of the configuration, which may differ from its registry key
+    for (String key : factories.keySet()) {
+      if (configurations.computeIfAbsent(key, this::build).getHardFork().equals(hardFork)) {
+        return key;
+      }
+    }
+    throw new IllegalArgumentException("Unknown hard fork " + hardFork);
+  }
+
+  private EVMExecutorConfiguration build(String hardFork) {
+    return factories.get(hardFork).get();
+  }
+
+  public long getHits() {
+    return lookups.sum() - misses.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "EVMExecutorCache{" + "hits=" + getHits() + ", misses=" + getMisses() + '}';
+  }
+}
@@ -1,6 +1,6 @@
 package org.eea.certification.evm;
 
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.function.Supplier;
 
@@ -133,7 +133,7 @@ public class EVMExecutors {
         MainnetEVMs.parisOperations(evm.getGasCalculator(), MainnetEVMs.DEV_NET_CHAIN_ID));
   };
 
-  public static final Map<String, Supplier<EVMExecutorConfiguration>> registry = new HashMap<>();
+  public static final Map<String, Supplier<EVMExecutorConfiguration>> registry = new LinkedHashMap<>();
 
   static {
     registry.put("frontier", frontier);
@@ -148,4 +148,21 @@ public class EVMExecutors {
     registry.put("london", london);
     registry.put("paris", paris);
   }
+
+  /**
+   * Shared cache of the configurations in the registry, built once per hard fork.
+   */
+  public static final EVMExecutorCache cache = new EVMExecutorCache(registry);
+
+  /**
+   * Shared cache of analysed code, used by every hard fork and bounded to 64 MiB of bytecode.
+   */
+  public static final CodeCache codeCache = new CodeCache(64L * 1024 * 1024);
+
+  static {
+    // registered for the shared cache only, so caches built elsewhere, as in tests, do not replace its metrics
+    Metrics.global.counter("code_cache_hits_total", () -> codeCache.getStats().hitCount());
+    Metrics.global.counter("code_cache_misses_total", () -> codeCache.getStats().missCount());
+    Metrics.global.gauge("code_cache_size", codeCache::size);
+  }
 }
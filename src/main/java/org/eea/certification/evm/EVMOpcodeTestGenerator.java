@@ -10,15 +10,27 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.OptionalLong;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import com.google.common.collect.ImmutableSetMultimap;
 import org.hyperledger.besu.datatypes.Address;
-import org.hyperledger.besu.datatypes.Hash;
 import org.hyperledger.besu.datatypes.Wei;
 import org.hyperledger.besu.evm.Code;
 import org.hyperledger.besu.evm.EVM;
@@ -44,24 +56,100 @@ public class EVMOpcodeTestGenerator {
 
   private static final Logger logger = LoggerFactory.getLogger(EVMOpcodeTestGenerator.class);
 
-  private final SecureRandom random = new SecureRandom();
+  /**
+   * The version of the tests produced from the same inputs, to be bumped whenever a change to the generator, the
+   * execution or the layout of the written tests changes them.
+   */
+  public static final int VERSION = 2;
+
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  private static final Metrics.Histogram generateLatency =
+      Metrics.global.histogram("evm_execution_duration_nanoseconds", "mode", "generate");
+
+  private static final Metrics.Histogram runLatency =
+      Metrics.global.histogram("evm_execution_duration_nanoseconds", "mode", "run");
+
+  private final long seed;
+  private final boolean recordMetrics;
+
+  /**
+   * Executions and accepted tests of an opcode, to follow how many executions are rejected.
+   */
+  private static final class Acceptance {
+
+    final LongAdder executions = new LongAdder();
+    final LongAdder accepted = new LongAdder();
+  }
+
+  private final ConcurrentMap<String, Acceptance> acceptances = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a generator with a random seed.
+   */
+  public EVMOpcodeTestGenerator() {
+    this(new SecureRandom().nextLong());
+  }
+
+  /**
+   * Creates a generator with a fixed seed.
+   * <p>
+   * Every generated test is a pure function of the seed, the hard fork, the opcode and the index of the test.
+   *
+   * @param seed the seed of the generator
+   */
+  public EVMOpcodeTestGenerator(long seed) {
+    this(seed, true);
+  }
 
   /**
-   * Generate a valid argument for an operation.
+   * @param seed the seed of the generator
+   * @param recordMetrics whether to count executions, acceptances and rejections, false for generators only drawing
+   *        tests as inputs of other tools, such as fuzzer seeds, so the metrics only reflect corpus generation
+   */
+  EVMOpcodeTestGenerator(long seed, boolean recordMetrics) {
+    this.seed = seed;
+    this.recordMetrics = recordMetrics;
+  }
+
+  public long getSeed() {
+    return seed;
+  }
+
+  /**
+   * Creates the source of randomness of a single test.
    *
-   * @return the argument
+   * @param seed the seed of the generator
+   * @param hardFork the hard fork of the test
+   * @param opcode the opcode under test
+   * @param index the index of the test
+   * @return a source of randomness that only depends on its arguments
    */
-  private Bytes generateArgument() {
-    int size = random.nextInt(32) + 1;
-    return Bytes.random(size);
+  static SplittableRandom random(long seed, String hardFork, int opcode, int index) {
+    long mixed = mix(seed + GOLDEN_GAMMA + hardFork.hashCode());
+    mixed = mix(mixed + GOLDEN_GAMMA + opcode);
+    mixed = mix(mixed + GOLDEN_GAMMA + index);
+    return new SplittableRandom(mixed);
+  }
+
+  private static long mix(long z) {
+    z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+    z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return z ^ (z >>> 33);
+  }
+
+  private static Bytes randomBytes(SplittableRandom random, int size) {
+    byte[] bytes = new byte[size];
+    random.nextBytes(bytes);
+    return Bytes.wrap(bytes);
   }
 
-  private Bytes generateInputData() {
+  private Bytes generateInputData(SplittableRandom random) {
     int size = random.nextInt(64);
-    return Bytes.random(size);
+    return randomBytes(random, size);
   }
 
-  private Wei generateWei() {
+  private Wei generateWei(SplittableRandom random) {
     if (random.nextBoolean()) {
       long value = random.nextInt(32000);
       return Wei.of(value);
@@ -70,11 +158,11 @@ public class EVMOpcodeTestGenerator {
     }
   }
 
-  private Address randomAddress() {
-    return Address.wrap(Bytes.random(20));
+  private Address randomAddress(SplittableRandom random) {
+    return Address.wrap(randomBytes(random, 20));
   }
 
-  private long initialGas() {
+  private long initialGas(SplittableRandom random) {
     return 100000000 + random.nextInt(20000) * 100000000L;
   }
 
@@ -94,134 +182,325 @@ public class EVMOpcodeTestGenerator {
     return result;
   }
 
+  /**
+   * Generates tests for all hard forks, spreading the work over a work-stealing pool.
+   * <p>
+   * Each (hard fork, opcode, index) triple is generated as an independent work item, so the index of a test does not
+   * depend on the number of workers.
+   *
+   * @param numTestPerOpcode the number of tests to generate per opcode
+   * @param parallelism the number of worker threads to use
+   * @return the generated tests, ordered by hard fork, opcode and index
+   */
+  public List<OpcodeTestModel> generateForAllHardForks(int numTestPerOpcode, int parallelism) {
+    return generateForHardForks(new ArrayList<>(EVMExecutors.registry.keySet()), numTestPerOpcode, parallelism);
+  }
+
+  /**
+   * Generates tests for a set of hard forks, spreading the work over a work-stealing pool.
+   *
+   * @param hardForks the names of the hard forks, as registered in {@link EVMExecutors#registry}
+   * @param numTestPerOpcode the number of tests to generate per opcode
+   * @param parallelism the number of worker threads to use
+   * @return the generated tests, ordered by hard fork, opcode and index
+   */
+  public List<OpcodeTestModel> generateForHardForks(List<String> hardForks, int numTestPerOpcode, int parallelism) {
+    List<OpcodeTestModel> tests = inPool(
+        parallelism,
+        () -> workItems(hardForks, numTestPerOpcode).map(this::generate).collect(Collectors.toList()));
+    logAcceptanceRates();
+    logger.info("Done generating tests, {}, {}", EVMExecutors.cache, EVMExecutors.codeCache);
+    return tests;
+  }
+
+  /**
+   * Generates tests for a set of hard forks, handing each test to a sink as soon as it is generated.
+   * <p>
+   * Tests are not retained, so memory use does not grow with the number of tests. The sink is called concurrently from
+   * the worker threads, in no particular order, and may block to apply backpressure.
+   *
+   * @param hardForks the names of the hard forks, as registered in {@link EVMExecutors#registry}
+   * @param numTestPerOpcode the number of tests to generate per opcode
+   * @param parallelism the number of worker threads to use
+   * @param sink the consumer of the generated tests
+   */
+  public void generateForHardForks(
+      List<String> hardForks,
+      int numTestPerOpcode,
+      int parallelism,
+      Consumer<OpcodeTestModel> sink) {
+    generateForHardForks(hardForks, numTestPerOpcode, parallelism, Shard.ALL, sink);
+  }
+
+  /**
+   * Generates the tests of one shard of a set of hard forks, handing each test to a sink as soon as it is generated.
+   * <p>
+   * Tests outside of the shard are not generated. Each test only depends on its coordinates, so the shards of a build
+   * generate the same tests as an unsharded build.
+   *
+   * @param hardForks the names of the hard forks, as registered in {@link EVMExecutors#registry}
+   * @param numTestPerOpcode the number of tests to generate per opcode
+   * @param parallelism the number of worker threads to use
+   * @param shard the shard to generate
+   * @param sink the consumer of the generated tests
+   */
+  public void generateForHardForks(
+      List<String> hardForks,
+      int numTestPerOpcode,
+      int parallelism,
+      Shard shard,
+      Consumer<OpcodeTestModel> sink) {
+    inPool(parallelism, () -> {
+      workItems(hardForks, numTestPerOpcode)
+          .filter(
+              workItem -> shard
+                  .owns(workItem.evmExecutor.get().getHardFork(), workItem.operation.getName(), workItem.index))
+          .map(this::generate)
+          .forEach(sink);
+      return null;
+    });
+    logAcceptanceRates();
+    logger.info("Done generating tests, {}, {}", EVMExecutors.cache, EVMExecutors.codeCache);
+  }
+
+  private Stream<WorkItem> workItems(List<String> hardForks, int numTestPerOpcode) {
+    List<WorkItem> operations = new ArrayList<>();
+    for (String hardFork : hardForks) {
+      operations.addAll(workItems(EVMExecutors.cache.supplier(hardFork), 1));
+    }
+    logger.info("Generating {} tests", (long) operations.size() * numTestPerOpcode);
+    return IntStream.range(0, operations.size() * numTestPerOpcode).parallel().mapToObj(i -> {
+      WorkItem operation = operations.get(i / numTestPerOpcode);
+      return new WorkItem(operation.evmExecutor, operation.operation, i % numTestPerOpcode);
+    });
+  }
+
+  private static <T> T inPool(int parallelism, Callable<T> task) {
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      return pool.submit(task).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while generating tests", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Error generating tests", e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * A single test to generate: one index of one opcode for one hard fork.
+   */
+  static final class WorkItem {
+
+    final Supplier<EVMExecutorConfiguration> evmExecutor;
+    final Operation operation;
+    final int index;
+
+    WorkItem(Supplier<EVMExecutorConfiguration> evmExecutor, Operation operation, int index) {
+      this.evmExecutor = evmExecutor;
+      this.operation = operation;
+      this.index = index;
+    }
+  }
+
+  List<WorkItem> workItems(Supplier<EVMExecutorConfiguration> evmExecutor, int numTestsPerOpcode) {
+    OperationRegistry registry = evmExecutor.get().getOperationsRegistry();
+    List<WorkItem> workItems = new ArrayList<>();
+    for (int i = 0; i < 256; i++) {
+      Operation operation = registry.get(i);
+      if (operation != null && !isSkipped(operation)) {
+        for (int index = 0; index < numTestsPerOpcode; index++) {
+          workItems.add(new WorkItem(evmExecutor, operation, index));
+        }
+      }
+    }
+    return workItems;
+  }
+
+  /**
+   * Generates a single test, reproducing the test of the same coordinates generated by this generator in bulk.
+   *
+   * @param hardFork the name of the hard fork, as registered in {@link EVMExecutors#registry}
+   * @param opcode the opcode under test
+   * @param index the index of the test
+   * @return the generated test
+   */
+  public OpcodeTestModel generate(String hardFork, int opcode, int index) {
+    Supplier<EVMExecutorConfiguration> evmExecutor = EVMExecutors.cache.supplier(hardFork);
+    Operation operation = evmExecutor.get().getOperationsRegistry().get(opcode);
+    if (operation == null) {
+      throw new IllegalArgumentException("Unknown opcode " + opcode + " for hard fork " + hardFork);
+    }
+    return generate(new WorkItem(evmExecutor, operation, index));
+  }
+
+  OpcodeTestModel generate(WorkItem workItem) {
+    EVMExecutorConfiguration executorConfig = workItem.evmExecutor.get();
+    SplittableRandom random =
+        random(seed, executorConfig.getHardFork(), workItem.operation.getOpcode(), workItem.index);
+    Acceptance acceptance = recordMetrics
+        ? acceptances.computeIfAbsent(workItem.operation.getName(), name -> new Acceptance())
+        : null;
+    OpcodeTestModel test = null;
+    while (test == null) {
+      if (acceptance != null) {
+        acceptance.executions.increment();
+      }
+      test = generate(workItem.evmExecutor, workItem.operation, random);
+    }
+    if (acceptance != null) {
+      acceptance.accepted.increment();
+      Metrics.global.counter("evm_tests_generated_total", "opcode", workItem.operation.getName()).increment();
+    }
+    test.setIndex(workItem.index);
+    return test;
+  }
+
+  /**
+   * @return the share of executions kept as tests so far, by opcode name
+   */
+  public Map<String, Double> getAcceptanceRates() {
+    Map<String, Double> rates = new TreeMap<>();
+    acceptances.forEach((name, acceptance) -> {
+      rates.put(name, acceptance.accepted.doubleValue() / acceptance.executions.doubleValue());
+    });
+    return rates;
+  }
+
+  private void logAcceptanceRates() {
+    new TreeMap<>(acceptances).forEach((name, acceptance) -> {
+      logger
+          .info(
+              "Opcode {}: {} tests from {} executions ({}% accepted)",
+              name,
+              acceptance.accepted.sum(),
+              acceptance.executions.sum(),
+              String.format("%.1f", 100 * acceptance.accepted.doubleValue() / acceptance.executions.doubleValue()));
+    });
+  }
+
+  private static boolean isSkipped(Operation operation) {
+    // for now skip call operations
+    return "CALL".equals(operation.getName())
+        || "CALLCODE".equals(operation.getName())
+        || "DELEGATECALL".equals(operation.getName())
+        || "STATICCALL".equals(operation.getName());
+  }
+
   public List<OpcodeTestModel> generateForFrontier(int numTestsPerOpcode) {
-    return generateForHardFork(EVMExecutors.frontier, numTestsPerOpcode);
+    return generateForHardFork(EVMExecutors.cache.supplier("frontier"), numTestsPerOpcode);
   }
 
   public List<OpcodeTestModel> generateForHomestead(int numTestsPerOpcode) {
-    return generateForHardFork(EVMExecutors.homestead, numTestsPerOpcode);
+    return generateForHardFork(EVMExecutors.cache.supplier("homestead"), numTestsPerOpcode);
   }
 
   public List<OpcodeTestModel> generateSpuriousDragon(int numTestsPerOpcode) {
-    return generateForHardFork(EVMExecutors.spuriousDragon, numTestsPerOpcode);
+    return generateForHardFork(EVMExecutors.cache.supplier("spuriousDragon"), numTestsPerOpcode);
   }
 
   public List<OpcodeTestModel> generateTangerineWhistle(int numTestsPerOpcode) {
-    return generateForHardFork(EVMExecutors.tangerineWhistle, numTestsPerOpcode);
+    return generateForHardFork(EVMExecutors.cache.supplier("tangerineWhistle"), numTestsPerOpcode);
   }
 
   public List<OpcodeTestModel> generateByzantium(int numTestsPerOpcode) {
-    return generateForHardFork(EVMExecutors.byzantium, numTestsPerOpcode);
+    return generateForHardFork(EVMExecutors.cache.supplier("byzantium"), numTestsPerOpcode);
   }
 
   public List<OpcodeTestModel> generateConstantinople(int numTestsPerOpcode) {
-    return generateForHardFork(EVMExecutors.constantinople, numTestsPerOpcode);
+    return generateForHardFork(EVMExecutors.cache.supplier("constantinople"), numTestsPerOpcode);
   }
 
   public List<OpcodeTestModel> generatePetersburg(int numTestsPerOpcode) {
-    return generateForHardFork(EVMExecutors.petersburg, numTestsPerOpcode);
+    return generateForHardFork(EVMExecutors.cache.supplier("petersburg"), numTestsPerOpcode);
   }
 
   public List<OpcodeTestModel> generateIstanbul(int numTestsPerOpcode) {
-    return generateForHardFork(EVMExecutors.istanbul, numTestsPerOpcode);
+    return generateForHardFork(EVMExecutors.cache.supplier("istanbul"), numTestsPerOpcode);
   }
 
   public List<OpcodeTestModel> generateBerlin(int numTestsPerOpcode) {
-    return generateForHardFork(EVMExecutors.berlin, numTestsPerOpcode);
+    return generateForHardFork(EVMExecutors.cache.supplier("berlin"), numTestsPerOpcode);
   }
 
   public List<OpcodeTestModel> generateLondon(int numTestsPerOpcode) {
-    return generateForHardFork(EVMExecutors.london, numTestsPerOpcode);
+    return generateForHardFork(EVMExecutors.cache.supplier("london"), numTestsPerOpcode);
   }
 
   public List<OpcodeTestModel> generatePreMergeFork(int numTestsPerOpcode) {
-    return generateForHardFork(EVMExecutors.paris, numTestsPerOpcode);
+    return generateForHardFork(EVMExecutors.cache.supplier("paris"), numTestsPerOpcode);
   }
 
   public List<OpcodeTestModel> generateForHardFork(
       Supplier<EVMExecutorConfiguration> evmExecutor,
       int numTestsPerOpcode) {
-    logger.info("Generating for hard fork {}", evmExecutor.get().getHardFork());
-    OperationRegistry registry = evmExecutor.get().getOperationsRegistry();
+    EVMExecutorConfiguration executorConfig = evmExecutor.get();
+    logger.info("Generating for hard fork {}", executorConfig.getHardFork());
+    OperationRegistry registry = executorConfig.getOperationsRegistry();
 
     List<OpcodeTestModel> allTests = new ArrayList<>();
     for (int i = 0; i < 256; i++) {
       Operation operation = registry.get(i);
       if (operation != null) {
-        if ("CALL".equals(operation.getName())
-            || "CALLCODE".equals(operation.getName())
-            || "DELEGATECALL".equals(operation.getName())
-            || "STATICCALL".equals(operation.getName())) {
-          // for now skip call operations
+        if (isSkipped(operation)) {
           continue;
         }
-        List<OpcodeTestModel> opcodeTests = new ArrayList<>();
-        while (opcodeTests.size() < numTestsPerOpcode) {
-          OpcodeTestModel test = generate(evmExecutor, operation);
-          if (test != null) {
-            test.setIndex(opcodeTests.size());
-            opcodeTests.add(test);
-          }
+        for (int index = 0; index < numTestsPerOpcode; index++) {
+          allTests.add(generate(new WorkItem(evmExecutor, operation, index)));
         }
         logger.info("Added opcode tests for {}", operation.getName());
-        allTests.addAll(opcodeTests);
       }
     }
-    logger.info("Done generating for hard fork {}", evmExecutor.get().getHardFork());
+    logAcceptanceRates();
+    logger.info("Done generating for hard fork {}", executorConfig.getHardFork());
     return allTests;
   }
 
-  OpcodeTestModel generate(Supplier<EVMExecutorConfiguration> evmExecutorConfig, Operation operation) {
+  OpcodeTestModel generate(
+      Supplier<EVMExecutorConfiguration> evmExecutorConfig,
+      Operation operation,
+      SplittableRandom random) {
     EVMExecutorConfiguration executorConfig = evmExecutorConfig.get();
     EVM evm = executorConfig.evm;
     PrecompileContractRegistry precompileContractRegistry = executorConfig.getPrecompileContractRegistry();
-    Bytes codeBytes = Bytes.EMPTY;
-    for (int i = 0; i < operation.getStackItemsConsumed(); i++) {
-      Bytes argument = generateArgument();
-      byte pushOp = (byte) (0x5f + argument.size());
-      codeBytes = Bytes.wrap(codeBytes, Bytes.of(pushOp), argument);
-    }
-    codeBytes = Bytes.wrap(codeBytes, Bytes.of((byte) operation.getOpcode()));
+    Bytes codeBytes = program(ArgumentStrategy.of(operation).arguments(random), operation);
 
-    Code code = evm.getCode(Hash.hash(codeBytes), codeBytes);
+    Code code = EVMExecutors.codeCache.get(evm, codeBytes);
     MessageCallProcessor mcp = new MessageCallProcessor(evm, precompileContractRegistry);
 
-    Address sender = randomAddress();
-    Address receiver = randomAddress();
-    Address coinbase = randomAddress();
+    Address sender = randomAddress(random);
+    Address receiver = randomAddress(random);
+    Address coinbase = randomAddress(random);
     Deque<MessageFrame> messageFrameStack = new ArrayDeque<>();
     SimpleWorld worldUpdater = new SimpleWorld();
 
-    Account senderAccount = worldUpdater.createAccount(sender, random.nextInt(42) + 1, generateWei());
-    Account receiverAccount = worldUpdater.createAccount(receiver, random.nextInt(24), generateWei());
-    Account coinbaseAccount = worldUpdater.createAccount(coinbase, random.nextInt(100), generateWei());
+    Account senderAccount = worldUpdater.createAccount(sender, random.nextInt(42) + 1, generateWei(random));
+    Account receiverAccount = worldUpdater.createAccount(receiver, random.nextInt(24), generateWei(random));
+    Account coinbaseAccount = worldUpdater.createAccount(coinbase, random.nextInt(100), generateWei(random));
     worldUpdater.createAccount(sender, senderAccount.getNonce(), senderAccount.getBalance());
     worldUpdater.createAccount(receiver, receiverAccount.getNonce(), receiverAccount.getBalance());
     worldUpdater.createAccount(coinbase, coinbaseAccount.getNonce(), coinbaseAccount.getBalance());
 
     SettableBlockValues blockValues = new SettableBlockValues(
-        UInt256.fromBytes(Bytes32.random(random)),
-        Bytes32.random(),
-        initialGas() * 5,
+        UInt256.fromBytes(Bytes32.wrap(randomBytes(random, 32))),
+        Bytes32.wrap(randomBytes(random, 32)),
+        initialGas(random) * 5,
         Math.abs(random.nextLong()),
         Math.abs(random.nextLong()),
         Optional.empty());
 
-    Wei value = generateWei();
-    long gasAvailable = initialGas();
+    Wei value = generateWei(random);
+    long gasAvailable = initialGas(random);
     AtomicReference<OptionalLong> gasCost = new AtomicReference<>();
     AtomicReference<ExceptionalHaltReason> haltReason = new AtomicReference<>();
     AtomicReference<Operation> currentOperation = new AtomicReference<>();
-
-    List<Bytes> stackBefore = new ArrayList<>();
-    List<Bytes> stackAfter = new ArrayList<>();
-    List<Bytes32> memoryBefore = new ArrayList<>();
-    List<Bytes32> memoryAfter = new ArrayList<>();
     AtomicBoolean executedOpcode = new AtomicBoolean(false);
 
-    Wei gasPrice = generateWei();
-    Bytes inputData = generateInputData();
-    AtomicReference<MessageFrame> initialMessageFrameReference = new AtomicReference<>();
+    Wei gasPrice = generateWei(random);
+    Bytes inputData = generateInputData(random);
+    RecordingTracer tracer = RecordingTracer.get();
     EVMExecutor executor = EVMExecutor
         .evm(evm)
         .gas(gasAvailable)
@@ -238,46 +517,43 @@ public class EVMOpcodeTestGenerator {
         .accessListWarmStorage(ImmutableSetMultimap.of())
         .messageCallProcessor(mcp)
         .tracer((frame, executeOperation) -> {
-          initialMessageFrameReference.compareAndSet(null, frame);
-          if (!executedOpcode.get()) {
-            stackBefore.clear();
-            for (int i = 0; i < frame.stackSize(); i++) {
-              stackBefore.add(frame.getStackItem(i));
-            }
-            memoryBefore.clear();
-            for (int i = 0; i < frame.memoryWordSize(); i++) {
-              memoryBefore.add((Bytes32) frame.readMemory(i * 32L, 32L));
-            }
+          tracer.step(frame);
+          boolean target = !executedOpcode.get() && frame.getCurrentOperation().getOpcode() == operation.getOpcode();
+          if (target) {
+            tracer.captureBefore(frame);
           }
 
           currentOperation.set(frame.getCurrentOperation());
           Operation.OperationResult result = executeOperation.execute();
-          if (executedOpcode.compareAndSet(false, frame.getCurrentOperation().getOpcode() == operation.getOpcode())) {
+          if (target) {
+            executedOpcode.set(true);
             gasCost.set(result.getGasCost());
-            stackAfter.clear();
-            for (int i = 0; i < frame.stackSize(); i++) {
-              stackAfter.add(frame.getStackItem(i));
-            }
-            for (int i = 0; i < frame.memoryWordSize(); i++) {
-              memoryAfter.add((Bytes32) frame.readMemory(i * 32L, 32L));
-            }
+            // the memory is too large, not a suitable outcome
+            tracer.checkMemory(frame);
+            tracer.captureAfter(frame);
           }
           haltReason.set(result.getHaltReason().orElse(ExceptionalHaltReason.NONE));
 
         });
-    Bytes output = executor.execute();
-
-    // the memory is too large, not a suitable outcome. return null
-    if (memoryAfter.size() > 128) {
+    long start = System.nanoTime();
+    try {
+      executor.execute();
+    } catch (RecordingTracer.Abort e) {
+      rejected(operation, e.getReason());
       return null;
+    } finally {
+      if (recordMetrics) {
+        generateLatency.recordSince(start);
+      }
     }
     // try to only get opcode execution that doesn't result in an out of gas error
     if (haltReason.get() == ExceptionalHaltReason.INSUFFICIENT_GAS) {
+      rejected(operation, "insufficient_gas");
       return null;
     }
     Operation current = currentOperation.get();
     if (current != null && (current.getOpcode() == 0x00 || current.getOpcode() == operation.getOpcode())) {
-      MessageFrame initialMessageFrame = initialMessageFrameReference.get();
+      MessageFrame initialMessageFrame = tracer.getInitialFrame();
       List<Account> pre = new ArrayList<>();
       pre.add(senderAccount);
       pre.add(coinbaseAccount);
@@ -288,10 +564,10 @@ public class EVMOpcodeTestGenerator {
           executorConfig.getHardFork(),
           pre,
           operation.getName(),
-          stackAfter,
-          memoryAfter,
-          stackBefore,
-          memoryBefore,
+          tracer.getStackAfter(),
+          tracer.getMemoryAfter(),
+          tracer.getStackBefore(),
+          tracer.getMemoryBefore(),
           inputData,
           gasPrice,
           initialMessageFrame.getLogs(),
@@ -311,9 +587,52 @@ public class EVMOpcodeTestGenerator {
     }
 
     // the execution didn't go as far as running the opcode.
+    rejected(operation, "opcode_not_reached");
     return null;
   }
 
+  /**
+   * Builds the program pushing arguments and running an operation on them.
+   *
+   * @param arguments the arguments, in the order the operation pops them, each of 1 to 32 bytes
+   * @param operation the operation
+   * @return the bytecode of the program
+   */
+  static Bytes program(List<Bytes> arguments, Operation operation) {
+    Bytes codeBytes = Bytes.EMPTY;
+    // the first argument popped by the opcode is the last one pushed
+    for (int i = arguments.size() - 1; i >= 0; i--) {
+      Bytes argument = arguments.get(i);
+      byte pushOp = (byte) (0x5f + argument.size());
+      codeBytes = Bytes.wrap(codeBytes, Bytes.of(pushOp), argument);
+    }
+    return Bytes.wrap(codeBytes, Bytes.of((byte) operation.getOpcode()));
+  }
+
+  private void rejected(Operation operation, String reason) {
+    if (!recordMetrics) {
+      return;
+    }
+    Metrics.global.counter("evm_tests_rejected_total", "opcode", operation.getName(), "reason", reason).increment();
+  }
+
+  /**
+   * Observes the operations of a run as they execute.
+   */
+  @FunctionalInterface
+  interface StepListener {
+
+    StepListener NONE = (frame, operation, result, memoryWordsBefore) -> {};
+
+    /**
+     * @param frame the frame that executed the operation
+     * @param operation the operation
+     * @param result the result of the operation
+     * @param memoryWordsBefore the memory size of the frame before the operation, in words
+     */
+    void executed(MessageFrame frame, Operation operation, Operation.OperationResult result, long memoryWordsBefore);
+  }
+
   /**
    * Runs a given test model, with a hard fork of our choosing
    *
@@ -322,11 +641,23 @@ public class EVMOpcodeTestGenerator {
    * @return a new model execution with the hard fork.
    */
   public static OpcodeTestModel run(OpcodeTestModel model, String hardFork) {
-    EVMExecutorConfiguration executorConfig = EVMExecutors.registry.get(hardFork).get();
+    return run(model, hardFork, StepListener.NONE);
+  }
+
+  /**
+   * Runs a given test model, with a hard fork of our choosing, reporting each operation to a listener.
+   *
+   * @param model the model to run
+   * @param hardFork the hard fork to associate with the execution
+   * @param listener the listener of the operations executed
+   * @return a new model execution with the hard fork, or null if the execution was aborted
+   */
+  static OpcodeTestModel run(OpcodeTestModel model, String hardFork, StepListener listener) {
+    EVMExecutorConfiguration executorConfig = EVMExecutors.cache.get(hardFork);
     EVM evm = executorConfig.evm;
     PrecompileContractRegistry precompileContractRegistry = executorConfig.getPrecompileContractRegistry();
 
-    Code code = evm.getCode(Hash.hash(model.getCode()), model.getCode());
+    Code code = EVMExecutors.codeCache.get(evm, model.getCode());
     MessageCallProcessor mcp = new MessageCallProcessor(evm, precompileContractRegistry);
 
     Address sender = model.getSender();
@@ -352,12 +683,7 @@ public class EVMOpcodeTestGenerator {
 
     Wei value = model.getValue();
     long gasAvailable = model.getGasAvailable();
-    AtomicReference<OptionalLong> gasCost = new AtomicReference<>();
-
-    List<Bytes> stackAfter = new ArrayList<>();
-    List<Bytes32> memoryAfter = new ArrayList<>();
-
-    AtomicReference<MessageFrame> initialMessageFrameReference = new AtomicReference<>();
+    RecordingTracer tracer = RecordingTracer.get();
     EVMExecutor executor = EVMExecutor
         .evm(evm)
         .gas(gasAvailable)
@@ -375,38 +701,39 @@ public class EVMOpcodeTestGenerator {
         .precompileContractRegistry(precompileContractRegistry)
         .messageCallProcessor(mcp)
         .tracer((frame, executeOperation) -> {
-          initialMessageFrameReference.compareAndSet(null, frame);
-
-          Operation.OperationResult result = executeOperation.execute();
-          gasCost.set(result.getGasCost());
-          stackAfter.clear();
-          for (int i = 0; i < frame.stackSize(); i++) {
-            stackAfter.add(frame.getStackItem(i));
-          }
-          for (int i = 0; i < frame.memoryWordSize(); i++) {
-            memoryAfter.add((Bytes32) frame.readMemory(i * 32L, 32L));
+          tracer.step(frame);
+          Operation operation = frame.getCurrentOperation();
+          long memoryWordsBefore = frame.memoryWordSize();
+          listener.executed(frame, operation, executeOperation.execute(), memoryWordsBefore);
+          // the last operation runs in the initial frame, whose memory is recorded
+          if (frame.getMessageStackDepth() == 0) {
+            tracer.checkMemory(frame);
           }
         });
-    Bytes output = executor.execute();
-
+    long start = System.nanoTime();
+    try {
+      executor.execute();
+    } catch (RecordingTracer.Abort e) {
+      Metrics.global.counter("evm_runs_rejected_total", "reason", e.getReason()).increment();
+      return null;
+    } finally {
+      runLatency.recordSince(start);
+    }
+    // the frame of the last operation is left as it was after it, so it is only captured once
+    tracer.captureAfter(tracer.getLastFrame());
 
-    MessageFrame initialMessageFrame = initialMessageFrameReference.get();
+    MessageFrame initialMessageFrame = tracer.getInitialFrame();
     ExceptionalHaltReason haltReason =
         initialMessageFrame.getExceptionalHaltReason().orElse(ExceptionalHaltReason.NONE);
 
-    // the memory is too large, not a suitable outcome. return null
-    if (memoryAfter.size() > 128) {
-      return null;
-    }
-
     long allGasCost = gasAvailable - initialMessageFrame.getRemainingGas();
 
     OpcodeTestModel result = new OpcodeTestModel(
         executorConfig.getHardFork(),
         pre,
         model.getName(),
-        stackAfter,
-        memoryAfter,
+        tracer.getStackAfter(),
+        tracer.getMemoryAfter(),
         new ArrayList<>(),
         new ArrayList<>(),
         model.getInputData(),
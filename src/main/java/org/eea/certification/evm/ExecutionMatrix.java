@@ -0,0 +1,185 @@
+package org.eea.certification.evm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs every (model, hard fork) pair of a set of test models as an independent task on a work-stealing pool.
+ * <p>
+ * Models are kept in a fixed order, and models writing to the same file are reduced to the first of them, so the
+ * files written do not depend on the order tasks complete in.
+ */
+public class ExecutionMatrix {
+
+  private static final Logger logger = LoggerFactory.getLogger(ExecutionMatrix.class);
+
+  /**
+   * The work done for one pair of the matrix.
+   */
+  @FunctionalInterface
+  public interface Cell {
+
+    /**
+     * @param model the index of the model in the matrix
+     * @param hardFork the hard fork to run the model against
+     * @throws IOException if the result cannot be written
+     */
+    void run(int model, String hardFork) throws IOException;
+  }
+
+  private ExecutionMatrix() {}
+
+  /**
+   * Resolves model files from paths to files, folders to walk for YAML files and glob patterns.
+   *
+   * @param patterns the paths, folders and glob patterns
+   * @return the model files, sorted and without duplicates
+   * @throws IOException if a folder cannot be walked or a path does not exist
+   */
+  public static List<Path> resolve(List<String> patterns) throws IOException {
+    TreeSet<Path> files = new TreeSet<>();
+    for (String pattern : patterns) {
+      int glob = firstGlobCharacter(pattern);
+      if (glob == -1) {
+        Path path = Paths.get(pattern);
+        if (Files.isDirectory(path)) {
+          files.addAll(walk(path, file -> true));
+        } else if (Files.exists(path)) {
+          files.add(path);
+        } else {
+          throw new IOException("Cannot find test file: " + path);
+        }
+      } else {
+        int separator = pattern.lastIndexOf('/', glob);
+        Path base = Paths.get(separator == -1 ? "" : pattern.substring(0, separator));
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        files.addAll(walk(base, matcher::matches));
+      }
+    }
+    return new ArrayList<>(files);
+  }
+
+  private static int firstGlobCharacter(String pattern) {
+    for (int i = 0; i < pattern.length(); i++) {
+      if ("*?[{".indexOf(pattern.charAt(i)) != -1) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static List<Path> walk(Path folder, PathMatcher matcher) throws IOException {
+    try (Stream<Path> walk = Files.walk(folder)) {
+      return walk
+          .filter(Files::isRegularFile)
+          .filter(file -> file.getFileName().toString().endsWith(".yaml"))
+          .filter(file -> !"manifest.yaml".equals(file.getFileName().toString()))
+          .filter(file -> !ShardManifest.FILE_NAME.equals(file.getFileName().toString()))
+          .filter(matcher::matches)
+          .collect(Collectors.toList());
+    }
+  }
+
+  /**
+   * Reads model files in parallel.
+   *
+   * @param files the model files
+   * @param mapper the mapper reading the models
+   * @param parallelism the number of worker threads to use
+   * @return the models, in the order of the files
+   * @throws IOException if a model cannot be read
+   */
+  public static List<OpcodeTestModel> read(List<Path> files, ObjectMapper mapper, int parallelism)
+      throws IOException {
+    return inPool(parallelism, () -> files.parallelStream().map(file -> {
+      try {
+        return mapper.readValue(file.toFile(), OpcodeTestModel.class);
+      } catch (IOException e) {
+        throw new UncheckedIOException(new IOException("Cannot interpret test file contents: " + file, e));
+      }
+    }).collect(Collectors.toList()));
+  }
+
+  /**
+   * Keeps the first of the models sharing a name and index, as they would overwrite each other's results.
+   *
+   * @param models the models, in order
+   * @return the models with distinct names and indexes, in order
+   */
+  public static List<OpcodeTestModel> distinct(List<OpcodeTestModel> models) {
+    Map<String, OpcodeTestModel> seen = new HashMap<>();
+    List<OpcodeTestModel> result = new ArrayList<>(models.size());
+    for (OpcodeTestModel model : models) {
+      OpcodeTestModel previous = seen.putIfAbsent(model.getName() + "-" + model.getIndex(), model);
+      if (previous == null) {
+        result.add(model);
+      } else {
+        logger.warn("Skipping duplicate test {}-{}", model.getName(), model.getIndex());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Runs every pair of the matrix, in no particular order.
+   *
+   * @param models the number of models
+   * @param hardForks the hard forks to run each model against
+   * @param parallelism the number of worker threads to use
+   * @param cell the work done for each pair
+   * @throws IOException if a cell fails
+   */
+  public static void run(int models, List<String> hardForks, int parallelism, Cell cell) throws IOException {
+    int forks = hardForks.size();
+    logger.info("Running {} models against {} hard forks", models, forks);
+    inPool(parallelism, () -> {
+      IntStream.range(0, models * forks).parallel().forEach(i -> {
+        try {
+          cell.run(i / forks, hardForks.get(i % forks));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      return null;
+    });
+    logger.info("Done running models, {}", EVMExecutors.codeCache);
+  }
+
+  static <T> T inPool(int parallelism, Callable<T> task) throws IOException {
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      return pool.submit(task).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while running tests", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) cause).getCause();
+      }
+      throw new IOException(cause);
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
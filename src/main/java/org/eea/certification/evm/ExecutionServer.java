@@ -0,0 +1,280 @@
+package org.eea.certification.evm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Long-running HTTP service running test models against hard forks on demand.
+ * <p>
+ * {@code POST /run} takes a test model as YAML, or as JSON with a JSON content type, and runs it against the hard forks
+ * listed in the {@code forks} query parameter, or all of them. Hard forks are named as in {@link EVMExecutors#registry}
+ * or by their configuration, and results are reported under the name of their configuration. The results are streamed
+ * back as they finish, as a multi-document YAML stream or as one JSON document per line, in the format of the request.
+ * Hard forks rejecting the model are reported as {@code {hardFork, rejected: true}} documents, and runs failing with an
+ * error as {@code {hardFork, error: message}} documents.
+ * <p>
+ * Runs execute on a dedicated worker pool. Results are cached by model hash and hard fork, and concurrent requests for
+ * the same model and hard fork share a single run. {@code GET /stats} reports the statistics of the cache.
+ */
+public class ExecutionServer implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(ExecutionServer.class);
+
+  private static final String JSON = "application/json";
+
+  private final Vertx vertx;
+  private final HttpServer server;
+  private final ExecutorService workers;
+
+  private ExecutionServer(Vertx vertx, HttpServer server, ExecutorService workers) {
+    this.vertx = vertx;
+    this.server = server;
+    this.workers = workers;
+  }
+
+  /**
+   * Handles the requests of a server. Package-private so it can be driven without a socket.
+   */
+  static final class RequestHandler {
+
+    private final ObjectMapper yamlMapper;
+    private final ObjectMapper jsonMapper;
+    private final ExecutorService workers;
+    private final Cache<String, CompletableFuture<Optional<OpcodeTestModel>>> results;
+
+    RequestHandler(ObjectMapper yamlMapper, ObjectMapper jsonMapper, ExecutorService workers, long cacheSize) {
+      this.yamlMapper = yamlMapper;
+      this.jsonMapper = jsonMapper;
+      this.workers = workers;
+      this.results = CacheBuilder.newBuilder().maximumSize(cacheSize).recordStats().build();
+    }
+
+    /**
+     * Runs a model against a hard fork, sharing the run with any other request for the same model and hard fork.
+     *
+     * @param model the model to run
+     * @param modelBytes the canonical serialization of the model, identifying it
+     * @param hardFork the hard fork to run the model against
+     * @return the result of the run, empty if the hard fork rejected the model
+     */
+    CompletableFuture<Optional<OpcodeTestModel>> run(OpcodeTestModel model, byte[] modelBytes, String hardFork) {
+      String key = RegenerationManifest.key(modelBytes, hardFork);
+      CompletableFuture<Optional<OpcodeTestModel>> result;
+      try {
+        result = results
+            .get(
+                key,
+                () -> CompletableFuture
+                    .supplyAsync(() -> Optional.ofNullable(EVMOpcodeTestGenerator.run(model, hardFork)), workers));
+      } catch (ExecutionException e) {
+        return CompletableFuture.failedFuture(e.getCause());
+      }
+      // failures are not cached, the next request runs the model again
+      result.whenComplete((value, error) -> {
+        if (error != null) {
+          results.asMap().remove(key, result);
+        }
+      });
+      return result;
+    }
+
+    byte[] document(Optional<OpcodeTestModel> result, String hardFork, boolean json) throws IOException {
+      Object document = result.orElse(null);
+      if (document == null) {
+        Map<String, Object> rejected = new LinkedHashMap<>();
+        rejected.put("hardFork", hardFork);
+        rejected.put("rejected", true);
+        document = rejected;
+      }
+      return serialize(document, json);
+    }
+
+    byte[] errorDocument(Throwable error, String hardFork, boolean json) throws IOException {
+      Map<String, Object> document = new LinkedHashMap<>();
+      document.put("hardFork", hardFork);
+      Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+      document.put("error", String.valueOf(cause.getMessage()));
+      return serialize(document, json);
+    }
+
+    private byte[] serialize(Object document, boolean json) throws IOException {
+      if (json) {
+        byte[] bytes = jsonMapper.writeValueAsBytes(document);
+        byte[] line = Arrays.copyOf(bytes, bytes.length + 1);
+        line[bytes.length] = '\n';
+        return line;
+      }
+      return yamlMapper.writeValueAsBytes(document);
+    }
+
+    String stats() {
+      return results.stats().toString();
+    }
+
+    void handle(Vertx vertx, HttpServerRequest request) {
+      if ("/stats".equals(request.path())) {
+        request.response().putHeader("Content-Type", "text/plain").end(stats());
+        return;
+      }
+      if (!"/run".equals(request.path())) {
+        request.response().setStatusCode(404).end();
+        return;
+      }
+      if (!"POST".equals(request.method().name())) {
+        request.response().setStatusCode(405).end();
+        return;
+      }
+      Metrics.global.counter("server_requests_total").increment();
+      Context context = vertx.getOrCreateContext();
+      request.body().onSuccess(body -> respond(context, request, body)).onFailure(error -> {
+        request.response().setStatusCode(400).end(String.valueOf(error.getMessage()));
+      });
+    }
+
+    private void respond(Context context, HttpServerRequest request, Buffer body) {
+      String contentType = request.getHeader("Content-Type");
+      boolean json = contentType != null && contentType.startsWith(JSON);
+      OpcodeTestModel model;
+      byte[] modelBytes;
+      List<String> hardForks;
+      try {
+        model = (json ? jsonMapper : yamlMapper).readValue(body.getBytes(), OpcodeTestModel.class);
+        modelBytes = yamlMapper.writeValueAsBytes(model);
+        hardForks = hardForks(request.getParam("forks"));
+      } catch (IOException | IllegalArgumentException e) {
+        request.response().setStatusCode(400).end("Invalid request: " + e.getMessage());
+        return;
+      }
+      HttpServerResponse response = request.response();
+      response.setChunked(true);
+      response.putHeader("Content-Type", json ? "application/x-ndjson" : "application/yaml");
+      AtomicInteger remaining = new AtomicInteger(hardForks.size());
+      for (String hardFork : hardForks) {
+        run(model, modelBytes, hardFork).whenComplete((result, error) -> context.runOnContext(v -> {
+          if (error != null) {
+            logger.error("Error running {} against {}", model.getName(), hardFork, error);
+          }
+          try {
+            write(response, error != null ? errorDocument(error, hardFork, json) : document(result, hardFork, json));
+          } catch (IOException e) {
+            logger.error("Cannot serialize the result of {}", hardFork, e);
+          }
+          if (remaining.decrementAndGet() == 0 && !response.closed()) {
+            response.end();
+          }
+        }));
+      }
+    }
+
+    private void write(HttpServerResponse response, byte[] document) {
+      if (!response.closed()) {
+        response.write(Buffer.buffer(document));
+      }
+    }
+
+    /**
+     * @return the names of the configurations of the requested hard forks, without duplicates, so aliases of a hard
+     *         fork share a single run and cache entry
+     * @throws IllegalArgumentException if a hard fork is unknown or no hard fork is given
+     */
+    static List<String> hardForks(String forks) {
+      List<String> requested;
+      if (forks == null || forks.isBlank()) {
+        requested = new ArrayList<>(EVMExecutors.registry.keySet());
+      } else {
+        requested = Arrays
+            .stream(forks.split(","))
+            .map(String::trim)
+            .filter(fork -> !fork.isEmpty())
+            .collect(Collectors.toList());
+      }
+      if (requested.isEmpty()) {
+        throw new IllegalArgumentException("No hard fork in " + forks);
+      }
+      // fails on unknown hard forks before anything is run
+      Set<String> hardForks = new LinkedHashSet<>();
+      for (String hardFork : requested) {
+        hardForks.add(EVMExecutors.cache.get(hardFork).getHardFork());
+      }
+      return new ArrayList<>(hardForks);
+    }
+  }
+
+  /**
+   * Starts a server, waiting until it listens.
+   *
+   * @param port the port to listen on
+   * @param yamlMapper the mapper reading and writing YAML models
+   * @param jsonMapper the mapper reading and writing JSON models
+   * @param parallelism the number of worker threads running models
+   * @param cacheSize the maximum number of results kept in the cache
+   * @return the started server
+   * @throws IOException if the server cannot listen on the port
+   */
+  public static ExecutionServer start(
+      int port,
+      ObjectMapper yamlMapper,
+      ObjectMapper jsonMapper,
+      int parallelism,
+      long cacheSize) throws IOException {
+    ExecutorService workers = Executors
+        .newFixedThreadPool(
+            parallelism,
+            new ThreadFactoryBuilder().setNameFormat("evm-worker-%d").setDaemon(true).build());
+    RequestHandler handler = new RequestHandler(yamlMapper, jsonMapper, workers, cacheSize);
+    Vertx vertx = Vertx.vertx();
+    HttpServer server = vertx.createHttpServer().requestHandler(request -> handler.handle(vertx, request));
+    try {
+      server.listen(port).toCompletionStage().toCompletableFuture().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      vertx.close();
+      workers.shutdown();
+      throw new IOException("Interrupted while starting the execution server", e);
+    } catch (ExecutionException e) {
+      vertx.close();
+      workers.shutdown();
+      throw new IOException("Cannot listen on port " + port, e.getCause());
+    }
+    logger.info("Serving test runs on port {} with {} workers", server.actualPort(), parallelism);
+    return new ExecutionServer(vertx, server, workers);
+  }
+
+  public int getPort() {
+    return server.actualPort();
+  }
+
+  @Override
+  public void close() {
+    vertx.close();
+    workers.shutdown();
+  }
+}
@@ -6,6 +6,7 @@ import org.apache.tuweni.units.bigints.UInt256;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -81,6 +82,21 @@ public class JsonModule extends SimpleModule {
     }
   }
 
+  /**
+   * Writes a long as a short hex string, the form read back by the {@link OpcodeTestModel} constructor.
+   */
+  static class LongHexSerializer extends StdSerializer<Long> {
+
+    LongHexSerializer() {
+      super(Long.class);
+    }
+
+    @Override
+    public void serialize(Long value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+      gen.writeString("0x" + Long.toHexString(value));
+    }
+  }
+
   static class OptionalSerializer extends StdSerializer<Optional> {
 
     OptionalSerializer() {
@@ -163,9 +179,26 @@ public class JsonModule extends SimpleModule {
       long nonce = 0L;
       Wei balance = null;
       Bytes code = null;
+      Map<UInt256, UInt256> storage = new LinkedHashMap<>();
       while (p.nextToken() != JsonToken.END_OBJECT) {
         String name = p.getCurrentName();
-        if ("address".equals(name)) {
+        if ("storage".equals(name)) {
+          p.nextToken();
+          while (p.nextToken() != JsonToken.END_ARRAY) {
+            UInt256 key = null;
+            UInt256 value = null;
+            while (p.nextToken() != JsonToken.END_OBJECT) {
+              String field = p.getCurrentName();
+              p.nextToken();
+              if ("key".equals(field)) {
+                key = UInt256.fromHexString(p.getText());
+              } else if ("value".equals(field)) {
+                value = UInt256.fromHexString(p.getText());
+              }
+            }
+            storage.put(key, value);
+          }
+        } else if ("address".equals(name)) {
           p.nextToken();
           address = Address.fromHexString(p.getText());
         } else if ("nonce".equals(name)) {
@@ -181,19 +214,56 @@ public class JsonModule extends SimpleModule {
       }
       SimpleAccount account = new SimpleAccount(address, nonce, balance);
       account.setCode(code);
+      for (Map.Entry<UInt256, UInt256> entry : storage.entrySet()) {
+        account.setStorageValue(entry.getKey(), entry.getValue());
+      }
       return account;
     }
 
   }
 
   public JsonModule() {
+    this(true);
+  }
+
+  /**
+   * A module writing the accounts of the after state of tests as {@link AccountChanges} against the accounts of their
+   * before state. Both layouts are read by every module.
+   *
+   * @return the module
+   */
+  public static JsonModule withDeltaAfterState() {
+    return new JsonModule(true, true);
+  }
+
+  /**
+   * @param modelCodec whether to register the streaming codec of {@link OpcodeTestModel}, instead of relying on the
+   *        annotations of the model. Only disabled to check the output of the codec against the annotations.
+   */
+  JsonModule(boolean modelCodec) {
+    this(modelCodec, false);
+  }
+
+  private JsonModule(boolean modelCodec, boolean deltaAfterState) {
+    if (modelCodec) {
+      addSerializer(new OpcodeTestModelCodec.ModelSerializer(deltaAfterState));
+      addSerializer(new OpcodeTestModelCodec.BeforeSerializer());
+      addSerializer(new OpcodeTestModelCodec.AfterSerializer());
+      addDeserializer(OpcodeTestModel.class, new OpcodeTestModelCodec.ModelDeserializer());
+      addDeserializer(OpcodeTestModel.Before.class, new OpcodeTestModelCodec.BeforeDeserializer());
+      addDeserializer(OpcodeTestModel.After.class, new OpcodeTestModelCodec.AfterDeserializer());
+    }
     addSerializer(new AccountSerializer());
     addSerializer(new WeiSerializer());
     addSerializer(new BytesSerializer());
     addSerializer(new OptionalSerializer());
+    addSerializer(new SparseMemory.Serializer());
+    addSerializer(new AccountChanges.Serializer());
     addDeserializer(Log.class, new LogDeserializer());
     addDeserializer(ExceptionalHaltReason.class, new ExceptionalHaltReasonDeserializer());
     addDeserializer(Account.class, new AccountDeserializer());
     addDeserializer(Bytes32.class, new Bytes32Deserializer());
+    addDeserializer(SparseMemory.class, new SparseMemory.Deserializer());
+    addDeserializer(AccountChanges.class, new AccountChanges.Deserializer());
   }
 }
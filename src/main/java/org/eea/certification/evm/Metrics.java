@@ -0,0 +1,334 @@
+package org.eea.certification.evm;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the metrics of the test pipelines.
+ * <p>
+ * Counters and histograms are backed by {@link LongAdder}s, so they can be updated from many threads without
+ * contention. Metrics are identified by a name and label pairs, and can be rendered in the Prometheus text exposition
+ * format or as a snapshot to dump as JSON.
+ */
+public class Metrics {
+
+  /**
+   * The registry the pipelines report to.
+   */
+  public static final Metrics global = new Metrics();
+
+  /**
+   * A monotonic count.
+   */
+  public static final class Counter {
+
+    private final LongAdder value = new LongAdder();
+
+    public void increment() {
+      value.increment();
+    }
+
+    public void add(long amount) {
+      value.add(amount);
+    }
+
+    public long get() {
+      return value.sum();
+    }
+  }
+
+  /**
+   * A monotonic count kept by its owner, such as the statistics of a cache, read when the metrics are rendered.
+   */
+  private static final class CounterFunction {
+
+    final LongSupplier value;
+
+    CounterFunction(LongSupplier value) {
+      this.value = value;
+    }
+  }
+
+  /**
+   * A distribution of non-negative values, counted in buckets bounded by powers of two.
+   */
+  public static final class Histogram {
+
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    Histogram() {
+      for (int i = 0; i < BUCKETS; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    /**
+     * Records a value, counted in the bucket of the smallest power of two greater than or equal to it.
+     *
+     * @param value the value to record
+     */
+    public void record(long value) {
+      long positive = Math.max(value, 0);
+      int bucket = positive <= 1 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(positive - 1));
+      buckets[bucket].increment();
+      count.increment();
+      sum.add(positive);
+    }
+
+    /**
+     * Records the time elapsed since a start time.
+     *
+     * @param startNanos the start time, as given by {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+      record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+      return count.sum();
+    }
+
+    public long getSum() {
+      return sum.sum();
+    }
+
+    /**
+     * @return the number of values of each non-empty bucket, keyed by the upper bound of the bucket
+     */
+    public Map<Long, Long> getBuckets() {
+      Map<Long, Long> result = new LinkedHashMap<>();
+      for (int i = 0; i < BUCKETS; i++) {
+        long bucketCount = buckets[i].sum();
+        if (bucketCount > 0) {
+          result.put(upperBound(i), bucketCount);
+        }
+      }
+      return result;
+    }
+
+    /**
+     * @return the cumulative number of values of every bucket, empty or not, keyed by the upper bound of the bucket
+     */
+    Map<Long, Long> getCumulativeBuckets() {
+      Map<Long, Long> result = new LinkedHashMap<>();
+      long cumulative = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        cumulative += buckets[i].sum();
+        result.put(upperBound(i), cumulative);
+      }
+      return result;
+    }
+
+    private static long upperBound(int bucket) {
+      return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+  }
+
+  private static final class Metric {
+
+    final String name;
+    final String labels;
+    final Object value;
+
+    Metric(String name, String labels, Object value) {
+      this.name = name;
+      this.labels = labels;
+      this.value = value;
+    }
+  }
+
+  private final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<>();
+
+  /**
+   * Finds or creates a counter.
+   *
+   * @param name the name of the counter
+   * @param labels label names and values, alternating
+   * @return the counter
+   */
+  public Counter counter(String name, String... labels) {
+    return metric(name, labels, Counter.class, Counter::new);
+  }
+
+  /**
+   * Finds or creates a histogram.
+   *
+   * @param name the name of the histogram
+   * @param labels label names and values, alternating
+   * @return the histogram
+   */
+  public Histogram histogram(String name, String... labels) {
+    return metric(name, labels, Histogram.class, Histogram::new);
+  }
+
+  /**
+   * Registers a counter whose value is kept elsewhere, replacing any such counter of the same name and labels.
+   *
+   * @param name the name of the counter
+   * @param value the supplier of the current count, which must never decrease
+   * @param labels label names and values, alternating
+   */
+  public void counter(String name, LongSupplier value, String... labels) {
+    String formatted = labels(labels);
+    metrics.put(name + formatted, new Metric(name, formatted, new CounterFunction(value)));
+  }
+
+  /**
+   * Registers a gauge, replacing any gauge of the same name and labels.
+   *
+   * @param name the name of the gauge
+   * @param value the supplier of the current value of the gauge
+   * @param labels label names and values, alternating
+   */
+  public void gauge(String name, LongSupplier value, String... labels) {
+    String formatted = labels(labels);
+    metrics.put(name + formatted, new Metric(name, formatted, value));
+  }
+
+  /**
+   * Removes a gauge or a counter whose value is kept elsewhere, unless it was replaced since by another supplier.
+   *
+   * @param name the name of the metric
+   * @param value the supplier the metric was registered with
+   * @param labels label names and values, alternating
+   */
+  public void remove(String name, LongSupplier value, String... labels) {
+    metrics.computeIfPresent(name + labels(labels), (key, metric) -> {
+      Object registered =
+          metric.value instanceof CounterFunction ? ((CounterFunction) metric.value).value : metric.value;
+      return registered == value ? null : metric;
+    });
+  }
+
+  private <T> T metric(String name, String[] labels, Class<T> type, Supplier<T> factory) {
+    String formatted = labels(labels);
+    Metric metric = metrics.computeIfAbsent(name + formatted, key -> new Metric(name, formatted, factory.get()));
+    if (!type.isInstance(metric.value)) {
+      throw new IllegalArgumentException("Metric " + name + formatted + " is registered with another type");
+    }
+    return type.cast(metric.value);
+  }
+
+  private static String labels(String[] labels) {
+    if (labels.length == 0) {
+      return "";
+    }
+    if (labels.length % 2 != 0) {
+      throw new IllegalArgumentException("Labels must be given as name and value pairs");
+    }
+    StringBuilder builder = new StringBuilder("{");
+    for (int i = 0; i < labels.length; i += 2) {
+      if (i > 0) {
+        builder.append(',');
+      }
+      builder.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+    }
+    return builder.append('}').toString();
+  }
+
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  /**
+   * Renders all metrics in the Prometheus text exposition format.
+   *
+   * @return the metrics, one sample per line
+   */
+  public String toPrometheus() {
+    StringBuilder builder = new StringBuilder();
+    String lastName = null;
+    List<Metric> sorted = new ArrayList<>(metrics.values());
+    sorted.sort(Comparator.comparing((Metric metric) -> metric.name).thenComparing(metric -> metric.labels));
+    for (Metric metric : sorted) {
+      if (!metric.name.equals(lastName)) {
+        builder.append("# TYPE ").append(metric.name).append(' ').append(type(metric.value)).append('\n');
+        lastName = metric.name;
+      }
+      if (metric.value instanceof Counter) {
+        sample(builder, metric.name, metric.labels, ((Counter) metric.value).get());
+      } else if (metric.value instanceof CounterFunction) {
+        sample(builder, metric.name, metric.labels, ((CounterFunction) metric.value).value.getAsLong());
+      } else if (metric.value instanceof LongSupplier) {
+        sample(builder, metric.name, metric.labels, ((LongSupplier) metric.value).getAsLong());
+      } else {
+        Histogram histogram = (Histogram) metric.value;
+        // every bucket is rendered, so the series of a histogram do not change from one scrape to the next
+        for (Map.Entry<Long, Long> bucket : histogram.getCumulativeBuckets().entrySet()) {
+          if (bucket.getKey() != Long.MAX_VALUE) {
+            String labels = withLabel(metric.labels, "le", bucket.getKey());
+            sample(builder, metric.name + "_bucket", labels, bucket.getValue());
+          }
+        }
+        sample(builder, metric.name + "_bucket", withLabel(metric.labels, "le", "+Inf"), histogram.getCount());
+        sample(builder, metric.name + "_sum", metric.labels, histogram.getSum());
+        sample(builder, metric.name + "_count", metric.labels, histogram.getCount());
+      }
+    }
+    return builder.toString();
+  }
+
+  private static String type(Object value) {
+    if (value instanceof Counter || value instanceof CounterFunction) {
+      return "counter";
+    } else if (value instanceof Histogram) {
+      return "histogram";
+    }
+    return "gauge";
+  }
+
+  private static void sample(StringBuilder builder, String name, String labels, long value) {
+    builder.append(name).append(labels).append(' ').append(value).append('\n');
+  }
+
+  private static String withLabel(String labels, String name, Object value) {
+    String label = name + "=\"" + value + "\"";
+    return labels.isEmpty() ? "{" + label + "}" : labels.substring(0, labels.length() - 1) + "," + label + "}";
+  }
+
+  /**
+   * Takes a snapshot of all metrics, suitable to be serialized as JSON.
+   *
+   * @return the counters, gauges and histograms, keyed by name and labels
+   */
+  public Map<String, Object> snapshot() {
+    Map<String, Object> counters = new TreeMap<>();
+    Map<String, Object> gauges = new TreeMap<>();
+    Map<String, Object> histograms = new TreeMap<>();
+    for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+      Object value = entry.getValue().value;
+      if (value instanceof Counter) {
+        counters.put(entry.getKey(), ((Counter) value).get());
+      } else if (value instanceof CounterFunction) {
+        counters.put(entry.getKey(), ((CounterFunction) value).value.getAsLong());
+      } else if (value instanceof LongSupplier) {
+        gauges.put(entry.getKey(), ((LongSupplier) value).getAsLong());
+      } else {
+        Histogram histogram = (Histogram) value;
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", histogram.getCount());
+        summary.put("sum", histogram.getSum());
+        summary.put("buckets", histogram.getBuckets());
+        histograms.put(entry.getKey(), summary);
+      }
+    }
+    Map<String, Object> snapshot = new LinkedHashMap<>();
+    snapshot.put("counters", counters);
+    snapshot.put("gauges", gauges);
+    snapshot.put("histograms", histograms);
+    return snapshot;
+  }
+}
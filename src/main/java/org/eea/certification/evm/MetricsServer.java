@@ -0,0 +1,69 @@
+package org.eea.certification.evm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the metrics of a registry over HTTP, in the Prometheus text exposition format, at {@code /metrics}.
+ */
+public class MetricsServer implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(MetricsServer.class);
+
+  private final Vertx vertx;
+  private final HttpServer server;
+
+  private MetricsServer(Vertx vertx, HttpServer server) {
+    this.vertx = vertx;
+    this.server = server;
+  }
+
+  /**
+   * Starts a server, waiting until it listens.
+   *
+   * @param metrics the registry to serve
+   * @param port the port to listen on
+   * @return the started server
+   * @throws IOException if the server cannot listen on the port
+   */
+  public static MetricsServer start(Metrics metrics, int port) throws IOException {
+    Vertx vertx = Vertx.vertx();
+    HttpServer server = vertx.createHttpServer().requestHandler(request -> {
+      if ("/metrics".equals(request.path())) {
+        request
+            .response()
+            .putHeader("Content-Type", "text/plain; version=0.0.4; charset=utf-8")
+            .end(metrics.toPrometheus());
+      } else {
+        request.response().setStatusCode(404).end();
+      }
+    });
+    try {
+      server.listen(port).toCompletionStage().toCompletableFuture().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      vertx.close();
+      throw new IOException("Interrupted while starting the metrics server", e);
+    } catch (ExecutionException e) {
+      vertx.close();
+      throw new IOException("Cannot serve metrics on port " + port, e.getCause());
+    }
+    logger.info("Serving metrics on port {}", server.actualPort());
+    return new MetricsServer(vertx, server);
+  }
+
+  public int getPort() {
+    return server.actualPort();
+  }
+
+  @Override
+  public void close() {
+    vertx.close();
+  }
+}
@@ -0,0 +1,363 @@
+package org.eea.certification.evm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.hyperledger.besu.evm.frame.ExceptionalHaltReason;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures how fast the EVM of each hard fork runs corpus tests.
+ * <p>
+ * Every test is first run a number of warm-up rounds, all tests in turn so the whole interpreter is compiled, then
+ * timed in a tight loop against its own hard fork with {@link EVMOpcodeTestGenerator#run(OpcodeTestModel, String)}.
+ * Times are recorded in log-linear histograms, per test and per (hard fork, opcode), both per run and per unit of gas.
+ * Tests whose time per gas is more than a given factor away from the median of their hard fork are flagged, as their
+ * gas cost may not match the work they do. Tests halting exceptionally consume all their gas whatever work they do, so
+ * they have no time per gas and are left out of the medians.
+ * <p>
+ * Benchmarks run on the calling thread, so that timings are not disturbed by other workers.
+ */
+public class OpcodeBenchmark {
+
+  private static final Logger logger = LoggerFactory.getLogger(OpcodeBenchmark.class);
+
+  /**
+   * A histogram of non-negative values in log-linear buckets: each power of two is split into 32 buckets, so recorded
+   * values are kept within about 3% of their value. Not thread-safe.
+   */
+  static final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[64 << SUB_BUCKET_BITS];
+    private long count;
+    private long max;
+
+    void record(long value) {
+      long positive = Math.max(value, 0);
+      counts[index(positive)]++;
+      count++;
+      max = Math.max(max, positive);
+    }
+
+    static int index(long value) {
+      if (value < SUB_BUCKETS) {
+        return (int) value;
+      }
+      int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+      return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * @return the value in the middle of a bucket
+     */
+    static long valueOf(int index) {
+      if (index < SUB_BUCKETS) {
+        return index;
+      }
+      int shift = (index >>> SUB_BUCKET_BITS) - 1;
+      long lowest = (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+      return lowest + ((1L << shift) >>> 1);
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    long getMax() {
+      return max;
+    }
+
+    /**
+     * @param percentile the percentile, from 0 to 100
+     * @return the value below which the percentile of the values fall, 0 if the histogram is empty
+     */
+    long percentile(double percentile) {
+      if (count == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+      long cumulative = 0;
+      for (int i = 0; i < counts.length; i++) {
+        cumulative += counts[i];
+        if (cumulative >= rank) {
+          return Math.min(valueOf(i), max);
+        }
+      }
+      return max;
+    }
+  }
+
+  /**
+   * The timings of one test.
+   */
+  public static final class TestResult {
+
+    private final String hardFork;
+    private final String name;
+    private final int index;
+    private final long gasUsed;
+    private final long nanosPerRun;
+    private final boolean halted;
+    private final double nanosPerGas;
+    private boolean mispriced;
+
+    TestResult(String hardFork, String name, int index, long gasUsed, long nanosPerRun, boolean halted) {
+      this.hardFork = hardFork;
+      this.name = name;
+      this.index = index;
+      this.gasUsed = gasUsed;
+      this.nanosPerRun = nanosPerRun;
+      this.halted = halted;
+      this.nanosPerGas = gasUsed == 0 || halted ? Double.NaN : (double) nanosPerRun / gasUsed;
+    }
+
+    public String getHardFork() {
+      return hardFork;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    public long getGasUsed() {
+      return gasUsed;
+    }
+
+    /**
+     * @return the median time of a run, in nanoseconds
+     */
+    public long getNanosPerRun() {
+      return nanosPerRun;
+    }
+
+    /**
+     * @return true if the test halted exceptionally, or could not be run
+     */
+    public boolean isHalted() {
+      return halted;
+    }
+
+    /**
+     * @return the median time of a run divided by the gas it used, NaN if it used no gas or halted
+     */
+    public double getNanosPerGas() {
+      return nanosPerGas;
+    }
+
+    /**
+     * @return true if the time per gas of the test is far from the median of its hard fork
+     */
+    public boolean isMispriced() {
+      return mispriced;
+    }
+  }
+
+  /**
+   * The timings of the tests of one opcode on one hard fork.
+   */
+  public static final class OpcodeResult {
+
+    private final String hardFork;
+    private final String name;
+    private final long runs;
+    private final long nanosPerRunP50;
+    private final long nanosPerRunP99;
+    private final long nanosPerRunMax;
+    private final double nanosPerGasP50;
+
+    OpcodeResult(String hardFork, String name, LatencyHistogram perRun, LatencyHistogram picosPerGas) {
+      this.hardFork = hardFork;
+      this.name = name;
+      this.runs = perRun.getCount();
+      this.nanosPerRunP50 = perRun.percentile(50);
+      this.nanosPerRunP99 = perRun.percentile(99);
+      this.nanosPerRunMax = perRun.getMax();
+      this.nanosPerGasP50 = picosPerGas.getCount() == 0 ? Double.NaN : picosPerGas.percentile(50) / 1000.0;
+    }
+
+    public String getHardFork() {
+      return hardFork;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getRuns() {
+      return runs;
+    }
+
+    public long getNanosPerRunP50() {
+      return nanosPerRunP50;
+    }
+
+    public long getNanosPerRunP99() {
+      return nanosPerRunP99;
+    }
+
+    public long getNanosPerRunMax() {
+      return nanosPerRunMax;
+    }
+
+    public double getNanosPerGasP50() {
+      return nanosPerGasP50;
+    }
+  }
+
+  private final int warmupRounds;
+  private final int iterations;
+  private final double outlierFactor;
+
+  private final List<TestResult> tests = new ArrayList<>();
+  private final List<OpcodeResult> opcodes = new ArrayList<>();
+
+  /**
+   * Keeps the results of the runs alive, so the runs cannot be optimized away.
+   */
+  private long sink;
+
+  /**
+   * @param warmupRounds the number of untimed runs of each test before any timing
+   * @param iterations the number of timed runs of each test
+   * @param outlierFactor the ratio to the median time per gas of a hard fork beyond which a test is flagged
+   */
+  public OpcodeBenchmark(int warmupRounds, int iterations, double outlierFactor) {
+    if (iterations < 1 || outlierFactor <= 1) {
+      throw new IllegalArgumentException("Benchmarks need at least one iteration and an outlier factor above 1");
+    }
+    this.warmupRounds = warmupRounds;
+    this.iterations = iterations;
+    this.outlierFactor = outlierFactor;
+  }
+
+  /**
+   * Benchmarks tests against their own hard fork.
+   *
+   * @param models the tests
+   */
+  public void run(List<OpcodeTestModel> models) {
+    logger.info("Warming up with {} rounds of {} tests", warmupRounds, models.size());
+    for (int round = 0; round < warmupRounds; round++) {
+      for (OpcodeTestModel model : models) {
+        runOnce(model);
+      }
+    }
+    Map<String, LatencyHistogram[]> byOpcode = new TreeMap<>();
+    long[] times = new long[iterations];
+    for (OpcodeTestModel model : models) {
+      LatencyHistogram perRun = new LatencyHistogram();
+      OpcodeTestModel result = null;
+      for (int i = 0; i < iterations; i++) {
+        long start = System.nanoTime();
+        result = runOnce(model);
+        times[i] = System.nanoTime() - start;
+        perRun.record(times[i]);
+      }
+      long gasUsed = result == null ? 0 : result.getAllGasUsed();
+      boolean halted = result == null || halted(result);
+      LatencyHistogram[] histograms = byOpcode
+          .computeIfAbsent(
+              model.getHardFork() + "\t" + model.getName(),
+              key -> new LatencyHistogram[] {new LatencyHistogram(), new LatencyHistogram()});
+      for (long time : times) {
+        histograms[0].record(time);
+        if (gasUsed > 0 && !halted) {
+          histograms[1].record(time * 1000 / gasUsed);
+        }
+      }
+      tests
+          .add(
+              new TestResult(
+                  model.getHardFork(),
+                  model.getName(),
+                  model.getIndex(),
+                  gasUsed,
+                  perRun.percentile(50),
+                  halted));
+    }
+    byOpcode.forEach((key, histograms) -> {
+      String[] parts = key.split("\t", 2);
+      opcodes.add(new OpcodeResult(parts[0], parts[1], histograms[0], histograms[1]));
+    });
+    flagOutliers();
+    logger.info("Benchmarked {} tests, {} flagged as possibly mispriced", tests.size(), getMispriced().size());
+  }
+
+  private OpcodeTestModel runOnce(OpcodeTestModel model) {
+    OpcodeTestModel result = EVMOpcodeTestGenerator.run(model, model.getHardFork());
+    sink += result == null ? 0 : result.getAllGasUsed();
+    return result;
+  }
+
+  private static boolean halted(OpcodeTestModel result) {
+    Object haltReason = result.getHaltReason();
+    return haltReason instanceof ExceptionalHaltReason && haltReason != ExceptionalHaltReason.NONE;
+  }
+
+  private void flagOutliers() {
+    Map<String, List<TestResult>> byHardFork = new LinkedHashMap<>();
+    for (TestResult test : tests) {
+      if (!Double.isNaN(test.nanosPerGas)) {
+        byHardFork.computeIfAbsent(test.hardFork, key -> new ArrayList<>()).add(test);
+      }
+    }
+    for (List<TestResult> forkTests : byHardFork.values()) {
+      double median = median(forkTests.stream().mapToDouble(TestResult::getNanosPerGas).toArray());
+      for (TestResult test : forkTests) {
+        test.mispriced = test.nanosPerGas > median * outlierFactor || test.nanosPerGas < median / outlierFactor;
+      }
+    }
+  }
+
+  static double median(double[] values) {
+    double[] sorted = values.clone();
+    Arrays.sort(sorted);
+    int middle = sorted.length / 2;
+    return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+  }
+
+  /**
+   * @return the timings of each test, in the order they ran
+   */
+  public List<TestResult> getTests() {
+    return tests;
+  }
+
+  /**
+   * @return the timings of each opcode, sorted by hard fork and opcode
+   */
+  public List<OpcodeResult> getOpcodes() {
+    return opcodes;
+  }
+
+  /**
+   * @return the tests flagged as possibly mispriced, from the slowest per gas
+   */
+  public List<TestResult> getMispriced() {
+    List<TestResult> mispriced = new ArrayList<>();
+    for (TestResult test : tests) {
+      if (test.mispriced) {
+        mispriced.add(test);
+      }
+    }
+    mispriced.sort(Comparator.comparingDouble(TestResult::getNanosPerGas).reversed());
+    return mispriced;
+  }
+
+  long getSink() {
+    return sink;
+  }
+}
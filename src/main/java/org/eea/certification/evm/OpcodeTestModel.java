@@ -16,6 +16,8 @@ import java.util.OptionalLong;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import org.hyperledger.besu.datatypes.Address;
 import org.hyperledger.besu.datatypes.Wei;
 import org.hyperledger.besu.evm.MainnetEVMs;
@@ -162,10 +164,10 @@ public class OpcodeTestModel {
     @JsonCreator
     public Before(
         @JsonProperty("stack") List<Bytes> stackBefore,
-        @JsonProperty("memory") List<Bytes32> memoryBefore,
+        @JsonProperty("memory") @JsonDeserialize(using = SparseMemory.Deserializer.class) List<Bytes32> memoryBefore,
         @JsonProperty("accounts") List<Account> accounts) {
       this.stackBefore = stackBefore;
-      this.memoryBefore = memoryBefore;
+      this.memoryBefore = SparseMemory.of(memoryBefore);
       this.accounts = accounts;
     }
 
@@ -189,17 +191,35 @@ public class OpcodeTestModel {
     private final List<Bytes32> memoryAfter;
     private final List<Account> accounts;
     private final List<Log> logs;
+    private final AccountChanges changes;
 
+    public After(List<Bytes> stackAfter, List<Bytes32> memoryAfter, List<Account> accounts, List<Log> logs) {
+      this(stackAfter, memoryAfter, accounts, logs, null);
+    }
+
+    /**
+     * @param accountChanges the accounts as changes to the accounts before, used when no accounts are given
+     */
     @JsonCreator
     public After(
         @JsonProperty("stack") List<Bytes> stackAfter,
-        @JsonProperty("memory") List<Bytes32> memoryAfter,
+        @JsonProperty("memory") @JsonDeserialize(using = SparseMemory.Deserializer.class) List<Bytes32> memoryAfter,
         @JsonProperty("accounts") List<Account> accounts,
-        @JsonProperty("logs") List<Log> logs) {
+        @JsonProperty("logs") List<Log> logs,
+        @JsonProperty("accountChanges") AccountChanges accountChanges) {
       this.stackAfter = stackAfter;
-      this.memoryAfter = memoryAfter;
+      this.memoryAfter = SparseMemory.of(memoryAfter);
       this.accounts = accounts;
       this.logs = logs;
+      this.changes = accounts == null ? accountChanges : null;
+    }
+
+    /**
+     * @param before the accounts of the before state
+     * @return the accounts, rebuilt on first access from the accounts before if they were read as changes
+     */
+    List<Account> resolveAccounts(List<Account> before) {
+      return changes == null ? accounts : changes.applyLazily(before);
     }
 
     public List<Bytes> getStack() {
@@ -210,6 +230,9 @@ public class OpcodeTestModel {
       return memoryAfter;
     }
 
+    /**
+     * @return the accounts, null if they were read as changes and the after state is not part of a model
+     */
     public List<Account> getAccounts() {
       return accounts;
     }
@@ -266,7 +289,7 @@ public class OpcodeTestModel {
     this.code = code;
     this.coinbase = coinbase;
     this.chainId = chainId;
-    this.post = after.getAccounts();
+    this.post = after.resolveAccounts(before.getAccounts());
     this.logs = after.getLogs();
     this.memoryAfter = after.getMemory();
     this.memoryBefore = before.getMemory();
@@ -311,9 +334,9 @@ public class OpcodeTestModel {
     this.gasPrice = gasPrice;
     this.logs = logs;
     this.stackBefore = stackBefore;
-    this.memoryBefore = memoryBefore;
+    this.memoryBefore = SparseMemory.of(memoryBefore);
     this.stackAfter = stackAfter;
-    this.memoryAfter = memoryAfter;
+    this.memoryAfter = SparseMemory.of(memoryAfter);
     this.hardFork = hardFork;
     this.blockData = blockValues;
     this.sender = sender;
@@ -324,6 +347,55 @@ public class OpcodeTestModel {
     this.chainId = chainId;
   }
 
+  /**
+   * Copies the inputs of this test to run other code. The outcome of the copy is empty until it is run.
+   *
+   * @param name the name of the copy
+   * @param code the code of the copy
+   * @return the copy
+   */
+  public OpcodeTestModel withCode(String name, Bytes code) {
+    return withCode(name, code, gasAvailable);
+  }
+
+  /**
+   * Copies the inputs of this test to run other code with another amount of gas. The outcome of the copy is empty
+   * until it is run.
+   *
+   * @param name the name of the copy
+   * @param code the code of the copy
+   * @param gasAvailable the gas available to the copy
+   * @return the copy
+   */
+  public OpcodeTestModel withCode(String name, Bytes code, long gasAvailable) {
+    OpcodeTestModel copy = new OpcodeTestModel(
+        hardFork,
+        accounts,
+        name,
+        new ArrayList<>(),
+        new ArrayList<>(),
+        new ArrayList<>(),
+        new ArrayList<>(),
+        inputData,
+        gasPrice,
+        new ArrayList<>(),
+        gasAvailable,
+        OptionalLong.empty(),
+        0,
+        new HashMap<>(),
+        ExceptionalHaltReason.NONE,
+        new ArrayList<>(),
+        blockData,
+        sender,
+        receiver,
+        value,
+        code,
+        coinbase,
+        chainId);
+    copy.setIndex(index);
+    return copy;
+  }
+
   public Address getReceiver() {
     return receiver;
   }
@@ -332,6 +404,7 @@ public class OpcodeTestModel {
     return name;
   }
 
+  @JsonSerialize(using = JsonModule.LongHexSerializer.class)
   public long getGasUsed() {
     return gasUsed;
   }
@@ -372,6 +445,7 @@ public class OpcodeTestModel {
     return coinbase;
   }
 
+  @JsonSerialize(using = JsonModule.LongHexSerializer.class)
   public long getGasAvailable() {
     return gasAvailable;
   }
@@ -380,6 +454,7 @@ public class OpcodeTestModel {
     return refunds;
   }
 
+  @JsonSerialize(using = JsonModule.LongHexSerializer.class)
   public long getAllGasUsed() {
     return allGasUsed;
   }
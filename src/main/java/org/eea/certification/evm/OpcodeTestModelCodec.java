@@ -0,0 +1,377 @@
+package org.eea.certification.evm;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.apache.tuweni.units.bigints.UInt256;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.exc.MismatchedInputException;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import org.hyperledger.besu.datatypes.Address;
+import org.hyperledger.besu.datatypes.Wei;
+import org.hyperledger.besu.evm.account.Account;
+import org.hyperledger.besu.evm.frame.ExceptionalHaltReason;
+import org.hyperledger.besu.evm.log.Log;
+
+/**
+ * Streaming serializers and deserializers of {@link OpcodeTestModel} and its before and after states.
+ * <p>
+ * The documents are written field by field in the layout of the {@link OpcodeTestModel} annotations, and read into
+ * local variables passed to the constructor directly, instead of going through bean introspection and the buffering of
+ * creator properties. Fields of other types are handed to the serializers and deserializers registered for them, so the
+ * output is byte for byte the output of the annotated model.
+ */
+final class OpcodeTestModelCodec {
+
+  private static final TypeFactory types = TypeFactory.defaultInstance();
+  private static final JavaType STACK = types.constructCollectionType(List.class, Bytes.class);
+  private static final JavaType ACCOUNTS = types.constructCollectionType(List.class, Account.class);
+  private static final JavaType LOGS = types.constructCollectionType(List.class, Log.class);
+  private static final JavaType REFUNDS = types.constructMapType(Map.class, Address.class, Wei.class);
+
+  private OpcodeTestModelCodec() {}
+
+  static class ModelSerializer extends StdSerializer<OpcodeTestModel> {
+
+    private final boolean deltaAfterState;
+
+    ModelSerializer() {
+      this(false);
+    }
+
+    /**
+     * @param deltaAfterState whether to write the accounts of the after state as {@link AccountChanges} against the
+     *        accounts of the before state
+     */
+    ModelSerializer(boolean deltaAfterState) {
+      super(OpcodeTestModel.class);
+      this.deltaAfterState = deltaAfterState;
+    }
+
+    @Override
+    public void serialize(OpcodeTestModel value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+      gen.writeStartObject(value);
+      gen.writeStringField("name", value.getName());
+      gen.writeStringField("hardFork", value.getHardFork());
+      gen.writeNumberField("index", value.getIndex());
+      provider.defaultSerializeField("before", value.getBefore(), gen);
+      if (deltaAfterState && value.getAfter().getAccounts() != null) {
+        gen.writeFieldName("after");
+        writeDeltaAfter(value, gen, provider);
+      } else {
+        provider.defaultSerializeField("after", value.getAfter(), gen);
+      }
+      provider.defaultSerializeField("sender", value.getSender(), gen);
+      provider.defaultSerializeField("receiver", value.getReceiver(), gen);
+      provider.defaultSerializeField("inputData", value.getInputData(), gen);
+      provider.defaultSerializeField("value", value.getValue(), gen);
+      provider.defaultSerializeField("code", value.getCode(), gen);
+      provider.defaultSerializeField("gasPrice", value.getGasPrice(), gen);
+      gen.writeStringField("gasUsed", hex(value.getGasUsed()));
+      gen.writeStringField("allGasUsed", hex(value.getAllGasUsed()));
+      gen.writeStringField("gasAvailable", hex(value.getGasAvailable()));
+      gen.writeNumberField("gasLimit", value.getGasLimit());
+      provider.defaultSerializeField("haltReason", value.getHaltReason(), gen);
+      provider.defaultSerializeField("coinbase", value.getCoinbase(), gen);
+      provider.defaultSerializeField("refunds", value.getRefunds(), gen);
+      gen.writeNumberField("number", value.getNumber());
+      gen.writeNumberField("timestamp", value.getTimestamp());
+      provider.defaultSerializeField("mixHashOrPrevRandao", value.getMixHashOrPrevRandao(), gen);
+      provider.defaultSerializeField("baseFee", value.getBaseFee(), gen);
+      provider.defaultSerializeField("chainId", value.getChainId(), gen);
+      provider.defaultSerializeField("difficultyBytes", value.getDifficultyBytes(), gen);
+      gen.writeEndObject();
+    }
+
+    private static void writeDeltaAfter(OpcodeTestModel value, JsonGenerator gen, SerializerProvider provider)
+        throws IOException {
+      OpcodeTestModel.After after = value.getAfter();
+      gen.writeStartObject(after);
+      provider.defaultSerializeField(
+          "accountChanges",
+          AccountChanges.diff(value.getBefore().getAccounts(), after.getAccounts()),
+          gen);
+      provider.defaultSerializeField("logs", after.getLogs(), gen);
+      provider.defaultSerializeField("memory", after.getMemory(), gen);
+      provider.defaultSerializeField("stack", after.getStack(), gen);
+      gen.writeEndObject();
+    }
+
+    private static String hex(long value) {
+      // the form of JsonModule.LongHexSerializer
+      return "0x" + Long.toHexString(value);
+    }
+  }
+
+  static class BeforeSerializer extends StdSerializer<OpcodeTestModel.Before> {
+
+    BeforeSerializer() {
+      super(OpcodeTestModel.Before.class);
+    }
+
+    @Override
+    public void serialize(OpcodeTestModel.Before value, JsonGenerator gen, SerializerProvider provider)
+        throws IOException {
+      gen.writeStartObject(value);
+      provider.defaultSerializeField("accounts", value.getAccounts(), gen);
+      provider.defaultSerializeField("memory", value.getMemory(), gen);
+      provider.defaultSerializeField("stack", value.getStack(), gen);
+      gen.writeEndObject();
+    }
+  }
+
+  static class AfterSerializer extends StdSerializer<OpcodeTestModel.After> {
+
+    AfterSerializer() {
+      super(OpcodeTestModel.After.class);
+    }
+
+    @Override
+    public void serialize(OpcodeTestModel.After value, JsonGenerator gen, SerializerProvider provider)
+        throws IOException {
+      gen.writeStartObject(value);
+      provider.defaultSerializeField("accounts", value.getAccounts(), gen);
+      provider.defaultSerializeField("logs", value.getLogs(), gen);
+      provider.defaultSerializeField("memory", value.getMemory(), gen);
+      provider.defaultSerializeField("stack", value.getStack(), gen);
+      gen.writeEndObject();
+    }
+  }
+
+  static class ModelDeserializer extends StdDeserializer<OpcodeTestModel> {
+
+    ModelDeserializer() {
+      super(OpcodeTestModel.class);
+    }
+
+    @Override
+    public OpcodeTestModel deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+      String hardFork = null;
+      String name = null;
+      int index = 0;
+      OpcodeTestModel.After after = null;
+      OpcodeTestModel.Before before = null;
+      Bytes inputData = null;
+      Wei gasPrice = null;
+      String gasAvailable = null;
+      String gasUsed = null;
+      String allGasUsed = null;
+      Map<Address, Wei> refunds = null;
+      ExceptionalHaltReason haltReason = null;
+      Bytes difficultyBytes = null;
+      Bytes32 mixHashOrPrevRandao = null;
+      long gasLimit = 0;
+      long timestamp = 0;
+      Wei baseFee = null;
+      long number = 0;
+      Address sender = null;
+      Address receiver = null;
+      Wei value = null;
+      Bytes code = null;
+      Address coinbase = null;
+      UInt256 chainId = null;
+      for (JsonToken token = firstField(p); token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+        String field = p.getCurrentName();
+        p.nextToken();
+        switch (field) {
+          case "name":
+            name = p.getValueAsString();
+            break;
+          case "hardFork":
+            hardFork = p.getValueAsString();
+            break;
+          case "index":
+            index = p.getValueAsInt();
+            break;
+          case "before":
+            before = read(p, ctxt, OpcodeTestModel.Before.class);
+            break;
+          case "after":
+            after = read(p, ctxt, OpcodeTestModel.After.class);
+            break;
+          case "sender":
+            sender = read(p, ctxt, Address.class);
+            break;
+          case "receiver":
+            receiver = read(p, ctxt, Address.class);
+            break;
+          case "inputData":
+            inputData = read(p, ctxt, Bytes.class);
+            break;
+          case "value":
+            value = read(p, ctxt, Wei.class);
+            break;
+          case "code":
+            code = read(p, ctxt, Bytes.class);
+            break;
+          case "gasPrice":
+            gasPrice = read(p, ctxt, Wei.class);
+            break;
+          case "gasUsed":
+            // numbers are taken as their text, as when the constructor was called by Jackson
+            gasUsed = p.getValueAsString();
+            break;
+          case "allGasUsed":
+            allGasUsed = p.getValueAsString();
+            break;
+          case "gasAvailable":
+            gasAvailable = p.getValueAsString();
+            break;
+          case "gasLimit":
+            gasLimit = p.getValueAsLong();
+            break;
+          case "haltReason":
+            haltReason = read(p, ctxt, ExceptionalHaltReason.class);
+            break;
+          case "coinbase":
+            coinbase = read(p, ctxt, Address.class);
+            break;
+          case "refunds":
+            refunds = read(p, ctxt, REFUNDS);
+            break;
+          case "number":
+            number = p.getValueAsLong();
+            break;
+          case "timestamp":
+            timestamp = p.getValueAsLong();
+            break;
+          case "mixHashOrPrevRandao":
+            mixHashOrPrevRandao = read(p, ctxt, Bytes32.class);
+            break;
+          case "baseFee":
+            baseFee = read(p, ctxt, Wei.class);
+            break;
+          case "chainId":
+            chainId = read(p, ctxt, UInt256.class);
+            break;
+          case "difficultyBytes":
+            difficultyBytes = read(p, ctxt, Bytes.class);
+            break;
+          default:
+            ctxt.handleUnknownProperty(p, this, OpcodeTestModel.class, field);
+        }
+      }
+      OpcodeTestModel model = new OpcodeTestModel(
+          hardFork,
+          name,
+          after,
+          before,
+          inputData,
+          gasPrice,
+          gasAvailable,
+          gasUsed,
+          allGasUsed,
+          refunds,
+          haltReason,
+          difficultyBytes,
+          mixHashOrPrevRandao,
+          gasLimit,
+          timestamp,
+          baseFee,
+          number,
+          sender,
+          receiver,
+          value,
+          code,
+          coinbase,
+          chainId);
+      model.setIndex(index);
+      return model;
+    }
+  }
+
+  static class BeforeDeserializer extends StdDeserializer<OpcodeTestModel.Before> {
+
+    BeforeDeserializer() {
+      super(OpcodeTestModel.Before.class);
+    }
+
+    @Override
+    public OpcodeTestModel.Before deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+      List<Bytes> stack = null;
+      List<Bytes32> memory = null;
+      List<Account> accounts = null;
+      for (JsonToken token = firstField(p); token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+        String field = p.getCurrentName();
+        p.nextToken();
+        if ("stack".equals(field)) {
+          stack = read(p, ctxt, STACK);
+        } else if ("memory".equals(field)) {
+          memory = read(p, ctxt, SparseMemory.class);
+        } else if ("accounts".equals(field)) {
+          accounts = read(p, ctxt, ACCOUNTS);
+        } else {
+          ctxt.handleUnknownProperty(p, this, OpcodeTestModel.Before.class, field);
+        }
+      }
+      return new OpcodeTestModel.Before(stack, memory, accounts);
+    }
+  }
+
+  static class AfterDeserializer extends StdDeserializer<OpcodeTestModel.After> {
+
+    AfterDeserializer() {
+      super(OpcodeTestModel.After.class);
+    }
+
+    @Override
+    public OpcodeTestModel.After deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+      List<Bytes> stack = null;
+      List<Bytes32> memory = null;
+      List<Account> accounts = null;
+      List<Log> logs = null;
+      AccountChanges accountChanges = null;
+      for (JsonToken token = firstField(p); token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+        String field = p.getCurrentName();
+        p.nextToken();
+        if ("stack".equals(field)) {
+          stack = read(p, ctxt, STACK);
+        } else if ("memory".equals(field)) {
+          memory = read(p, ctxt, SparseMemory.class);
+        } else if ("accounts".equals(field)) {
+          accounts = read(p, ctxt, ACCOUNTS);
+        } else if ("logs".equals(field)) {
+          logs = read(p, ctxt, LOGS);
+        } else if ("accountChanges".equals(field)) {
+          accountChanges = read(p, ctxt, AccountChanges.class);
+        } else {
+          ctxt.handleUnknownProperty(p, this, OpcodeTestModel.After.class, field);
+        }
+      }
+      return new OpcodeTestModel.After(stack, memory, accounts, logs, accountChanges);
+    }
+  }
+
+  /**
+   * Moves the parser to the first field of the object it is at.
+   */
+  private static JsonToken firstField(JsonParser p) throws IOException {
+    JsonToken token = p.currentToken();
+    if (token == JsonToken.START_OBJECT) {
+      return p.nextToken();
+    }
+    if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+      throw MismatchedInputException.from(p, (Class<?>) null, "Expected an object, got " + token);
+    }
+    return token;
+  }
+
+  private static <T> T read(JsonParser p, DeserializationContext ctxt, Class<T> type) throws IOException {
+    return p.currentToken() == JsonToken.VALUE_NULL ? null : ctxt.readValue(p, type);
+  }
+
+  private static <T> T read(JsonParser p, DeserializationContext ctxt, JavaType type) throws IOException {
+    return p.currentToken() == JsonToken.VALUE_NULL ? null : ctxt.readValue(p, type);
+  }
+}
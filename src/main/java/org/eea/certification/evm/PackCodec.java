@@ -0,0 +1,277 @@
+package org.eea.certification.evm;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.apache.tuweni.units.bigints.UInt256;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.hyperledger.besu.datatypes.Address;
+import org.hyperledger.besu.datatypes.Wei;
+import org.hyperledger.besu.evm.account.Account;
+import org.hyperledger.besu.evm.fluent.SimpleAccount;
+import org.hyperledger.besu.evm.frame.ExceptionalHaltReason;
+import org.hyperledger.besu.evm.log.Log;
+import org.hyperledger.besu.evm.log.LogTopic;
+
+/**
+ * Binary encoding of test models, as stored in corpus pack files.
+ * <p>
+ * Values are written in the order of the YAML layout, as length-prefixed byte strings where they are variable sized.
+ */
+final class PackCodec {
+
+  private PackCodec() {}
+
+  static void write(OpcodeTestModel model, DataOutput out) throws IOException {
+    out.writeUTF(model.getName());
+    out.writeUTF(model.getHardFork());
+    out.writeInt(model.getIndex());
+    OpcodeTestModel.Before before = model.getBefore();
+    writeAccounts(before.getAccounts(), out);
+    writeMemory(before.getMemory(), out);
+    writeStack(before.getStack(), out);
+    OpcodeTestModel.After after = model.getAfter();
+    writeAccounts(after.getAccounts(), out);
+    out.writeInt(after.getLogs().size());
+    for (Log log : after.getLogs()) {
+      writeBytes(log.getLogger(), out);
+      writeBytes(log.getData(), out);
+      out.writeInt(log.getTopics().size());
+      for (LogTopic topic : log.getTopics()) {
+        writeBytes(topic, out);
+      }
+    }
+    writeMemory(after.getMemory(), out);
+    writeStack(after.getStack(), out);
+    writeBytes(model.getSender(), out);
+    writeBytes(model.getReceiver(), out);
+    writeBytes(model.getInputData(), out);
+    writeBytes(model.getValue(), out);
+    writeBytes(model.getCode(), out);
+    writeBytes(model.getGasPrice(), out);
+    out.writeLong(model.getGasUsed());
+    out.writeLong(model.getAllGasUsed());
+    out.writeLong(model.getGasAvailable());
+    out.writeLong(model.getGasLimit());
+    out.writeUTF(haltReasonName(model.getHaltReason()));
+    writeBytes(model.getCoinbase(), out);
+    out.writeInt(model.getRefunds().size());
+    for (Map.Entry<Address, Wei> refund : model.getRefunds().entrySet()) {
+      writeBytes(refund.getKey(), out);
+      writeBytes(refund.getValue(), out);
+    }
+    out.writeLong(model.getNumber());
+    out.writeLong(model.getTimestamp());
+    writeBytes(model.getMixHashOrPrevRandao(), out);
+    Optional<Wei> baseFee = model.getBaseFee();
+    out.writeBoolean(baseFee.isPresent());
+    if (baseFee.isPresent()) {
+      writeBytes(baseFee.get(), out);
+    }
+    writeBytes(model.getChainId(), out);
+    writeBytes(model.getDifficultyBytes(), out);
+  }
+
+  /**
+   * Decodes a record.
+   *
+   * @param in the record
+   * @param version the version of the pack holding the record, which decides how memory is encoded
+   * @return the test model
+   * @throws IOException if the record cannot be decoded
+   */
+  static OpcodeTestModel read(DataInput in, int version) throws IOException {
+    String name = in.readUTF();
+    String hardFork = in.readUTF();
+    int index = in.readInt();
+    List<Account> beforeAccounts = readAccounts(in);
+    List<Bytes32> beforeMemory = readMemory(in, version);
+    List<Bytes> beforeStack = readStack(in);
+    OpcodeTestModel.Before before = new OpcodeTestModel.Before(beforeStack, beforeMemory, beforeAccounts);
+    List<Account> afterAccounts = readAccounts(in);
+    int logCount = in.readInt();
+    List<Log> logs = new ArrayList<>(logCount);
+    for (int i = 0; i < logCount; i++) {
+      Address logger = Address.wrap(readBytes(in));
+      Bytes data = readBytes(in);
+      int topicCount = in.readInt();
+      List<LogTopic> topics = new ArrayList<>(topicCount);
+      for (int j = 0; j < topicCount; j++) {
+        topics.add(LogTopic.fromHexString(readBytes(in).toHexString()));
+      }
+      logs.add(new Log(logger, data, topics));
+    }
+    List<Bytes32> afterMemory = readMemory(in, version);
+    List<Bytes> afterStack = readStack(in);
+    OpcodeTestModel.After after = new OpcodeTestModel.After(afterStack, afterMemory, afterAccounts, logs);
+    Address sender = Address.wrap(readBytes(in));
+    Address receiver = Address.wrap(readBytes(in));
+    Bytes inputData = readBytes(in);
+    Wei value = Wei.wrap(readBytes(in));
+    Bytes code = readBytes(in);
+    Wei gasPrice = Wei.wrap(readBytes(in));
+    long gasUsed = in.readLong();
+    long allGasUsed = in.readLong();
+    long gasAvailable = in.readLong();
+    long gasLimit = in.readLong();
+    ExceptionalHaltReason haltReason = ExceptionalHaltReason.DefaultExceptionalHaltReason.valueOf(in.readUTF());
+    Address coinbase = Address.wrap(readBytes(in));
+    int refundCount = in.readInt();
+    Map<Address, Wei> refunds = new LinkedHashMap<>();
+    for (int i = 0; i < refundCount; i++) {
+      refunds.put(Address.wrap(readBytes(in)), Wei.wrap(readBytes(in)));
+    }
+    long number = in.readLong();
+    long timestamp = in.readLong();
+    Bytes32 mixHashOrPrevRandao = Bytes32.wrap(readBytes(in));
+    Wei baseFee = in.readBoolean() ? Wei.wrap(readBytes(in)) : null;
+    UInt256 chainId = UInt256.fromBytes(readBytes(in));
+    Bytes difficultyBytes = readBytes(in);
+    OpcodeTestModel model = new OpcodeTestModel(
+        hardFork,
+        name,
+        after,
+        before,
+        inputData,
+        gasPrice,
+        hex(gasAvailable),
+        hex(gasUsed),
+        hex(allGasUsed),
+        refunds,
+        haltReason,
+        difficultyBytes,
+        mixHashOrPrevRandao,
+        gasLimit,
+        timestamp,
+        baseFee,
+        number,
+        sender,
+        receiver,
+        value,
+        code,
+        coinbase,
+        chainId);
+    model.setIndex(index);
+    return model;
+  }
+
+  private static String hex(long value) {
+    return "0x" + Long.toHexString(value);
+  }
+
+  static String haltReasonName(Object haltReason) {
+    if (haltReason instanceof Enum) {
+      return ((Enum<?>) haltReason).name();
+    }
+    return String.valueOf(haltReason);
+  }
+
+  private static void writeAccounts(List<Account> accounts, DataOutput out) throws IOException {
+    // deleted accounts are reported as null entries, which carry no state
+    List<Account> present = new ArrayList<>(accounts.size());
+    for (Account account : accounts) {
+      if (account != null) {
+        present.add(account);
+      }
+    }
+    out.writeInt(present.size());
+    for (Account account : present) {
+      writeBytes(account.getAddress(), out);
+      out.writeLong(account.getNonce());
+      writeBytes(account.getBalance(), out);
+      writeBytes(account.getCode() == null ? Bytes.EMPTY : account.getCode(), out);
+      Map<UInt256, UInt256> storage =
+          account instanceof SimpleAccount ? ((SimpleAccount) account).getUpdatedStorage() : Map.of();
+      out.writeInt(storage.size());
+      for (Map.Entry<UInt256, UInt256> entry : storage.entrySet()) {
+        writeBytes(entry.getKey(), out);
+        writeBytes(entry.getValue(), out);
+      }
+    }
+  }
+
+  private static List<Account> readAccounts(DataInput in) throws IOException {
+    int count = in.readInt();
+    List<Account> accounts = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Address address = Address.wrap(readBytes(in));
+      long nonce = in.readLong();
+      Wei balance = Wei.wrap(readBytes(in));
+      SimpleAccount account = new SimpleAccount(address, nonce, balance);
+      account.setCode(readBytes(in));
+      int storageCount = in.readInt();
+      for (int j = 0; j < storageCount; j++) {
+        account.setStorageValue(UInt256.fromBytes(readBytes(in)), UInt256.fromBytes(readBytes(in)));
+      }
+      accounts.add(account);
+    }
+    return accounts;
+  }
+
+  private static void writeStack(List<Bytes> stack, DataOutput out) throws IOException {
+    out.writeInt(stack.size());
+    for (Bytes item : stack) {
+      writeBytes(item, out);
+    }
+  }
+
+  private static List<Bytes> readStack(DataInput in) throws IOException {
+    int count = in.readInt();
+    List<Bytes> stack = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      stack.add(readBytes(in));
+    }
+    return stack;
+  }
+
+  private static void writeMemory(List<Bytes32> words, DataOutput out) throws IOException {
+    SparseMemory memory = SparseMemory.of(words);
+    out.writeInt(memory.size());
+    out.writeInt(memory.getRunCount());
+    for (int i = 0; i < memory.getRunCount(); i++) {
+      out.writeInt(memory.getRunOffset(i));
+      writeBytes(memory.getRun(i), out);
+    }
+  }
+
+  private static List<Bytes32> readMemory(DataInput in, int version) throws IOException {
+    int size = in.readInt();
+    if (version == 1) {
+      // version 1 packs hold every word
+      byte[] contents = new byte[size * 32];
+      in.readFully(contents);
+      return SparseMemory.wrap(Bytes.wrap(contents));
+    }
+    int count = in.readInt();
+    int[] offsets = new int[count];
+    Bytes[] runs = new Bytes[count];
+    for (int i = 0; i < count; i++) {
+      offsets[i] = in.readInt();
+      runs[i] = readBytes(in);
+    }
+    try {
+      return SparseMemory.of(size, offsets, runs);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Invalid memory in pack record", e);
+    }
+  }
+
+  private static void writeBytes(Bytes bytes, DataOutput out) throws IOException {
+    out.writeInt(bytes.size());
+    out.write(bytes.toArrayUnsafe());
+  }
+
+  private static Bytes readBytes(DataInput in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return Bytes.wrap(bytes);
+  }
+}
@@ -0,0 +1,434 @@
+package org.eea.certification.evm;
+
+import org.apache.tuweni.bytes.Bytes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.hyperledger.besu.evm.frame.ExceptionalHaltReason;
+import org.hyperledger.besu.evm.frame.MessageFrame;
+import org.hyperledger.besu.evm.operation.Operation;
+import org.hyperledger.besu.evm.operation.OperationRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coverage-guided fuzzer of multi-opcode programs.
+ * <p>
+ * Programs start from generated single-opcode tests and are mutated and spliced, including with the CALL family of
+ * opcodes. Each run is reduced to coverage features: the (hard fork, opcode, halt reason, gas bucket, memory expansion
+ * bucket) of every operation executed, and the (hard fork, halt reason, gas bucket) of the whole run. Programs reaching
+ * a feature no other program reached are kept, both as tests and as parents of further mutations.
+ * <p>
+ * Workers share a single coverage map, a bitmap updated with compare-and-set, and a bounded pool of kept programs.
+ */
+public class ProgramFuzzer {
+
+  private static final Logger logger = LoggerFactory.getLogger(ProgramFuzzer.class);
+
+  /**
+   * The name of the tests kept by the fuzzer.
+   */
+  public static final String NAME = "FUZZ";
+
+  /**
+   * The largest program built by mutations.
+   */
+  static final int MAX_CODE_SIZE = 1024;
+
+  /**
+   * The maximum number of operations of a run, far below the limit of a test, as loops are common among mutants.
+   */
+  static final long MAX_STEPS = 10_000;
+
+  private static final int POOL_CAPACITY = 1 << 16;
+
+  private static final int OUTCOME = 0x100;
+
+  private static final Metrics.Counter executionsCounter = Metrics.global.counter("fuzz_executions_total");
+
+  private static final Metrics.Counter keptCounter = Metrics.global.counter("fuzz_tests_kept_total");
+
+  /**
+   * Thrown from the listener of a run to stop it once it has run too many operations.
+   */
+  private static final class TooManySteps extends RuntimeException {
+
+    private TooManySteps() {
+      super("Fuzzed program exceeded " + MAX_STEPS + " steps", null, false, false);
+    }
+  }
+
+  private static final TooManySteps TOO_MANY_STEPS = new TooManySteps();
+
+  /**
+   * A set of features, as a bitmap of hashed features. Features are added without locks and concurrent additions of
+   * the same feature are only reported as new once.
+   */
+  static final class CoverageMap {
+
+    private final AtomicLongArray words;
+    private final int mask;
+    private final LongAdder size = new LongAdder();
+
+    /**
+     * @param bits the base 2 logarithm of the number of bits of the map, from 6 to 30
+     */
+    CoverageMap(int bits) {
+      if (bits < 6 || bits > 30) {
+        throw new IllegalArgumentException("Coverage map bits must be between 6 and 30: " + bits);
+      }
+      this.words = new AtomicLongArray(1 << (bits - 6));
+      this.mask = (1 << bits) - 1;
+    }
+
+    /**
+     * @param feature the hash of a feature
+     * @return true if the feature was not part of the map
+     */
+    boolean add(int feature) {
+      int bit = feature & mask;
+      int word = bit >>> 6;
+      long flag = 1L << bit;
+      long current = words.get(word);
+      while ((current & flag) == 0) {
+        if (words.compareAndSet(word, current, current | flag)) {
+          size.increment();
+          return true;
+        }
+        current = words.get(word);
+      }
+      return false;
+    }
+
+    /**
+     * @return the number of features in the map
+     */
+    long size() {
+      return size.sum();
+    }
+  }
+
+  /**
+   * The features of the run of one worker, reused from one run to the next.
+   */
+  static final class Features implements EVMOpcodeTestGenerator.StepListener {
+
+    private int[] features = new int[256];
+    private int count;
+    private int hardFork;
+    private long steps;
+
+    void reset(int hardFork) {
+      this.hardFork = hardFork;
+      this.count = 0;
+      this.steps = 0;
+    }
+
+    @Override
+    public void executed(
+        MessageFrame frame,
+        Operation operation,
+        Operation.OperationResult result,
+        long memoryWordsBefore) {
+      if (++steps > MAX_STEPS) {
+        throw TOO_MANY_STEPS;
+      }
+      add(
+          feature(
+              hardFork,
+              operation.getOpcode(),
+              result.getHaltReason().orElse(ExceptionalHaltReason.NONE),
+              result.getGasCost().orElse(0),
+              frame.memoryWordSize() - memoryWordsBefore));
+    }
+
+    void add(int feature) {
+      if (count == features.length) {
+        features = Arrays.copyOf(features, count * 2);
+      }
+      features[count++] = feature;
+    }
+
+    /**
+     * @return true if any of the features was new to the map
+     */
+    boolean addTo(CoverageMap coverage) {
+      boolean added = false;
+      for (int i = 0; i < count; i++) {
+        added |= coverage.add(features[i]);
+      }
+      return added;
+    }
+  }
+
+  private final EVMOpcodeTestGenerator generator;
+  private final List<String> hardForks;
+  private final CoverageMap coverage;
+  private final AtomicReferenceArray<OpcodeTestModel> pool = new AtomicReferenceArray<>(POOL_CAPACITY);
+  private final AtomicLong pooled = new AtomicLong();
+  private final LongAdder executions = new LongAdder();
+  private final ConcurrentMap<String, AtomicInteger> indexes = new ConcurrentHashMap<>();
+
+  /**
+   * @param seed the seed of the generator of the initial programs and of the mutations
+   * @param hardForks the names of the hard forks to fuzz, as registered in {@link EVMExecutors#registry}
+   * @param coverageBits the base 2 logarithm of the number of bits of the coverage map
+   */
+  public ProgramFuzzer(long seed, List<String> hardForks, int coverageBits) {
+    // seeds are not corpus tests, they are left out of the metrics of the generator
+    this.generator = new EVMOpcodeTestGenerator(seed, false);
+    this.hardForks = new ArrayList<>(hardForks);
+    this.coverage = new CoverageMap(coverageBits);
+    Metrics.global.gauge("fuzz_coverage_features", coverage::size);
+    Metrics.global.gauge("fuzz_pool_size", () -> Math.min(pooled.get(), POOL_CAPACITY));
+  }
+
+  /**
+   * Numbers the tests kept for a hard fork after an existing test, so tests kept by earlier runs in the same folder are
+   * not overwritten.
+   *
+   * @param hardFork the name of the hard fork, as reported by {@link EVMExecutorConfiguration#getHardFork()}
+   * @param index the index of an existing test of the hard fork
+   */
+  public void continueAfter(String hardFork, int index) {
+    indexes.computeIfAbsent(hardFork, key -> new AtomicInteger()).accumulateAndGet(index + 1, Math::max);
+  }
+
+  /**
+   * Fuzzes until a number of executions or a deadline is reached, handing each kept test to a sink.
+   * <p>
+   * The sink is called concurrently from the worker threads and may block to apply backpressure.
+   *
+   * @param parallelism the number of worker threads
+   * @param maxExecutions the number of executions after which workers stop
+   * @param deadline the {@link System#nanoTime()} after which workers stop
+   * @param seed the seed of the mutations, split between workers
+   * @param sink the consumer of the kept tests
+   */
+  public void run(int parallelism, long maxExecutions, long deadline, long seed, Consumer<OpcodeTestModel> sink) {
+    ExecutorService workers = Executors
+        .newFixedThreadPool(parallelism, new ThreadFactoryBuilder().setNameFormat("fuzz-worker-%d").build());
+    AtomicLong started = new AtomicLong();
+    SplittableRandom root = new SplittableRandom(seed);
+    List<Future<?>> futures = new ArrayList<>();
+    try {
+      for (int i = 0; i < parallelism; i++) {
+        SplittableRandom random = root.split();
+        futures.add(workers.submit(() -> {
+          Features features = new Features();
+          while (started.getAndIncrement() < maxExecutions && System.nanoTime() - deadline < 0) {
+            OpcodeTestModel test = fuzzOnce(random, features);
+            if (test != null) {
+              sink.accept(test);
+            }
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while fuzzing", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Error fuzzing", e.getCause());
+    } finally {
+      workers.shutdownNow();
+    }
+    logger
+        .info(
+            "Fuzzed {} programs, kept {} reaching {} coverage features",
+            executions.sum(),
+            Math.min(pooled.get(), POOL_CAPACITY),
+            coverage.size());
+  }
+
+  /**
+   * Mutates a program and runs it against a hard fork.
+   *
+   * @return the outcome of the run if it reached new features, null otherwise
+   */
+  OpcodeTestModel fuzzOnce(SplittableRandom random, Features features) {
+    int forkIndex = random.nextInt(hardForks.size());
+    String hardFork = hardForks.get(forkIndex);
+    OperationRegistry registry = EVMExecutors.cache.get(hardFork).getOperationsRegistry();
+    OpcodeTestModel parent = pick(random);
+    if (parent == null || random.nextInt(8) == 0) {
+      parent = seedProgram(hardFork, random);
+    }
+    Bytes code = parent.getCode();
+    int mutations = 1 + random.nextInt(4);
+    for (int i = 0; i < mutations; i++) {
+      code = mutate(code, registry, random);
+    }
+    OpcodeTestModel input = parent.withCode(NAME, code);
+    features.reset(forkIndex);
+    executions.increment();
+    executionsCounter.increment();
+    OpcodeTestModel result;
+    try {
+      result = EVMOpcodeTestGenerator.run(input, hardFork, features);
+    } catch (TooManySteps e) {
+      return null;
+    }
+    if (result == null) {
+      return null;
+    }
+    Object haltReason = result.getHaltReason();
+    features
+        .add(
+            feature(
+                forkIndex,
+                OUTCOME,
+                haltReason instanceof ExceptionalHaltReason
+                    ? (ExceptionalHaltReason) haltReason
+                    : ExceptionalHaltReason.NONE,
+                result.getAllGasUsed(),
+                0));
+    if (!features.addTo(coverage)) {
+      return null;
+    }
+    pool.set((int) (pooled.getAndIncrement() % POOL_CAPACITY), input);
+    keptCounter.increment();
+    // numbered by the folder the test is written to, shared by the aliases of a hard fork
+    result.setIndex(indexes.computeIfAbsent(result.getHardFork(), key -> new AtomicInteger()).getAndIncrement());
+    return result;
+  }
+
+  private OpcodeTestModel pick(SplittableRandom random) {
+    long size = Math.min(pooled.get(), POOL_CAPACITY);
+    if (size == 0) {
+      return null;
+    }
+    // a slot may not be set yet if another worker is adding it
+    return pool.get(random.nextInt((int) size));
+  }
+
+  private OpcodeTestModel seedProgram(String hardFork, SplittableRandom random) {
+    List<EVMOpcodeTestGenerator.WorkItem> workItems = generator.workItems(EVMExecutors.cache.supplier(hardFork), 1);
+    EVMOpcodeTestGenerator.WorkItem workItem = workItems.get(random.nextInt(workItems.size()));
+    return generator.generate(hardFork, workItem.operation.getOpcode(), random.nextInt(Integer.MAX_VALUE));
+  }
+
+  /**
+   * Applies a random mutation to a program.
+   *
+   * @param code the program
+   * @param registry the operations of the hard fork
+   * @param random the source of randomness of the mutation
+   * @return the mutated program, of at most {@link #MAX_CODE_SIZE} bytes
+   */
+  Bytes mutate(Bytes code, OperationRegistry registry, SplittableRandom random) {
+    List<Integer> boundaries = instructionBoundaries(code);
+    int at = boundaries.get(random.nextInt(boundaries.size()));
+    Bytes mutated;
+    switch (random.nextInt(5)) {
+      case 0: {
+        // insert an operation along with its arguments, which is how CALL and friends get in programs
+        Operation operation = randomOperation(registry, random);
+        Bytes program = EVMOpcodeTestGenerator.program(ArgumentStrategy.of(operation).arguments(random), operation);
+        mutated = Bytes.wrap(code.slice(0, at), program, code.slice(at));
+        break;
+      }
+      case 1: {
+        // delete a range of instructions
+        int end = boundaries.get(random.nextInt(boundaries.size()));
+        mutated = Bytes.wrap(code.slice(0, Math.min(at, end)), code.slice(Math.max(at, end)));
+        break;
+      }
+      case 2: {
+        // replace a single instruction with another operation
+        if (at == code.size()) {
+          return code;
+        }
+        byte[] bytes = code.toArrayUnsafe().clone();
+        bytes[at] = (byte) randomOperation(registry, random).getOpcode();
+        mutated = Bytes.wrap(bytes);
+        break;
+      }
+      case 3: {
+        // splice the head of the program with the tail of another kept program
+        OpcodeTestModel other = pick(random);
+        if (other == null) {
+          return code;
+        }
+        List<Integer> otherBoundaries = instructionBoundaries(other.getCode());
+        int from = otherBoundaries.get(random.nextInt(otherBoundaries.size()));
+        mutated = Bytes.wrap(code.slice(0, at), other.getCode().slice(from));
+        break;
+      }
+      default: {
+        // duplicate a range of instructions
+        int end = boundaries.get(random.nextInt(boundaries.size()));
+        Bytes range = code.slice(Math.min(at, end), Math.abs(end - at));
+        mutated = Bytes.wrap(code.slice(0, at), range, code.slice(at));
+        break;
+      }
+    }
+    return mutated.size() > MAX_CODE_SIZE ? mutated.slice(0, MAX_CODE_SIZE) : mutated;
+  }
+
+  private static Operation randomOperation(OperationRegistry registry, SplittableRandom random) {
+    while (true) {
+      Operation operation = registry.get(random.nextInt(256));
+      if (operation != null) {
+        return operation;
+      }
+    }
+  }
+
+  /**
+   * @return the offsets of the instructions of a program, skipping push data, and the size of the program
+   */
+  static List<Integer> instructionBoundaries(Bytes code) {
+    List<Integer> boundaries = new ArrayList<>();
+    int i = 0;
+    while (i < code.size()) {
+      boundaries.add(i);
+      int opcode = code.get(i) & 0xff;
+      i += opcode >= 0x60 && opcode <= 0x7f ? opcode - 0x5e : 1;
+    }
+    boundaries.add(code.size());
+    return boundaries;
+  }
+
+  /**
+   * @return the hash of a feature
+   */
+  static int feature(int hardFork, int opcode, ExceptionalHaltReason haltReason, long gas, long memoryExpansion) {
+    int hash = hardFork;
+    hash = hash * 31 + opcode;
+    hash = hash * 31 + haltReason.name().hashCode();
+    hash = hash * 31 + bucket(gas);
+    hash = hash * 31 + bucket(memoryExpansion);
+    // spreads the hash over the low bits used by the map
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * @return the number of significant bits of a non-negative value, a logarithmic bucket
+   */
+  static int bucket(long value) {
+    return 64 - Long.numberOfLeadingZeros(Math.max(0, value));
+  }
+}
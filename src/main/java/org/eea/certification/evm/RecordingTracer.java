@@ -0,0 +1,163 @@
+package org.eea.certification.evm;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hyperledger.besu.evm.frame.MessageFrame;
+
+/**
+ * Records the stack and memory of an execution at the moments a test needs them.
+ * <p>
+ * The stack and memory are only copied when {@link #captureBefore(MessageFrame)} or
+ * {@link #captureAfter(MessageFrame)} is called, the stack into buffers that are reused by the executions of a thread
+ * and the memory as runs of non-zero words. The execution is aborted with {@link Abort} as soon as it runs too many
+ * steps or a recorded frame uses too much memory, instead of being run to completion and rejected afterwards.
+ */
+final class RecordingTracer {
+
+  /**
+   * The maximum number of memory words of a recorded frame, 1 MiB. Memory is recorded as runs of non-zero words, so a
+   * large memory costs little unless it is mostly written.
+   */
+  static final int MAX_MEMORY_WORDS = 32768;
+
+  /**
+   * The maximum number of operations executed, across all frames.
+   */
+  static final long MAX_STEPS = 1_000_000;
+
+  /**
+   * Thrown from the tracer to stop an execution whose outcome would be rejected.
+   */
+  static final class Abort extends RuntimeException {
+
+    private final String reason;
+
+    private Abort(String reason, String message) {
+      super(message, null, false, false);
+      this.reason = reason;
+    }
+
+    /**
+     * @return a short identifier of the reason of the abort, suitable as a metric label
+     */
+    String getReason() {
+      return reason;
+    }
+  }
+
+  private static final Abort TOO_MANY_STEPS =
+      new Abort("too_many_steps", "Execution exceeded " + MAX_STEPS + " steps");
+
+  private static final Abort MEMORY_TOO_LARGE =
+      new Abort("memory_too_large", "Memory exceeded " + MAX_MEMORY_WORDS + " words");
+
+  private static final ThreadLocal<RecordingTracer> tracers = ThreadLocal.withInitial(RecordingTracer::new);
+
+  private final List<Bytes> stackBefore = new ArrayList<>();
+  private SparseMemory memoryBefore = SparseMemory.of(List.of());
+  private final List<Bytes> stackAfter = new ArrayList<>();
+  private SparseMemory memoryAfter = SparseMemory.of(List.of());
+  private MessageFrame initialFrame;
+  private MessageFrame lastFrame;
+  private long steps;
+
+  private RecordingTracer() {}
+
+  /**
+   * @return the tracer of the current thread, cleared of any previous execution
+   */
+  static RecordingTracer get() {
+    RecordingTracer tracer = tracers.get();
+    tracer.reset();
+    return tracer;
+  }
+
+  private void reset() {
+    stackBefore.clear();
+    memoryBefore = SparseMemory.of(List.of());
+    stackAfter.clear();
+    memoryAfter = SparseMemory.of(List.of());
+    initialFrame = null;
+    lastFrame = null;
+    steps = 0;
+  }
+
+  /**
+   * Registers an operation about to be executed.
+   *
+   * @param frame the frame executing the operation
+   * @throws Abort if the execution ran too many steps
+   */
+  void step(MessageFrame frame) {
+    if (initialFrame == null) {
+      initialFrame = frame;
+    }
+    lastFrame = frame;
+    if (++steps > MAX_STEPS) {
+      throw TOO_MANY_STEPS;
+    }
+  }
+
+  /**
+   * Checks the memory used by a frame, which never shrinks during its execution.
+   *
+   * @param frame the frame to check
+   * @throws Abort if the frame uses too much memory
+   */
+  void checkMemory(MessageFrame frame) {
+    if (frame.memoryWordSize() > MAX_MEMORY_WORDS) {
+      throw MEMORY_TOO_LARGE;
+    }
+  }
+
+  void captureBefore(MessageFrame frame) {
+    captureStack(frame, stackBefore);
+    memoryBefore = captureMemory(frame);
+  }
+
+  void captureAfter(MessageFrame frame) {
+    captureStack(frame, stackAfter);
+    memoryAfter = captureMemory(frame);
+  }
+
+  private static void captureStack(MessageFrame frame, List<Bytes> stack) {
+    stack.clear();
+    for (int i = 0; i < frame.stackSize(); i++) {
+      stack.add(frame.getStackItem(i));
+    }
+  }
+
+  private static SparseMemory captureMemory(MessageFrame frame) {
+    int words = frame.memoryWordSize();
+    // a single read of the whole memory, of which only the runs of non-zero words are copied
+    return SparseMemory.wrap(words == 0 ? Bytes.EMPTY : frame.readMemory(0, words * 32L));
+  }
+
+  MessageFrame getInitialFrame() {
+    return initialFrame;
+  }
+
+  MessageFrame getLastFrame() {
+    return lastFrame;
+  }
+
+  List<Bytes> getStackBefore() {
+    return new ArrayList<>(stackBefore);
+  }
+
+  List<Bytes32> getMemoryBefore() {
+    return memoryBefore;
+  }
+
+  List<Bytes> getStackAfter() {
+    return new ArrayList<>(stackAfter);
+  }
+
+  List<Bytes32> getMemoryAfter() {
+    return memoryAfter;
+  }
+}
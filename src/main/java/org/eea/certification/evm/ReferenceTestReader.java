@@ -0,0 +1,198 @@
+package org.eea.certification.evm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+/**
+ * Reads ethereum/tests VMTests JSON files one test at a time.
+ * <p>
+ * Files are memory-mapped and parsed with the Jackson streaming API, so only the test being handled is held in memory,
+ * instead of the map of all the tests of a file.
+ */
+public class ReferenceTestReader {
+
+  /**
+   * Consumer of reference tests told where each test was read from.
+   */
+  public interface SourceConsumer {
+
+    /**
+     * @param file the file the test was read from
+     * @param position the position of the test in the file, from 0
+     * @param name the name of the test
+     * @param test the test
+     */
+    void accept(Path file, int position, String name, JsonReferenceTest test);
+  }
+
+  /**
+   * Consumer of the names of reference tests, told where each test was read from.
+   */
+  public interface NameConsumer {
+
+    /**
+     * @param file the file the test was read from
+     * @param position the position of the test in the file, from 0
+     * @param name the name of the test
+     */
+    void accept(Path file, int position, String name);
+  }
+
+  private interface FileReader {
+
+    void read(Path file) throws IOException;
+  }
+
+  private final ObjectMapper mapper;
+
+  /**
+   * @param mapper a JSON mapper with the {@link JsonModule} and tuweni {@code EthJsonModule} registered
+   */
+  public ReferenceTestReader(ObjectMapper mapper) {
+    this.mapper = mapper;
+  }
+
+  /**
+   * Reads the tests of a file, handing each to a consumer as soon as it is parsed.
+   *
+   * @param file the JSON file, holding an object of tests keyed by name
+   * @param consumer the consumer of the test names and tests
+   * @throws IOException if the file cannot be read or parsed
+   */
+  public void read(Path file, BiConsumer<String, JsonReferenceTest> consumer) throws IOException {
+    read(file, (source, position, name, test) -> consumer.accept(name, test));
+  }
+
+  /**
+   * Reads the tests of a file, handing each to a consumer along with its position as soon as it is parsed.
+   *
+   * @param file the JSON file, holding an object of tests keyed by name
+   * @param consumer the consumer of the tests
+   * @throws IOException if the file cannot be read or parsed
+   */
+  public void read(Path file, SourceConsumer consumer) throws IOException {
+    parse(file, consumer, null);
+  }
+
+  /**
+   * Reads the names of the tests of a file, skipping over the tests themselves.
+   *
+   * @param file the JSON file, holding an object of tests keyed by name
+   * @param consumer the consumer of the test names
+   * @throws IOException if the file cannot be read or parsed
+   */
+  public void readNames(Path file, NameConsumer consumer) throws IOException {
+    parse(file, null, consumer);
+  }
+
+  private void parse(Path file, SourceConsumer tests, NameConsumer names) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      try (JsonParser parser = mapper.getFactory().createParser(new ByteBufferBackedInputStream(buffer))) {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+          throw new IOException("Expected an object of tests in " + file);
+        }
+        for (int position = 0; parser.nextToken() == JsonToken.FIELD_NAME; position++) {
+          String name = parser.getCurrentName();
+          parser.nextToken();
+          if (tests != null) {
+            tests.accept(file, position, name, mapper.readValue(parser, JsonReferenceTest.class));
+          } else {
+            parser.skipChildren();
+            names.accept(file, position, name);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads all the JSON files under a folder in parallel.
+   * <p>
+   * The consumer is called concurrently from the worker threads.
+   *
+   * @param folder the folder to walk
+   * @param parallelism the number of worker threads to use
+   * @param consumer the consumer of the test names and tests
+   * @throws IOException if a file cannot be read or parsed
+   */
+  public void readAll(Path folder, int parallelism, BiConsumer<String, JsonReferenceTest> consumer)
+      throws IOException {
+    readAll(folder, parallelism, (file, position, name, test) -> consumer.accept(name, test));
+  }
+
+  /**
+   * Reads all the JSON files under a folder in parallel, telling the consumer where each test was read from.
+   * <p>
+   * The consumer is called concurrently from the worker threads.
+   *
+   * @param folder the folder to walk
+   * @param parallelism the number of worker threads to use
+   * @param consumer the consumer of the tests
+   * @throws IOException if a file cannot be read or parsed
+   */
+  public void readAll(Path folder, int parallelism, SourceConsumer consumer) throws IOException {
+    forEachFile(folder, parallelism, file -> read(file, consumer));
+  }
+
+  /**
+   * Reads the names of the tests of all the JSON files under a folder in parallel, telling the consumer where each test
+   * was read from.
+   * <p>
+   * The consumer is called concurrently from the worker threads.
+   *
+   * @param folder the folder to walk
+   * @param parallelism the number of worker threads to use
+   * @param consumer the consumer of the test names
+   * @throws IOException if a file cannot be read or parsed
+   */
+  public void readAllNames(Path folder, int parallelism, NameConsumer consumer) throws IOException {
+    forEachFile(folder, parallelism, file -> readNames(file, consumer));
+  }
+
+  private static void forEachFile(Path folder, int parallelism, FileReader reader) throws IOException {
+    List<Path> files;
+    try (Stream<Path> paths = Files.walk(folder)) {
+      files = paths
+          .filter(path -> path.getFileName().toString().endsWith(".json"))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      pool.submit(() -> files.parallelStream().forEach(file -> {
+        try {
+          reader.read(file);
+        } catch (IOException e) {
+          throw new UncheckedIOException("Cannot read reference test file " + file, e);
+        }
+      })).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading reference tests", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) e.getCause()).getCause();
+      }
+      throw new IOException(e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
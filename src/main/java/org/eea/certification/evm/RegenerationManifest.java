@@ -0,0 +1,246 @@
+package org.eea.certification.evm;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.hyperledger.besu.evm.EVM;
+
+/**
+ * Manifest of the tests regenerated under a folder, used to skip the (model, hard fork) pairs that are up to date.
+ * <p>
+ * Each entry maps the hash of an input model, a hard fork, the version of the Besu EVM with a hash of its jar, and the
+ * {@link EVMOpcodeTestGenerator#VERSION version of the generator} to the path, hash, size and modification time of the
+ * file written for them. A pair is up to date when its entry exists and the file still has the recorded hash, which is
+ * only computed again when the size or modification time of the file changed. The manifest is stored as a sorted text
+ * file at the root of the folder.
+ */
+public class RegenerationManifest {
+
+  public static final String FILE_NAME = ".regeneration-manifest";
+
+  private static final String NO_OUTPUT = "-";
+
+  private static final String EVM_VERSION = evmVersion();
+
+  private static final class Record {
+
+    final String file;
+    final String hash;
+    final long size;
+    final long modified;
+
+    Record(String file, String hash, long size, long modified) {
+      this.file = file;
+      this.hash = hash;
+      this.size = size;
+      this.modified = modified;
+    }
+  }
+
+  private final Path root;
+  private final ConcurrentMap<String, Record> records = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Path, String> pending = new ConcurrentHashMap<>();
+
+  private RegenerationManifest(Path root) {
+    this.root = root;
+  }
+
+  /**
+   * Creates a manifest with no entries, so every pair is regenerated.
+   *
+   * @param root the folder tests are written to
+   * @return an empty manifest
+   */
+  public static RegenerationManifest empty(Path root) {
+    return new RegenerationManifest(root);
+  }
+
+  /**
+   * Loads the manifest of a folder, if any.
+   *
+   * @param root the folder tests are written to
+   * @return the manifest, empty if the folder has none
+   * @throws IOException if the manifest cannot be read
+   */
+  public static RegenerationManifest load(Path root) throws IOException {
+    RegenerationManifest manifest = new RegenerationManifest(root);
+    Path file = root.resolve(FILE_NAME);
+    if (Files.exists(file)) {
+      List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+      for (String line : lines) {
+        // lines of older manifests, without size and modification time, are dropped as their keys no longer match
+        String[] parts = line.split(" ", 5);
+        if (parts.length == 5 && NO_OUTPUT.equals(parts[4])) {
+          manifest.records.put(parts[0], new Record(NO_OUTPUT, NO_OUTPUT, -1, -1));
+        } else if (parts.length == 5) {
+          try {
+            Record record = new Record(parts[4], parts[1], Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+            manifest.records.put(parts[0], record);
+          } catch (NumberFormatException e) {
+            // not a line of this version
+          }
+        }
+      }
+    }
+    return manifest;
+  }
+
+  /**
+   * Computes the key of a (model, hard fork) pair.
+   *
+   * @param model the serialized input model
+   * @param hardFork the hard fork the model is run against
+   * @return the key of the pair
+   */
+  public static String key(byte[] model, String hardFork) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putBytes(model);
+    hasher.putByte((byte) 0);
+    hasher.putString(hardFork, StandardCharsets.UTF_8);
+    hasher.putByte((byte) 0);
+    hasher.putString(EVM_VERSION, StandardCharsets.UTF_8);
+    hasher.putByte((byte) 0);
+    hasher.putInt(EVMOpcodeTestGenerator.VERSION);
+    return hasher.hash().toString();
+  }
+
+  private static String evmVersion() {
+    Package evmPackage = EVM.class.getPackage();
+    String version = evmPackage == null ? null : evmPackage.getImplementationVersion();
+    // snapshot builds share a version, so the contents of the jar tell them apart wherever it is stored
+    try {
+      Path jar = Path.of(EVM.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+      if (Files.isRegularFile(jar)) {
+        return version + "@" + Hashing.sha256().hashBytes(Files.readAllBytes(jar));
+      }
+      // classes directory, as when run from an IDE
+      try (InputStream in = EVM.class.getResourceAsStream("EVM.class")) {
+        if (in != null) {
+          return version + "@" + Hashing.sha256().hashBytes(in.readAllBytes());
+        }
+      }
+    } catch (IOException | URISyntaxException | RuntimeException e) {
+      // no code source to hash
+    }
+    return String.valueOf(version);
+  }
+
+  private static String hash(byte[] contents) {
+    return Hashing.sha256().hashBytes(contents).toString();
+  }
+
+  private static String hash(ByteBuffer contents) {
+    // hashing consumes the buffer, which other listeners may read too
+    return Hashing.sha256().hashBytes(contents.duplicate()).toString();
+  }
+
+  /**
+   * Checks whether the output of a pair is up to date.
+   *
+   * @param key the key of the pair
+   * @return true if the pair was regenerated with the same inputs and its output was not modified since
+   */
+  public boolean isUpToDate(String key) {
+    Record record = records.get(key);
+    if (record == null) {
+      return false;
+    }
+    if (NO_OUTPUT.equals(record.file)) {
+      return true;
+    }
+    Path file = root.resolve(record.file);
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      if (attributes.size() != record.size) {
+        return false;
+      }
+      if (attributes.lastModifiedTime().toMillis() == record.modified) {
+        return true;
+      }
+      // touched but maybe not modified, such as by a checkout
+      return record.hash.equals(hash(Files.readAllBytes(file)));
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @param key the key of an up to date pair
+   * @return the file holding the output of the pair, or null if the pair produced no test
+   */
+  public Path outputOf(String key) {
+    Record record = records.get(key);
+    return record == null || NO_OUTPUT.equals(record.file) ? null : root.resolve(record.file);
+  }
+
+  /**
+   * Registers the file about to be written for a pair. The pair is recorded once the file is written.
+   *
+   * @param file the file the output of the pair is written to
+   * @param key the key of the pair
+   */
+  public void expect(Path file, String key) {
+    pending.put(file.toAbsolutePath().normalize(), key);
+  }
+
+  /**
+   * Records the output of a pair, to be registered as a {@link CorpusWriter} listener.
+   *
+   * @param file the file written
+   * @param contents the contents of the file
+   */
+  public void written(Path file, ByteBuffer contents) {
+    String key = pending.remove(file.toAbsolutePath().normalize());
+    if (key != null) {
+      long size = contents.remaining();
+      long modified = -1;
+      try {
+        modified = Files.getLastModifiedTime(file).toMillis();
+      } catch (IOException e) {
+        // not written as a file, such as in an archive: the hash is checked instead
+      }
+      records.put(key, new Record(root.relativize(file).toString(), hash(contents), size, modified));
+    }
+  }
+
+  /**
+   * Records a pair whose execution produced no test.
+   *
+   * @param key the key of the pair
+   */
+  public void rejected(String key) {
+    records.put(key, new Record(NO_OUTPUT, NO_OUTPUT, -1, -1));
+  }
+
+  /**
+   * Writes the manifest at the root of the folder.
+   *
+   * @throws IOException if the manifest cannot be written
+   */
+  public void save() throws IOException {
+    Files.createDirectories(root);
+    Map<String, Record> sorted = new TreeMap<>(records);
+    try (BufferedWriter writer = Files.newBufferedWriter(root.resolve(FILE_NAME), StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, Record> entry : sorted.entrySet()) {
+        Record record = entry.getValue();
+        writer.write(
+            entry.getKey() + " " + record.hash + " " + record.size + " " + record.modified + " " + record.file);
+        writer.newLine();
+      }
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package org.eea.certification.evm;
+
+import org.apache.tuweni.bytes.Bytes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+
+import org.hyperledger.besu.evm.frame.ExceptionalHaltReason;
+import org.hyperledger.besu.evm.operation.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates benchmark programs running a single opcode over and over until a fixed amount of gas runs out.
+ * <p>
+ * A program is a loop starting at a JUMPDEST. Its body repeats a number of times the arguments of the opcode, the
+ * opcode, followed by its immediate data for PUSH opcodes, and as many POP as the opcode pushes, so the stack is back
+ * to empty after each repetition. The body is followed by a jump back to the start. Runs end with INSUFFICIENT_GAS
+ * once the gas is spent, after about as many executions of the opcode as the gas allows.
+ * <p>
+ * Opcodes ending the execution or jumping, which cannot be repeated in a loop, are left out, as are programs halting
+ * for any other reason than running out of gas, such as arguments failing the opcode on the first pass.
+ */
+public class SaturationProgramGenerator {
+
+  private static final Logger logger = LoggerFactory.getLogger(SaturationProgramGenerator.class);
+
+  /**
+   * The default gas of a program, low enough for loops of the cheapest opcodes to stay within the step limit of a
+   * test.
+   */
+  public static final long DEFAULT_GAS = 1_000_000;
+
+  /**
+   * The default number of repetitions of the opcode in the body of the loop.
+   */
+  public static final int DEFAULT_UNROLL = 16;
+
+  private static final Set<String> EXCLUDED =
+      Set.of("STOP", "RETURN", "REVERT", "INVALID", "SELFDESTRUCT", "JUMP", "JUMPI");
+
+  private static final int JUMPDEST = 0x5b;
+  private static final int POP = 0x50;
+  private static final int PUSH1 = 0x60;
+  private static final int PUSH32 = 0x7f;
+  private static final int JUMP = 0x56;
+
+  private final EVMOpcodeTestGenerator generator;
+  private final long seed;
+  private final long gas;
+  private final int unroll;
+
+  /**
+   * @param seed the seed of the arguments and environment of the programs
+   * @param gas the gas available to each program
+   * @param unroll the number of repetitions of the opcode in the body of the loop
+   */
+  public SaturationProgramGenerator(long seed, long gas, int unroll) {
+    if (gas < 1 || unroll < 1) {
+      throw new IllegalArgumentException("Saturation programs need some gas and at least one repetition");
+    }
+    // environments are not corpus tests, they are left out of the metrics of the generator
+    this.generator = new EVMOpcodeTestGenerator(seed, false);
+    this.seed = seed;
+    this.gas = gas;
+    this.unroll = unroll;
+  }
+
+  /**
+   * @param operation an operation
+   * @return true if the operation can be repeated in a loop
+   */
+  static boolean isSaturable(Operation operation) {
+    return !EXCLUDED.contains(operation.getName());
+  }
+
+  /**
+   * Builds the loop running an operation with fixed arguments.
+   *
+   * @param operation the operation
+   * @param arguments the arguments, in the order the operation pops them
+   * @param unroll the number of repetitions of the operation in the body of the loop
+   * @return the bytecode of the program
+   */
+  static Bytes program(Operation operation, List<Bytes> arguments, int unroll) {
+    Bytes repetition = EVMOpcodeTestGenerator.program(arguments, operation);
+    int opcode = operation.getOpcode();
+    if (opcode >= PUSH1 && opcode <= PUSH32) {
+      // the immediate data, which would otherwise be read from the POP and jump that follow
+      repetition = Bytes.wrap(repetition, Bytes.wrap(new byte[opcode - PUSH1 + 1]));
+    }
+    byte[] pops = new byte[operation.getStackItemsProduced()];
+    Arrays.fill(pops, (byte) POP);
+    List<Bytes> parts = new ArrayList<>();
+    parts.add(Bytes.of(JUMPDEST));
+    for (int i = 0; i < unroll; i++) {
+      parts.add(repetition);
+      parts.add(Bytes.wrap(pops));
+    }
+    parts.add(Bytes.of(PUSH1, 0x00, JUMP));
+    return Bytes.concatenate(parts.toArray(new Bytes[0]));
+  }
+
+  /**
+   * Generates the program of an opcode and runs it.
+   *
+   * @param hardFork the name of the hard fork, as registered in {@link EVMExecutors#registry}
+   * @param opcode the opcode
+   * @return the test of the program, or null if the hard fork has no such opcode, it cannot be looped or its run was
+   *         aborted
+   */
+  public OpcodeTestModel generate(String hardFork, int opcode) {
+    EVMExecutorConfiguration configuration = EVMExecutors.cache.get(hardFork);
+    Operation operation = configuration.getOperationsRegistry().get(opcode);
+    if (operation == null || !isSaturable(operation)) {
+      return null;
+    }
+    SplittableRandom random = EVMOpcodeTestGenerator.random(seed, configuration.getHardFork(), opcode, 0);
+    Bytes code = program(operation, ArgumentStrategy.of(operation).arguments(random), unroll);
+    // the accounts and block of a JUMPDEST test, drawn for this opcode
+    OpcodeTestModel environment = generator.generate(hardFork, JUMPDEST, opcode);
+    OpcodeTestModel result =
+        EVMOpcodeTestGenerator.run(environment.withCode(operation.getName(), code, gas), hardFork);
+    if (result == null) {
+      logger.warn("Skipping saturation program of {} for {}, its run was aborted", operation.getName(), hardFork);
+      return null;
+    }
+    if (!ExceptionalHaltReason.INSUFFICIENT_GAS.equals(result.getHaltReason())) {
+      logger
+          .warn(
+              "Skipping saturation program of {} for {}, it halted with {} before spending its gas",
+              operation.getName(),
+              hardFork,
+              result.getHaltReason());
+      return null;
+    }
+    result.setIndex(0);
+    return result;
+  }
+
+  /**
+   * Generates the programs of every opcode of a set of hard forks, handing each test to a sink as soon as it is run.
+   * <p>
+   * The sink is called concurrently from the worker threads, in no particular order.
+   *
+   * @param hardForks the names of the hard forks, as registered in {@link EVMExecutors#registry}
+   * @param parallelism the number of worker threads to use
+   * @param sink the consumer of the tests
+   * @throws IOException if a program cannot be run
+   */
+  public void generate(List<String> hardForks, int parallelism, Consumer<OpcodeTestModel> sink) throws IOException {
+    ExecutionMatrix.run(256, hardForks, parallelism, (opcode, hardFork) -> {
+      OpcodeTestModel test = generate(hardFork, opcode);
+      if (test != null) {
+        sink.accept(test);
+      }
+    });
+  }
+}
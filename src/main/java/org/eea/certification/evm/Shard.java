@@ -0,0 +1,88 @@
+package org.eea.certification.evm;
+
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * A part of a corpus build, for spreading a build over several processes or machines.
+ * <p>
+ * Each test belongs to exactly one of the N shards of a build, chosen by hashing its hard fork, name and index. Tests
+ * only depend on their own coordinates, so the union of the shards of a build is the same corpus whatever the number
+ * of shards.
+ */
+public final class Shard {
+
+  /**
+   * The single shard of an unsharded build.
+   */
+  public static final Shard ALL = new Shard(0, 1);
+
+  private final int index;
+  private final int count;
+
+  public Shard(int index, int count) {
+    if (count < 1 || index < 0 || index >= count) {
+      throw new IllegalArgumentException("Invalid shard " + index + "/" + count);
+    }
+    this.index = index;
+    this.count = count;
+  }
+
+  /**
+   * Parses a shard of the form {@code i/N}, where i goes from 0 to N-1.
+   *
+   * @param value the shard
+   * @return the parsed shard
+   * @throws IllegalArgumentException if the value is not a valid shard
+   */
+  public static Shard parse(String value) {
+    int separator = value.indexOf('/');
+    if (separator == -1) {
+      throw new IllegalArgumentException("Invalid shard " + value + ", expected i/N");
+    }
+    try {
+      return new Shard(
+          Integer.parseInt(value.substring(0, separator)),
+          Integer.parseInt(value.substring(separator + 1)));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid shard " + value + ", expected i/N", e);
+    }
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * @param hardFork the hard fork of the test, as reported by {@link EVMExecutorConfiguration#getHardFork()}
+   * @param name the name of the test
+   * @param testIndex the index of the test
+   * @return true if the test belongs to this shard
+   */
+  public boolean owns(String hardFork, String name, int testIndex) {
+    return count == 1 || shardOf(hardFork, name, testIndex, count) == index;
+  }
+
+  static int shardOf(String hardFork, String name, int testIndex, int count) {
+    int hash = Hashing
+        .murmur3_32_fixed()
+        .newHasher()
+        .putString(hardFork, StandardCharsets.UTF_8)
+        .putByte((byte) 0)
+        .putString(name, StandardCharsets.UTF_8)
+        .putInt(testIndex)
+        .hash()
+        .asInt();
+    return Math.floorMod(hash, count);
+  }
+
+  @Override
+  public String toString() {
+    return index + "/" + count;
+  }
+}
@@ -0,0 +1,236 @@
+package org.eea.certification.evm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+
+/**
+ * Manifest of the tests written by one shard of a build, listing each file with its hash.
+ * <p>
+ * Shard outputs are combined with {@link #merge(List, Path, ObjectMapper)}, which checks that the shards form a
+ * complete build, that each file belongs to the shard that wrote it and is intact, and copies the files into the usual
+ * {@code <hardFork>/<name>-<index>.yaml} layout.
+ */
+@JsonPropertyOrder(value = {"shard", "shards", "files"})
+public class ShardManifest {
+
+  public static final String FILE_NAME = "shard.yaml";
+
+  private final int shard;
+  private final int shards;
+  private final Map<String, String> files = new ConcurrentSkipListMap<>();
+  private Path root;
+
+  @JsonCreator
+  public ShardManifest(
+      @JsonProperty("shard") int shard,
+      @JsonProperty("shards") int shards,
+      @JsonProperty("files") Map<String, String> files) {
+    this.shard = shard;
+    this.shards = shards;
+    if (files != null) {
+      this.files.putAll(files);
+    }
+  }
+
+  /**
+   * Creates an empty manifest collecting the files written under a folder.
+   *
+   * @param shard the shard writing the files
+   * @param root the folder the shard writes to
+   */
+  public ShardManifest(Shard shard, Path root) {
+    this(shard.getIndex(), shard.getCount(), null);
+    this.root = root;
+  }
+
+  public int getShard() {
+    return shard;
+  }
+
+  public int getShards() {
+    return shards;
+  }
+
+  /**
+   * @return the hash of each file, keyed by its path relative to the output folder of the shard
+   */
+  public Map<String, String> getFiles() {
+    return files;
+  }
+
+  @JsonIgnore
+  public Shard asShard() {
+    return new Shard(shard, shards);
+  }
+
+  /**
+   * Records a file, to be registered as a {@link CorpusWriter} listener.
+   *
+   * @param file the file written
+   * @param contents the contents of the file
+   */
+  public void written(Path file, ByteBuffer contents) {
+    files.put(relative(root, file), hash(contents));
+  }
+
+  /**
+   * Writes the manifest at the root of the output folder of the shard.
+   *
+   * @param mapper the mapper writing the manifest
+   * @throws IOException if the manifest cannot be written
+   */
+  public void save(ObjectMapper mapper) throws IOException {
+    mapper.writeValue(root.resolve(FILE_NAME).toFile(), this);
+  }
+
+  private static String relative(Path root, Path file) {
+    // always use forward slashes, so manifests can be merged on another platform
+    return root.relativize(file).toString().replace('\\', '/');
+  }
+
+  private static String hash(byte[] contents) {
+    return Hashing.sha256().hashBytes(contents).toString();
+  }
+
+  private static String hash(ByteBuffer contents) {
+    // hashing consumes the buffer, which other listeners may read too
+    return Hashing.sha256().hashBytes(contents.duplicate()).toString();
+  }
+
+  /**
+   * Validates the outputs of the shards of a build and combines them into a single corpus.
+   *
+   * @param shardFolders the output folders of the shards
+   * @param destination the folder to write the corpus to
+   * @param mapper the mapper reading the manifests
+   * @return the number of tests merged
+   * @throws IOException if the shards do not form a complete and intact build, or cannot be copied
+   */
+  public static int merge(List<Path> shardFolders, Path destination, ObjectMapper mapper) throws IOException {
+    List<ShardManifest> manifests = new ArrayList<>();
+    for (Path folder : shardFolders) {
+      Path file = folder.resolve(FILE_NAME);
+      if (!Files.exists(file)) {
+        throw new IOException("Missing shard manifest " + file);
+      }
+      ShardManifest manifest = mapper.readValue(file.toFile(), ShardManifest.class);
+      manifest.root = folder;
+      manifests.add(manifest);
+    }
+    validateShards(manifests);
+    byte[] corpusManifest = corpusManifest(shardFolders);
+
+    Map<String, Path> sources = new TreeMap<>();
+    for (ShardManifest manifest : manifests) {
+      Shard shard = manifest.asShard();
+      for (Map.Entry<String, String> entry : manifest.files.entrySet()) {
+        Path file = manifest.root.resolve(entry.getKey());
+        if (!Files.exists(file)) {
+          throw new IOException("Missing file " + file + " listed by shard " + shard);
+        }
+        if (!entry.getValue().equals(hash(Files.readAllBytes(file)))) {
+          throw new IOException("File " + file + " was modified after shard " + shard + " wrote it");
+        }
+        if (!owns(shard, entry.getKey())) {
+          throw new IOException("File " + file + " does not belong to shard " + shard);
+        }
+        Path previous = sources.put(entry.getKey(), file);
+        if (previous != null) {
+          throw new IOException("Both " + previous + " and " + file + " write " + entry.getKey());
+        }
+      }
+    }
+
+    for (Map.Entry<String, Path> entry : sources.entrySet()) {
+      Path target = destination.resolve(entry.getKey());
+      Files.createDirectories(target.getParent());
+      Files.copy(entry.getValue(), target, StandardCopyOption.REPLACE_EXISTING);
+    }
+    if (corpusManifest != null) {
+      Files.createDirectories(destination);
+      Files.write(destination.resolve("manifest.yaml"), corpusManifest);
+    }
+    return sources.size();
+  }
+
+  private static void validateShards(List<ShardManifest> manifests) throws IOException {
+    if (manifests.isEmpty()) {
+      throw new IOException("No shards to merge");
+    }
+    for (ShardManifest manifest : manifests) {
+      try {
+        manifest.asShard();
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Invalid shard manifest " + manifest.root.resolve(FILE_NAME) + ": " + e.getMessage(), e);
+      }
+    }
+    int count = manifests.get(0).shards;
+    boolean[] present = new boolean[count];
+    for (ShardManifest manifest : manifests) {
+      if (manifest.shards != count) {
+        throw new IOException("Shards of builds of " + count + " and " + manifest.shards + " shards cannot be merged");
+      }
+      if (present[manifest.shard]) {
+        throw new IOException("Shard " + manifest.shard + "/" + count + " is given twice");
+      }
+      present[manifest.shard] = true;
+    }
+    List<Integer> missing = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      if (!present[i]) {
+        missing.add(i);
+      }
+    }
+    if (!missing.isEmpty()) {
+      throw new IOException("Missing shards " + missing + " of " + count);
+    }
+  }
+
+  private static byte[] corpusManifest(List<Path> shardFolders) throws IOException {
+    // generated shards all carry the manifest of the whole corpus, which must be the same
+    byte[] result = null;
+    for (Path folder : shardFolders) {
+      Path file = folder.resolve("manifest.yaml");
+      if (Files.exists(file)) {
+        byte[] contents = Files.readAllBytes(file);
+        if (result != null && !Arrays.equals(result, contents)) {
+          throw new IOException("Shard " + folder + " was built from a different corpus manifest");
+        }
+        result = contents;
+      }
+    }
+    return result;
+  }
+
+  private static boolean owns(Shard shard, String relativePath) {
+    int separator = relativePath.lastIndexOf('/');
+    int dash = relativePath.lastIndexOf('-');
+    if (separator == -1 || dash < separator || !relativePath.endsWith(".yaml")) {
+      return false;
+    }
+    String hardFork = relativePath.substring(0, separator);
+    String name = relativePath.substring(separator + 1, dash);
+    try {
+      int index = Integer.parseInt(relativePath.substring(dash + 1, relativePath.length() - ".yaml".length()));
+      return shard.owns(hardFork, name, index);
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+}
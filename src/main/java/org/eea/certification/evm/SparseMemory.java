@@ -0,0 +1,304 @@
+package org.eea.certification.evm;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * The memory of a frame as a list of words, only holding the runs of consecutive words that are not all zeros.
+ * <p>
+ * Memory is serialized as its size in words and its runs, each made of the offset of its first word and of the
+ * contents of its words:
+ *
+ * <pre>
+ * memory:
+ *   size: 130
+ *   runs:
+ *   - offset: 2
+ *     data: 0x...
+ * </pre>
+ *
+ * An empty memory is written as an empty list. The former layout, one entry per word, is still read.
+ */
+public final class SparseMemory extends AbstractList<Bytes32> implements RandomAccess {
+
+  private static final SparseMemory EMPTY = new SparseMemory(0, new int[0], new Bytes[0]);
+
+  private final int size;
+  private final int[] offsets;
+  private final Bytes[] runs;
+
+  private SparseMemory(int size, int[] offsets, Bytes[] runs) {
+    this.size = size;
+    this.offsets = offsets;
+    this.runs = runs;
+  }
+
+  /**
+   * Creates a memory from its runs. Runs may touch each other or hold zero words, they are split again into the runs
+   * of non-zero words, so memories with the same words have the same runs.
+   *
+   * @param size the size of the memory, in words
+   * @param offsets the offset of the first word of each run, increasing
+   * @param runs the contents of each run, a whole number of words
+   * @return the memory
+   * @throws IllegalArgumentException if the runs overlap, are not made of words or do not fit in the memory
+   */
+  public static SparseMemory of(int size, int[] offsets, Bytes[] runs) {
+    if (offsets.length != runs.length) {
+      throw new IllegalArgumentException("Memory runs and offsets do not match");
+    }
+    int end = 0;
+    for (int i = 0; i < runs.length; i++) {
+      if (runs[i].size() % 32 != 0 || offsets[i] < end) {
+        throw new IllegalArgumentException("Invalid memory run at word " + offsets[i]);
+      }
+      end = offsets[i] + runs[i].size() / 32;
+    }
+    if (end > size) {
+      throw new IllegalArgumentException("Memory runs exceed the memory size of " + size + " words");
+    }
+    List<Integer> canonicalOffsets = new ArrayList<>();
+    List<Bytes> canonicalRuns = new ArrayList<>();
+    int i = 0;
+    while (i < runs.length) {
+      // the runs touching each other, split again at their zero words
+      int start = offsets[i];
+      List<Bytes> touching = new ArrayList<>();
+      for (end = start; i < runs.length && offsets[i] == end; i++) {
+        touching.add(runs[i]);
+        end += runs[i].size() / 32;
+      }
+      SparseMemory split = wrap(Bytes.concatenate(touching.toArray(new Bytes[0])));
+      for (int run = 0; run < split.runs.length; run++) {
+        canonicalOffsets.add(start + split.offsets[run]);
+        canonicalRuns.add(split.runs[run]);
+      }
+    }
+    return new SparseMemory(
+        size,
+        canonicalOffsets.stream().mapToInt(Integer::intValue).toArray(),
+        canonicalRuns.toArray(new Bytes[0]));
+  }
+
+  /**
+   * @param words the words of a memory, or null
+   * @return the words as a sparse memory, the words themselves if they already are one, or null if they are null
+   */
+  public static SparseMemory of(List<Bytes32> words) {
+    if (words == null || words instanceof SparseMemory) {
+      return (SparseMemory) words;
+    }
+    if (words.isEmpty()) {
+      return EMPTY;
+    }
+    byte[] contents = new byte[words.size() * 32];
+    for (int i = 0; i < words.size(); i++) {
+      System.arraycopy(words.get(i).toArrayUnsafe(), 0, contents, i * 32, 32);
+    }
+    return wrap(Bytes.wrap(contents));
+  }
+
+  /**
+   * Splits the contents of a memory into runs. Runs are copied, so the contents may be a view of a larger buffer that
+   * is modified or dropped afterwards.
+   *
+   * @param contents the contents of the memory, a whole number of words
+   * @return the memory
+   */
+  static SparseMemory wrap(Bytes contents) {
+    int size = contents.size() / 32;
+    List<Integer> offsets = new ArrayList<>();
+    List<Bytes> runs = new ArrayList<>();
+    int start = -1;
+    for (int word = 0; word <= size; word++) {
+      boolean zero = word == size || isZero(contents, word * 32);
+      if (!zero && start == -1) {
+        start = word;
+      } else if (zero && start != -1) {
+        offsets.add(start);
+        runs.add(contents.slice(start * 32, (word - start) * 32).copy());
+        start = -1;
+      }
+    }
+    if (runs.isEmpty()) {
+      return size == 0 ? EMPTY : new SparseMemory(size, new int[0], new Bytes[0]);
+    }
+    return new SparseMemory(
+        size,
+        offsets.stream().mapToInt(Integer::intValue).toArray(),
+        runs.toArray(new Bytes[0]));
+  }
+
+  private static boolean isZero(Bytes contents, int offset) {
+    for (int i = offset; i < offset + 32; i++) {
+      if (contents.get(i) != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public Bytes32 get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Word " + index + " of a memory of " + size + " words");
+    }
+    int run = Arrays.binarySearch(offsets, index);
+    if (run < 0) {
+      // the run starting before the word, if any
+      run = -run - 2;
+    }
+    if (run >= 0 && index < offsets[run] + runs[run].size() / 32) {
+      return Bytes32.wrap(runs[run], (index - offsets[run]) * 32);
+    }
+    return Bytes32.ZERO;
+  }
+
+  /**
+   * @return the size of the memory, in words
+   */
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the number of runs of non-zero words
+   */
+  public int getRunCount() {
+    return runs.length;
+  }
+
+  /**
+   * @param run the index of a run
+   * @return the offset of the first word of the run
+   */
+  public int getRunOffset(int run) {
+    return offsets[run];
+  }
+
+  /**
+   * @param run the index of a run
+   * @return the contents of the words of the run
+   */
+  public Bytes getRun(int run) {
+    return runs[run];
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o instanceof SparseMemory) {
+      SparseMemory that = (SparseMemory) o;
+      return size == that.size && Arrays.equals(offsets, that.offsets) && Arrays.equals(runs, that.runs);
+    }
+    return super.equals(o);
+  }
+
+  @Override
+  public int hashCode() {
+    return super.hashCode();
+  }
+
+  static class Serializer extends StdSerializer<SparseMemory> {
+
+    Serializer() {
+      super(SparseMemory.class);
+    }
+
+    @Override
+    public void serialize(SparseMemory value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+      if (value.size == 0) {
+        // most frames have no memory, one line is enough
+        gen.writeStartArray();
+        gen.writeEndArray();
+        return;
+      }
+      gen.writeStartObject();
+      gen.writeNumberField("size", value.size);
+      gen.writeArrayFieldStart("runs");
+      for (int i = 0; i < value.runs.length; i++) {
+        gen.writeStartObject();
+        gen.writeNumberField("offset", value.offsets[i]);
+        gen.writeStringField("data", value.runs[i].toHexString());
+        gen.writeEndObject();
+      }
+      gen.writeEndArray();
+      gen.writeEndObject();
+    }
+  }
+
+  /**
+   * Reads memory in the sparse layout, or as a list of words.
+   */
+  static class Deserializer extends StdDeserializer<SparseMemory> {
+
+    Deserializer() {
+      super(SparseMemory.class);
+    }
+
+    @Override
+    public SparseMemory deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+      if (p.currentToken() == JsonToken.START_ARRAY) {
+        List<Bytes32> words = new ArrayList<>();
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+          words.add(Bytes32.fromHexString(p.getValueAsString()));
+        }
+        return of(words);
+      }
+      if (p.currentToken() != JsonToken.START_OBJECT) {
+        return (SparseMemory) ctxt.handleUnexpectedToken(SparseMemory.class, p);
+      }
+      int size = 0;
+      List<Integer> offsets = new ArrayList<>();
+      List<Bytes> runs = new ArrayList<>();
+      while (p.nextToken() != JsonToken.END_OBJECT) {
+        String field = p.getCurrentName();
+        p.nextToken();
+        if ("size".equals(field)) {
+          size = p.getValueAsInt();
+        } else if ("runs".equals(field)) {
+          while (p.nextToken() != JsonToken.END_ARRAY) {
+            int offset = 0;
+            Bytes data = Bytes.EMPTY;
+            while (p.nextToken() != JsonToken.END_OBJECT) {
+              String runField = p.getCurrentName();
+              p.nextToken();
+              if ("offset".equals(runField)) {
+                offset = p.getValueAsInt();
+              } else if ("data".equals(runField)) {
+                data = Bytes.fromHexString(p.getValueAsString());
+              } else {
+                p.skipChildren();
+              }
+            }
+            offsets.add(offset);
+            runs.add(data);
+          }
+        } else {
+          p.skipChildren();
+        }
+      }
+      try {
+        return of(size, offsets.stream().mapToInt(Integer::intValue).toArray(), runs.toArray(new Bytes[0]));
+      } catch (IllegalArgumentException e) {
+        throw JsonMappingException.from(p, e.getMessage(), e);
+      }
+    }
+  }
+}
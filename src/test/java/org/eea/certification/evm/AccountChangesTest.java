@@ -0,0 +1,78 @@
+package org.eea.certification.evm;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.eth.EthJsonModule;
+import org.apache.tuweni.units.bigints.UInt256;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.hyperledger.besu.datatypes.Address;
+import org.hyperledger.besu.datatypes.Wei;
+import org.hyperledger.besu.evm.account.Account;
+import org.hyperledger.besu.evm.fluent.SimpleAccount;
+import org.junit.jupiter.api.Test;
+
+public class AccountChangesTest {
+
+  private static ObjectMapper mapper(Module module) {
+    ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    mapper.registerModule(module);
+    mapper.registerModule(new EthJsonModule());
+    return mapper;
+  }
+
+  private static SimpleAccount account(String address, long nonce, long balance, int... storage) {
+    SimpleAccount account = new SimpleAccount(Address.fromHexString(address), nonce, Wei.of(balance));
+    account.setCode(Bytes.EMPTY);
+    for (int i = 0; i < storage.length; i += 2) {
+      account.setStorageValue(UInt256.valueOf(storage[i]), UInt256.valueOf(storage[i + 1]));
+    }
+    return account;
+  }
+
+  @Test
+  void testRebuildsAccounts() throws IOException {
+    List<Account> before = List.of(account("0x01", 1, 100, 1, 1, 2, 2), account("0x02", 0, 5));
+    List<Account> after =
+        List.of(account("0x02", 0, 5), account("0x01", 2, 100, 2, 3, 4, 4), account("0x03", 0, 7, 1, 1));
+    AccountChanges changes = AccountChanges.diff(before, after);
+    assertEquals(3, changes.size());
+    assertEquals(2, changes.getChangedCount());
+
+    ObjectMapper mapper = mapper(new JsonModule());
+    String yaml = mapper.writeValueAsString(changes);
+    assertTrue(yaml.contains("clearedStorage"), yaml);
+    assertFalse(yaml.contains("balance: \"0x64\""), yaml);
+    assertEquals(changes, mapper.readValue(yaml, AccountChanges.class));
+
+    List<Account> rebuilt = changes.apply(before);
+    assertEquals(mapper.writeValueAsString(after), mapper.writeValueAsString(rebuilt));
+  }
+
+  @Test
+  void testRoundTripThroughDeltaLayout() throws IOException {
+    ObjectMapper mapper = mapper(new JsonModule());
+    ObjectMapper deltaMapper = mapper(JsonModule.withDeltaAfterState());
+    for (String resource : new String[] {"/SWAP15-4.yaml", "/CREATE2-2.yaml"}) {
+      OpcodeTestModel model = mapper.readValue(getClass().getResourceAsStream(resource), OpcodeTestModel.class);
+      byte[] full = mapper.writeValueAsBytes(model);
+      byte[] delta = deltaMapper.writeValueAsBytes(model);
+      assertTrue(new String(delta, StandardCharsets.UTF_8).contains("accountChanges"), resource);
+      assertTrue(delta.length < full.length, resource);
+
+      OpcodeTestModel read = mapper.readValue(delta, OpcodeTestModel.class);
+      assertArrayEquals(full, mapper.writeValueAsBytes(read), resource);
+      assertArrayEquals(delta, deltaMapper.writeValueAsBytes(read), resource);
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package org.eea.certification.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.units.bigints.UInt256;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.hyperledger.besu.evm.operation.Operation;
+import org.hyperledger.besu.evm.operation.OperationRegistry;
+import org.junit.jupiter.api.Test;
+
+public class ArgumentStrategyTest {
+
+  @Test
+  void testMemoryArgumentsStayWithinLimits() {
+    OperationRegistry registry = EVMExecutors.cache.get("london").getOperationsRegistry();
+    Operation codeCopy = registry.get(0x39);
+    ArgumentStrategy strategy = ArgumentStrategy.of(codeCopy);
+    SplittableRandom random = new SplittableRandom(1);
+    for (int i = 0; i < 1000; i++) {
+      List<Bytes> arguments = strategy.arguments(random);
+      assertEquals(codeCopy.getStackItemsConsumed(), arguments.size());
+      long offset = UInt256.fromBytes(arguments.get(0)).toLong();
+      long size = UInt256.fromBytes(arguments.get(2)).toLong();
+      assertTrue(size == 0 || (offset + size + 31) / 32 <= RecordingTracer.MAX_MEMORY_WORDS);
+    }
+  }
+
+  @Test
+  void testArgumentsArePushable() {
+    OperationRegistry registry = EVMExecutors.cache.get("london").getOperationsRegistry();
+    SplittableRandom random = new SplittableRandom(2);
+    for (int opcode = 0; opcode < 256; opcode++) {
+      Operation operation = registry.get(opcode);
+      if (operation == null) {
+        continue;
+      }
+      for (Bytes argument : ArgumentStrategy.of(operation).arguments(random)) {
+        assertTrue(argument.size() >= 1 && argument.size() <= 32);
+      }
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package org.eea.certification.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.tuweni.bytes.Bytes;
+
+import org.hyperledger.besu.evm.Code;
+import org.junit.jupiter.api.Test;
+
+public class CodeCacheTest {
+
+  @Test
+  void testSharesCodeAcrossHardForks() {
+    CodeCache cache = new CodeCache(1024);
+    Bytes bytecode = Bytes.fromHexString("0x6001600101");
+    Code frontier = cache.get(EVMExecutors.cache.get("frontier").evm, bytecode);
+    Code london = cache.get(EVMExecutors.cache.get("london").evm, Bytes.fromHexString("0x6001600101"));
+    assertSame(frontier, london);
+    assertEquals(1, cache.getStats().hitCount());
+    assertEquals(1, cache.getStats().missCount());
+
+    // the metrics keep reporting the shared cache
+    String text = Metrics.global.toPrometheus();
+    long misses = EVMExecutors.codeCache.getStats().missCount();
+    assertTrue(text.contains("code_cache_misses_total " + misses + "\n"), text);
+  }
+}
@@ -0,0 +1,74 @@
+package org.eea.certification.evm;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import org.apache.tuweni.eth.EthJsonModule;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.TimeZone;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CorpusArchiveTest {
+
+  @Test
+  void testWritesAndReadsTestsInPlace(@TempDir Path tempDir) throws IOException {
+    ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    mapper.registerModule(new JsonModule());
+    mapper.registerModule(new EthJsonModule());
+    OpcodeTestModel model = mapper.readValue(getClass().getResourceAsStream("/SWAP15-4.yaml"), OpcodeTestModel.class);
+    Path root = tempDir.resolve("corpus");
+    Path file = tempDir.resolve("corpus.zip");
+    try (CorpusArchive.Writer archive = new CorpusArchive.Writer(file);
+        CorpusWriter writer = new CorpusWriter(archive, root, mapper, 2, 4, (path, contents) -> {
+        })) {
+      archive.put("manifest.yaml", ByteBuffer.wrap("seed: 1".getBytes(StandardCharsets.UTF_8)));
+      for (int i = 0; i < 3; i++) {
+        model.setIndex(i);
+        writer.accept(mapper.readValue(mapper.writeValueAsBytes(model), OpcodeTestModel.class));
+      }
+    }
+    assertFalse(Files.exists(root));
+
+    try (CorpusArchive archive = CorpusArchive.open(file)) {
+      String fork = model.getHardFork();
+      assertEquals(
+          List.of(fork + "/SWAP15-0.yaml", fork + "/SWAP15-1.yaml", fork + "/SWAP15-2.yaml"),
+          archive.getNames());
+      OpcodeTestModel read = archive.read(fork + "/SWAP15-2.yaml", mapper);
+      assertEquals(2, read.getIndex());
+      assertArrayEquals(mapper.writeValueAsBytes(model), mapper.writeValueAsBytes(read));
+    }
+  }
+
+  @Test
+  void testArchivesDoNotDependOnTimeZone(@TempDir Path tempDir) throws IOException {
+    TimeZone timeZone = TimeZone.getDefault();
+    try {
+      TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+      Path utc = writeArchive(tempDir.resolve("utc.zip"));
+      TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+      Path west = writeArchive(tempDir.resolve("west.zip"));
+      assertArrayEquals(Files.readAllBytes(utc), Files.readAllBytes(west));
+    } finally {
+      TimeZone.setDefault(timeZone);
+    }
+  }
+
+  private static Path writeArchive(Path file) throws IOException {
+    try (CorpusArchive.Writer archive = new CorpusArchive.Writer(file)) {
+      archive.put("manifest.yaml", ByteBuffer.wrap("seed: 1".getBytes(StandardCharsets.UTF_8)));
+    }
+    return file;
+  }
+}
@@ -0,0 +1,70 @@
+package org.eea.certification.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.tuweni.eth.EthJsonModule;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CorpusIndexTest {
+
+  @Test
+  void testQueriesAndSamplesAfterReload(@TempDir Path tempDir) throws IOException {
+    ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    mapper.registerModule(new JsonModule());
+    mapper.registerModule(new EthJsonModule());
+    OpcodeTestModel model = mapper.readValue(getClass().getResourceAsStream("/SWAP15-4.yaml"), OpcodeTestModel.class);
+    CorpusIndex index = CorpusIndex.empty(tempDir);
+    for (int i = 0; i < 10; i++) {
+      model.setIndex(i);
+      index.put(tempDir.resolve(model.getHardFork()).resolve("SWAP15-" + i + ".yaml"), model);
+    }
+    index.save();
+
+    CorpusIndex loaded = CorpusIndex.load(tempDir);
+    assertEquals(10, loaded.getEntries().size());
+    assertTrue(loaded.contains(tempDir.resolve(model.getHardFork()).resolve("SWAP15-3.yaml")));
+    List<CorpusIndex.Entry> last = loaded
+        .query(entry -> entry.getIndex() > 6 && entry.getGasUsed() == model.getGasUsed());
+    assertEquals(List.of(7, 8, 9), last.stream().map(CorpusIndex.Entry::getIndex).collect(Collectors.toList()));
+    assertEquals(model.getHardFork() + "/SWAP15-7.yaml", last.get(0).getFile());
+
+    List<CorpusIndex.Entry> sample = CorpusIndex.sample(loaded.getEntries(), 3, 42);
+    assertEquals(3, sample.size());
+    assertEquals(
+        sample.stream().map(CorpusIndex.Entry::getFile).collect(Collectors.toList()),
+        CorpusIndex
+            .sample(loaded.getEntries(), 3, 42)
+            .stream()
+            .map(CorpusIndex.Entry::getFile)
+            .collect(Collectors.toList()));
+  }
+
+  @Test
+  void testOnlyRecordsWrittenTests(@TempDir Path tempDir) throws IOException {
+    ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    mapper.registerModule(new JsonModule());
+    mapper.registerModule(new EthJsonModule());
+    OpcodeTestModel model = mapper.readValue(getClass().getResourceAsStream("/SWAP15-4.yaml"), OpcodeTestModel.class);
+    Path written = tempDir.resolve(model.getHardFork()).resolve("SWAP15-0.yaml");
+    Path failed = tempDir.resolve(model.getHardFork()).resolve("SWAP15-1.yaml");
+    CorpusIndex index = CorpusIndex.empty(tempDir);
+    index.expect(written, model);
+    index.expect(failed, model);
+    assertFalse(index.contains(written));
+    index.written(written, ByteBuffer.allocate(0));
+    assertTrue(index.contains(written));
+    assertFalse(index.contains(failed));
+  }
+}
@@ -0,0 +1,39 @@
+package org.eea.certification.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.apache.tuweni.eth.EthJsonModule;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.junit.jupiter.api.Test;
+
+public class CorpusManifestTest {
+
+  @Test
+  void testRejectsOtherGeneratorVersions() throws IOException {
+    ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    mapper.registerModule(new JsonModule());
+    mapper.registerModule(new EthJsonModule());
+
+    CorpusManifest manifest = new CorpusManifest(42, 1, List.of("london"));
+    CorpusManifest read = mapper.readValue(mapper.writeValueAsBytes(manifest), CorpusManifest.class);
+    assertEquals(EVMOpcodeTestGenerator.VERSION, read.getGeneratorVersion());
+    read.checkGeneratorVersion();
+
+    CorpusManifest unversioned =
+        mapper.readValue("seed: 42\ntestsPerOpcode: 1\nhardForks:\n- london\n", CorpusManifest.class);
+    assertEquals(0, unversioned.getGeneratorVersion());
+    assertThrows(IllegalStateException.class, () -> unversioned.rebuild(1));
+
+    // version 1 generators kept memory of at most 128 words, which accepted other arguments
+    CorpusManifest version1 = mapper
+        .readValue("seed: 42\ntestsPerOpcode: 1\nhardForks:\n- london\ngeneratorVersion: 1\n", CorpusManifest.class);
+    assertEquals(1, version1.getGeneratorVersion());
+    assertThrows(IllegalStateException.class, version1::checkGeneratorVersion);
+  }
+}
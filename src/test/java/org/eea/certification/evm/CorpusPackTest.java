@@ -0,0 +1,110 @@
+package org.eea.certification.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.apache.tuweni.eth.EthJsonModule;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CorpusPackTest {
+
+  private static ObjectMapper mapper() {
+    ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    mapper.registerModule(new JsonModule());
+    mapper.registerModule(new EthJsonModule());
+    return mapper;
+  }
+
+  @Test
+  void testRoundtrip(@TempDir Path tempDir) throws IOException {
+    ObjectMapper mapper = mapper();
+    OpcodeTestModel create2 =
+        mapper.readValue(getClass().getResourceAsStream("/CREATE2-2.yaml"), OpcodeTestModel.class);
+    OpcodeTestModel swap15 = mapper.readValue(getClass().getResourceAsStream("/SWAP15-4.yaml"), OpcodeTestModel.class);
+    Path file = tempDir.resolve("corpus.pack");
+    try (CorpusPack.Writer writer = new CorpusPack.Writer(file)) {
+      writer.add(create2);
+      writer.add(swap15);
+    }
+
+    CorpusPack pack = CorpusPack.open(file);
+    assertEquals(2, pack.getEntries().size());
+    for (OpcodeTestModel model : new OpcodeTestModel[] {create2, swap15}) {
+      CorpusPack.Entry entry = pack.find(model.getHardFork(), model.getName(), model.getIndex()).get();
+      OpcodeTestModel read = pack.read(entry);
+      assertEquals(mapper.writeValueAsString(model), mapper.writeValueAsString(read), model.getName());
+    }
+    assertTrue(pack.find("istanbul", "CREATE2", 6).isPresent());
+  }
+
+  @Test
+  void testReadsVersion1Records() throws IOException {
+    ObjectMapper mapper = mapper();
+    String yaml = new String(getClass().getResourceAsStream("/SWAP15-4.yaml").readAllBytes(), StandardCharsets.UTF_8)
+        .replaceFirst("memory: \\[\\]", "memory:\n  - \"0x00\"\n  - \"0x01\"")
+        .replaceFirst("memory: \\[\\]", "memory:\n  - \"0x02\"");
+    OpcodeTestModel model = mapper.readValue(yaml, OpcodeTestModel.class);
+    Bytes32 one = Bytes32.leftPad(Bytes.of(1));
+    Bytes32 two = Bytes32.leftPad(Bytes.of(2));
+
+    // version 1 records hold every word of the memory instead of its runs
+    ByteArrayOutputStream record = new ByteArrayOutputStream();
+    PackCodec.write(model, new DataOutputStream(record));
+    byte[] v1 = record.toByteArray();
+    v1 = replace(v1, sparseMemory(2, 1, one), denseMemory(Bytes32.ZERO, one));
+    v1 = replace(v1, sparseMemory(1, 0, two), denseMemory(two));
+
+    OpcodeTestModel read = PackCodec.read(new DataInputStream(new ByteArrayInputStream(v1)), 1);
+    assertEquals(Arrays.asList(Bytes32.ZERO, one), read.getBefore().getMemory());
+    assertEquals(mapper.writeValueAsString(model), mapper.writeValueAsString(read));
+  }
+
+  private static byte[] sparseMemory(int size, int offset, Bytes32 word) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(size);
+    out.writeInt(1);
+    out.writeInt(offset);
+    out.writeInt(32);
+    out.write(word.toArrayUnsafe());
+    return bytes.toByteArray();
+  }
+
+  private static byte[] denseMemory(Bytes32... words) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(words.length);
+    for (Bytes32 word : words) {
+      out.write(word.toArrayUnsafe());
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] replace(byte[] record, byte[] from, byte[] to) {
+    for (int i = 0; i + from.length <= record.length; i++) {
+      if (Arrays.equals(record, i, i + from.length, from, 0, from.length)) {
+        byte[] result = new byte[record.length - from.length + to.length];
+        System.arraycopy(record, 0, result, 0, i);
+        System.arraycopy(to, 0, result, i, to.length);
+        System.arraycopy(record, i + from.length, result, i + to.length, record.length - i - from.length);
+        return result;
+      }
+    }
+    throw new AssertionError("Memory not found in record");
+  }
+}
@@ -0,0 +1,41 @@
+package org.eea.certification.evm;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.apache.tuweni.eth.EthJsonModule;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.junit.jupiter.api.Test;
+
+public class CorpusVerifierTest {
+
+  @Test
+  void testReplayMatchesItself() throws IOException {
+    ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    mapper.registerModule(new JsonModule());
+    mapper.registerModule(new EthJsonModule());
+    TypeReference<Map<String, JsonReferenceTest>> ref = new TypeReference<>() {};
+    Map<String, JsonReferenceTest> tests = mapper.readValue(getClass().getResourceAsStream("/add3.json"), ref);
+    OpcodeTestModel model = OpcodeTestModel.fromJsonReferenceTest("frontier", "add3", tests.get("add3"));
+    OpcodeTestModel first = EVMOpcodeTestGenerator.run(model, "frontier");
+    OpcodeTestModel replayed = mapper.readValue(mapper.writeValueAsString(first), OpcodeTestModel.class);
+    assertNull(CorpusVerifier.compare(replayed, EVMOpcodeTestGenerator.run(replayed, "frontier")));
+  }
+
+  @Test
+  void testReportsHardForkDifference() throws IOException {
+    ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    mapper.registerModule(new JsonModule());
+    mapper.registerModule(new EthJsonModule());
+    OpcodeTestModel model = mapper.readValue(getClass().getResourceAsStream("/CREATE2-2.yaml"), OpcodeTestModel.class);
+    OpcodeTestModel result = EVMOpcodeTestGenerator.run(model, model.getHardFork());
+    assertNull(CorpusVerifier.compare(result, result));
+    assertNotNull(CorpusVerifier.compare(result, EVMOpcodeTestGenerator.run(model, "frontier")));
+  }
+}
@@ -0,0 +1,58 @@
+package org.eea.certification.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.tuweni.eth.EthJsonModule;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CorpusWriterTest {
+
+  @Test
+  void testWritesTestsUnderHardForkFolder(@TempDir Path tempDir) throws IOException {
+    ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    mapper.registerModule(new JsonModule());
+    mapper.registerModule(new EthJsonModule());
+    OpcodeTestModel model = mapper.readValue(getClass().getResourceAsStream("/SWAP15-4.yaml"), OpcodeTestModel.class);
+    try (CorpusWriter writer = new CorpusWriter(tempDir, mapper, 2, 1)) {
+      writer.accept(model);
+    }
+    Path file = tempDir.resolve(model.getHardFork()).resolve("SWAP15-" + model.getIndex() + ".yaml");
+    assertTrue(Files.exists(file));
+    assertEquals("SWAP15", mapper.readValue(file.toFile(), OpcodeTestModel.class).getName());
+  }
+
+  @Test
+  void testReportsFailuresOnceOtherTestsAreWritten(@TempDir Path tempDir) throws IOException {
+    ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    mapper.registerModule(new JsonModule());
+    mapper.registerModule(new EthJsonModule());
+    OpcodeTestModel model = mapper.readValue(getClass().getResourceAsStream("/SWAP15-4.yaml"), OpcodeTestModel.class);
+    // a folder in the way of the first test makes it fail
+    model.setIndex(0);
+    Files.createDirectories(tempDir.resolve(model.getHardFork()).resolve("SWAP15-0.yaml"));
+    AtomicInteger listened = new AtomicInteger();
+    // a bound of one byte lets a single document be in flight at a time
+    CorpusWriter writer = new CorpusWriter(tempDir, mapper, 2, 1, 2, 1, (file, contents) -> listened.incrementAndGet());
+    writer.createFolders(List.of(model.getHardFork()));
+    for (int i = 0; i < 10; i++) {
+      model.setIndex(i);
+      writer.accept(mapper.readValue(mapper.writeValueAsBytes(model), OpcodeTestModel.class));
+    }
+    assertThrows(IOException.class, writer::close);
+    assertEquals(9, writer.getWritten());
+    assertEquals(9, listened.get());
+    assertTrue(Files.exists(tempDir.resolve(model.getHardFork()).resolve("SWAP15-9.yaml")));
+  }
+}
@@ -0,0 +1,32 @@
+package org.eea.certification.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+public class EVMExecutorCacheTest {
+
+  @Test
+  void testBuildsOncePerHardFork() {
+    EVMExecutorCache cache = new EVMExecutorCache(EVMExecutors.registry);
+    EVMExecutorConfiguration first = cache.get("london");
+    EVMExecutorConfiguration second = cache.supplier("london").get();
+    assertSame(first, second);
+    assertEquals(1, cache.getMisses());
+    assertEquals(1, cache.getHits());
+  }
+
+  @Test
+  void testResolvesHardForkName() {
+    EVMExecutorCache cache = new EVMExecutorCache(EVMExecutors.registry);
+    assertSame(cache.get("paris"), cache.get("premerge"));
+  }
+
+  @Test
+  void testUnknownHardFork() {
+    EVMExecutorCache cache = new EVMExecutorCache(EVMExecutors.registry);
+    assertThrows(IllegalArgumentException.class, () -> cache.get("unknown"));
+  }
+}
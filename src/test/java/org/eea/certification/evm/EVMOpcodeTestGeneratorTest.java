@@ -6,6 +6,7 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import org.apache.tuweni.eth.EthJsonModule;
 
 import java.io.IOException;
+import java.util.List;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
@@ -24,4 +25,35 @@ public class EVMOpcodeTestGeneratorTest {
     OpcodeTestModel result = generator.run(model, model.getHardFork());
     assertEquals(model.getAfter().getStack(), result.getAfter().getStack());
   }
+
+  @Test
+  void testRunRecordsFinalMemoryOnce() throws IOException {
+    ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    mapper.registerModule(new JsonModule());
+    mapper.registerModule(new EthJsonModule());
+    OpcodeTestModel model = mapper.readValue(getClass().getResourceAsStream("/CREATE2-2.yaml"), OpcodeTestModel.class);
+    OpcodeTestModel result = EVMOpcodeTestGenerator.run(model, model.getHardFork());
+    assertEquals(model.getAfter().getMemory(), result.getAfter().getMemory());
+  }
+
+  @Test
+  void testWorkItemsCoverEachIndex() {
+    EVMOpcodeTestGenerator generator = new EVMOpcodeTestGenerator();
+    List<EVMOpcodeTestGenerator.WorkItem> workItems = generator.workItems(EVMExecutors.frontier, 3);
+    assertEquals(0, workItems.size() % 3);
+    for (int i = 0; i < workItems.size(); i++) {
+      assertEquals(i % 3, workItems.get(i).index);
+    }
+  }
+
+  @Test
+  void testSeededGenerationIsReproducible() throws IOException {
+    ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    mapper.registerModule(new JsonModule());
+    mapper.registerModule(new EthJsonModule());
+    OpcodeTestModel first = new EVMOpcodeTestGenerator(42L).generate("london", 0x52, 3);
+    OpcodeTestModel second = new EVMOpcodeTestGenerator(42L).generate("london", 0x52, 3);
+    assertEquals(3, first.getIndex());
+    assertEquals(mapper.writeValueAsString(first), mapper.writeValueAsString(second));
+  }
 }
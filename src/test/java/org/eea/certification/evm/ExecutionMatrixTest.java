@@ -0,0 +1,38 @@
+package org.eea.certification.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ExecutionMatrixTest {
+
+  @Test
+  void testResolvesFoldersAndGlobs(@TempDir Path tempDir) throws IOException {
+    Path nested = Files.createDirectories(tempDir.resolve("custom").resolve("nested"));
+    Files.writeString(tempDir.resolve("custom").resolve("a.yaml"), "");
+    Files.writeString(nested.resolve("b.yaml"), "");
+    Files.writeString(nested.resolve("manifest.yaml"), "");
+    Files.writeString(nested.resolve("c.txt"), "");
+    assertEquals(
+        List.of(tempDir.resolve("custom").resolve("a.yaml"), nested.resolve("b.yaml")),
+        ExecutionMatrix.resolve(List.of(tempDir.resolve("custom").toString())));
+    assertEquals(
+        List.of(nested.resolve("b.yaml")),
+        ExecutionMatrix.resolve(List.of(tempDir.resolve("custom") + "/*/*.yaml")));
+  }
+
+  @Test
+  void testRunsEveryPair() throws IOException {
+    Set<String> pairs = ConcurrentHashMap.newKeySet();
+    ExecutionMatrix.run(3, List.of("berlin", "london"), 4, (model, hardFork) -> pairs.add(model + hardFork));
+    assertEquals(Set.of("0berlin", "0london", "1berlin", "1london", "2berlin", "2london"), pairs);
+  }
+}
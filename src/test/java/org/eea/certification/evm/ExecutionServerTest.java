@@ -0,0 +1,64 @@
+package org.eea.certification.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.tuweni.eth.EthJsonModule;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.junit.jupiter.api.Test;
+
+public class ExecutionServerTest {
+
+  @Test
+  void testConcurrentRunsAreShared() throws Exception {
+    ObjectMapper yamlMapper = new ObjectMapper(new YAMLFactory());
+    yamlMapper.registerModule(new JsonModule());
+    yamlMapper.registerModule(new EthJsonModule());
+    ObjectMapper jsonMapper = new ObjectMapper();
+    jsonMapper.registerModule(new JsonModule());
+    jsonMapper.registerModule(new EthJsonModule());
+    OpcodeTestModel model =
+        yamlMapper.readValue(getClass().getResourceAsStream("/SWAP15-4.yaml"), OpcodeTestModel.class);
+    byte[] modelBytes = yamlMapper.writeValueAsBytes(model);
+    ExecutorService workers = Executors.newFixedThreadPool(2);
+    try {
+      ExecutionServer.RequestHandler handler = new ExecutionServer.RequestHandler(yamlMapper, jsonMapper, workers, 16);
+      assertSame(handler.run(model, modelBytes, "berlin"), handler.run(model, modelBytes, "berlin"));
+      Optional<OpcodeTestModel> result = handler.run(model, modelBytes, "berlin").get();
+      assertTrue(result.isPresent());
+      assertEquals(model.getAfter().getStack(), result.get().getAfter().getStack());
+
+      String line = new String(handler.document(result, "berlin", true), StandardCharsets.UTF_8);
+      assertTrue(line.endsWith("}\n"));
+      String rejected = new String(handler.document(Optional.empty(), "berlin", true), StandardCharsets.UTF_8);
+      assertEquals("{\"hardFork\":\"berlin\",\"rejected\":true}\n", rejected);
+      String error = new String(
+          handler.errorDocument(new CompletionException(new IllegalStateException("boom")), "berlin", true),
+          StandardCharsets.UTF_8);
+      assertEquals("{\"hardFork\":\"berlin\",\"error\":\"boom\"}\n", error);
+    } finally {
+      workers.shutdown();
+    }
+  }
+
+  @Test
+  void testHardForksAreCanonical() {
+    assertThrows(IllegalArgumentException.class, () -> ExecutionServer.RequestHandler.hardForks(","));
+    String berlin = EVMExecutors.cache.get("berlin").getHardFork();
+    assertEquals(List.of(berlin), ExecutionServer.RequestHandler.hardForks("berlin, " + berlin));
+    List<String> all = ExecutionServer.RequestHandler.hardForks(null);
+    assertEquals(all.size(), Set.copyOf(all).size());
+  }
+}
@@ -6,8 +6,14 @@ import org.apache.tuweni.eth.Address;
 import org.apache.tuweni.eth.EthJsonModule;
 
 import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -78,4 +84,30 @@ public class JsonReferenceTestTest {
     }
     assertEquals(Wei.fromHexString("0x152d02c7e14af6800000"), senderAccount.getBalance());
   }
+
+  @Test
+  void testStreamingRead() throws IOException, URISyntaxException {
+    ObjectMapper mapper = new ObjectMapper();
+    mapper.registerModule(new JsonModule());
+    mapper.registerModule(new EthJsonModule());
+    Path file = Paths.get(getClass().getResource("/add3.json").toURI());
+    List<String> names = new ArrayList<>();
+    new ReferenceTestReader(mapper).read(file, (name, test) -> {
+      names.add(name);
+      assertEquals(Address.fromHexString("0x0f572e5295c57f15886f9b263e2f6d2d6c7b5ec6"), test.getExec().getAddress());
+    });
+    assertEquals(List.of("add3"), names);
+  }
+
+  @Test
+  void testReadsNamesOnly() throws IOException, URISyntaxException {
+    ObjectMapper mapper = new ObjectMapper();
+    mapper.registerModule(new JsonModule());
+    mapper.registerModule(new EthJsonModule());
+    Path file = Paths.get(getClass().getResource("/add3.json").toURI());
+    Map<String, Integer> positions = new ConcurrentHashMap<>();
+    ReferenceTestReader reader = new ReferenceTestReader(mapper);
+    reader.readAllNames(file.getParent(), 2, (source, position, name) -> positions.put(name, position));
+    assertEquals(Map.of("add3", 0, "push32AndSuicide", 0), positions);
+  }
 }
@@ -0,0 +1,72 @@
+package org.eea.certification.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import org.junit.jupiter.api.Test;
+
+public class MetricsTest {
+
+  @Test
+  void testCountersAreSharedByNameAndLabels() {
+    Metrics metrics = new Metrics();
+    metrics.counter("tests_total", "opcode", "ADD").increment();
+    metrics.counter("tests_total", "opcode", "ADD").add(2);
+    metrics.counter("tests_total", "opcode", "MUL").increment();
+    assertSame(metrics.counter("tests_total", "opcode", "ADD"), metrics.counter("tests_total", "opcode", "ADD"));
+    assertEquals(3, metrics.counter("tests_total", "opcode", "ADD").get());
+    String text = metrics.toPrometheus();
+    assertTrue(text.contains("# TYPE tests_total counter\n"));
+    assertTrue(text.contains("tests_total{opcode=\"ADD\"} 3\n"));
+    assertTrue(text.contains("tests_total{opcode=\"MUL\"} 1\n"));
+  }
+
+  @Test
+  void testHistogramBuckets() {
+    Metrics metrics = new Metrics();
+    Metrics.Histogram histogram = metrics.histogram("latency");
+    histogram.record(1);
+    histogram.record(3);
+    histogram.record(4);
+    histogram.record(5);
+    assertEquals(Map.of(1L, 1L, 4L, 2L, 8L, 1L), histogram.getBuckets());
+    assertEquals(13, histogram.getSum());
+    String text = metrics.toPrometheus();
+    assertTrue(text.contains("latency_bucket{le=\"4\"} 3\n"));
+    assertTrue(text.contains("latency_bucket{le=\"2\"} 1\n"));
+    assertTrue(text.contains("latency_bucket{le=\"1024\"} 4\n"));
+    assertEquals(64, text.lines().filter(line -> line.startsWith("latency_bucket")).count());
+    assertTrue(text.contains("latency_bucket{le=\"+Inf\"} 4\n"));
+    assertTrue(text.contains("latency_count 4\n"));
+  }
+
+  @Test
+  void testCounterFunctionsAreCounters() {
+    Metrics metrics = new Metrics();
+    metrics.counter("hits_total", () -> 7);
+    metrics.gauge("size", () -> 2);
+    String text = metrics.toPrometheus();
+    assertTrue(text.contains("# TYPE hits_total counter\nhits_total 7\n"));
+    assertTrue(text.contains("# TYPE size gauge\nsize 2\n"));
+    assertEquals(Map.of("hits_total", 7L), metrics.snapshot().get("counters"));
+  }
+
+  @Test
+  void testRemovesOnlyTheRegisteredSupplier() {
+    Metrics metrics = new Metrics();
+    LongSupplier first = () -> 1;
+    LongSupplier second = () -> 2;
+    metrics.gauge("depth", first);
+    metrics.gauge("depth", second);
+    metrics.remove("depth", first);
+    assertTrue(metrics.toPrometheus().contains("depth 2\n"));
+    metrics.remove("depth", second);
+    metrics.counter("hits_total", first);
+    metrics.remove("hits_total", first);
+    assertEquals("", metrics.toPrometheus());
+  }
+}
@@ -0,0 +1,82 @@
+package org.eea.certification.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.tuweni.eth.EthJsonModule;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.junit.jupiter.api.Test;
+
+public class OpcodeBenchmarkTest {
+
+  @Test
+  void testHistogramKeepsValuesWithinThreePercent() {
+    OpcodeBenchmark.LatencyHistogram histogram = new OpcodeBenchmark.LatencyHistogram();
+    for (long value = 1; value <= 1000; value++) {
+      histogram.record(value * 1000);
+    }
+    assertEquals(1000, histogram.getCount());
+    assertEquals(1_000_000, histogram.getMax());
+    long median = histogram.percentile(50);
+    assertTrue(Math.abs(median - 500_000) <= 15_000, "median " + median);
+    long p99 = histogram.percentile(99);
+    assertTrue(Math.abs(p99 - 990_000) <= 30_000, "p99 " + p99);
+    for (long value : new long[] {0, 31, 32, 33, 1000, 123_456_789}) {
+      long bucketValue = OpcodeBenchmark.LatencyHistogram.valueOf(OpcodeBenchmark.LatencyHistogram.index(value));
+      assertTrue(Math.abs(bucketValue - value) <= value / 32 + 1, value + " -> " + bucketValue);
+    }
+  }
+
+  @Test
+  void testMedian() {
+    assertEquals(2, OpcodeBenchmark.median(new double[] {3, 1, 2}));
+    assertEquals(2.5, OpcodeBenchmark.median(new double[] {4, 1, 3, 2}));
+  }
+
+  @Test
+  void testTimesEachTestAndOpcode() throws IOException {
+    ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    mapper.registerModule(new JsonModule());
+    mapper.registerModule(new EthJsonModule());
+    OpcodeTestModel swap = mapper.readValue(getClass().getResourceAsStream("/SWAP15-4.yaml"), OpcodeTestModel.class);
+    OpcodeTestModel create2 =
+        mapper.readValue(getClass().getResourceAsStream("/CREATE2-2.yaml"), OpcodeTestModel.class);
+    OpcodeBenchmark benchmark = new OpcodeBenchmark(1, 3, 10);
+    benchmark.run(List.of(swap, create2));
+    assertEquals(2, benchmark.getTests().size());
+    assertEquals(2, benchmark.getOpcodes().size());
+    for (OpcodeBenchmark.OpcodeResult opcode : benchmark.getOpcodes()) {
+      assertEquals(3, opcode.getRuns());
+      assertTrue(opcode.getNanosPerRunP50() > 0);
+    }
+  }
+
+  @Test
+  void testLeavesHaltingTestsOutOfTimePerGas() throws IOException {
+    ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    mapper.registerModule(new JsonModule());
+    mapper.registerModule(new EthJsonModule());
+    OpcodeTestModel swap = mapper.readValue(getClass().getResourceAsStream("/SWAP15-4.yaml"), OpcodeTestModel.class);
+    // halts with INVALID_OPERATION, consuming all of its gas
+    OpcodeTestModel invalid =
+        mapper.readValue(getClass().getResourceAsStream("/INVALID-3.yaml"), OpcodeTestModel.class);
+    OpcodeBenchmark benchmark = new OpcodeBenchmark(1, 3, 10);
+    benchmark.run(List.of(swap, invalid));
+    OpcodeBenchmark.TestResult halted = benchmark.getTests().get(1);
+    assertTrue(halted.isHalted());
+    assertEquals(invalid.getAllGasUsed(), halted.getGasUsed());
+    assertTrue(Double.isNaN(halted.getNanosPerGas()));
+    assertFalse(halted.isMispriced());
+    assertFalse(benchmark.getTests().get(0).isHalted());
+    assertFalse(Double.isNaN(benchmark.getTests().get(0).getNanosPerGas()));
+    for (OpcodeBenchmark.OpcodeResult opcode : benchmark.getOpcodes()) {
+      assertEquals("INVALID".equals(opcode.getName()), Double.isNaN(opcode.getNanosPerGasP50()), opcode.getName());
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package org.eea.certification.evm;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import org.apache.tuweni.eth.EthJsonModule;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.junit.jupiter.api.Test;
+
+public class OpcodeTestModelCodecTest {
+
+  private static ObjectMapper mapper(JsonFactory factory, boolean modelCodec) {
+    ObjectMapper mapper = new ObjectMapper(factory);
+    mapper.registerModule(new JsonModule(modelCodec));
+    mapper.registerModule(new EthJsonModule());
+    return mapper;
+  }
+
+  @Test
+  void testSameOutputAsAnnotations() throws IOException {
+    ObjectMapper codec = mapper(new YAMLFactory(), true);
+    ObjectMapper annotations = mapper(new YAMLFactory(), false);
+    ObjectMapper jsonCodec = mapper(new JsonFactory(), true);
+    ObjectMapper jsonAnnotations = mapper(new JsonFactory(), false);
+    for (String resource : new String[] {"/SWAP15-4.yaml", "/CREATE2-2.yaml"}) {
+      OpcodeTestModel model = codec.readValue(getClass().getResourceAsStream(resource), OpcodeTestModel.class);
+      OpcodeTestModel expected =
+          annotations.readValue(getClass().getResourceAsStream(resource), OpcodeTestModel.class);
+
+      byte[] yaml = codec.writeValueAsBytes(model);
+      assertArrayEquals(annotations.writeValueAsBytes(expected), yaml, resource);
+      assertArrayEquals(yaml, codec.writeValueAsBytes(codec.readValue(yaml, OpcodeTestModel.class)), resource);
+
+      byte[] json = jsonCodec.writeValueAsBytes(model);
+      assertArrayEquals(jsonAnnotations.writeValueAsBytes(expected), json, resource);
+      assertArrayEquals(json, jsonCodec.writeValueAsBytes(jsonCodec.readValue(json, OpcodeTestModel.class)), resource);
+    }
+  }
+}
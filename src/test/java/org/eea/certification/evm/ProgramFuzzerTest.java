@@ -0,0 +1,49 @@
+package org.eea.certification.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.tuweni.bytes.Bytes;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.junit.jupiter.api.Test;
+
+public class ProgramFuzzerTest {
+
+  @Test
+  void testCoverageMapReportsNewFeaturesOnce() {
+    ProgramFuzzer.CoverageMap coverage = new ProgramFuzzer.CoverageMap(10);
+    assertTrue(coverage.add(42));
+    assertFalse(coverage.add(42));
+    // only the low bits of a feature are kept
+    assertFalse(coverage.add(42 + (1 << 10)));
+    assertTrue(coverage.add(43));
+    assertEquals(2, coverage.size());
+  }
+
+  @Test
+  void testInstructionBoundariesSkipPushData() {
+    // PUSH2 0x0102, PUSH1 0x03, ADD
+    Bytes code = Bytes.fromHexString("0x610102600301");
+    assertEquals(List.of(0, 3, 5, 6), ProgramFuzzer.instructionBoundaries(code));
+  }
+
+  @Test
+  void testKeepsProgramsReachingNewFeatures() {
+    ProgramFuzzer fuzzer = new ProgramFuzzer(1L, List.of("london"), 16);
+    // a test kept by an earlier run
+    fuzzer.continueAfter("london", 99);
+    ConcurrentLinkedQueue<OpcodeTestModel> kept = new ConcurrentLinkedQueue<>();
+    fuzzer.run(2, 200, System.nanoTime() + 60_000_000_000L, 1L, kept::add);
+    assertFalse(kept.isEmpty());
+    for (OpcodeTestModel test : kept) {
+      assertEquals(ProgramFuzzer.NAME, test.getName());
+      assertEquals("london", test.getHardFork());
+      assertTrue(test.getCode().size() <= ProgramFuzzer.MAX_CODE_SIZE);
+      assertTrue(test.getIndex() >= 100);
+    }
+  }
+}
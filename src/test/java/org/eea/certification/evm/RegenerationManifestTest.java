@@ -0,0 +1,48 @@
+package org.eea.certification.evm;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class RegenerationManifestTest {
+
+  @Test
+  void testUpToDateUntilOutputChanges(@TempDir Path tempDir) throws IOException {
+    byte[] model = "model".getBytes(StandardCharsets.UTF_8);
+    String key = RegenerationManifest.key(model, "london");
+    assertNotEquals(key, RegenerationManifest.key(model, "berlin"));
+
+    RegenerationManifest manifest = RegenerationManifest.empty(tempDir);
+    assertFalse(manifest.isUpToDate(key));
+    Path file = tempDir.resolve("london").resolve("ADD-0.yaml");
+    byte[] contents = "test".getBytes(StandardCharsets.UTF_8);
+    Files.createDirectories(file.getParent());
+    Files.write(file, contents);
+    manifest.expect(file, key);
+    manifest.written(file, ByteBuffer.wrap(contents));
+    manifest.save();
+
+    RegenerationManifest loaded = RegenerationManifest.load(tempDir);
+    assertTrue(loaded.isUpToDate(key));
+    Files.write(file, "edited".getBytes(StandardCharsets.UTF_8));
+    assertFalse(loaded.isUpToDate(key));
+    // rewritten with the same contents
+    Files.write(file, contents);
+    Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+    assertTrue(loaded.isUpToDate(key));
+    // same size, other contents
+    Files.write(file, "best".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+    assertFalse(loaded.isUpToDate(key));
+  }
+}
@@ -0,0 +1,51 @@
+package org.eea.certification.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.apache.tuweni.bytes.Bytes;
+
+import java.util.List;
+
+import org.hyperledger.besu.evm.frame.ExceptionalHaltReason;
+import org.hyperledger.besu.evm.operation.Operation;
+import org.junit.jupiter.api.Test;
+
+public class SaturationProgramGeneratorTest {
+
+  @Test
+  void testProgramKeepsTheStackBalanced() {
+    Operation add = EVMExecutors.cache.get("london").getOperationsRegistry().get(0x01);
+    Bytes program = SaturationProgramGenerator.program(add, List.of(Bytes.of(1), Bytes.of(2)), 2);
+    // JUMPDEST, twice PUSH1 2 PUSH1 1 ADD POP, then PUSH1 0 JUMP
+    assertEquals(Bytes.fromHexString("0x5b6002600101506002600101506000" + "56"), program);
+  }
+
+  @Test
+  void testPushProgramsSkipImmediateData() {
+    Operation push2 = EVMExecutors.cache.get("london").getOperationsRegistry().get(0x61);
+    Bytes program = SaturationProgramGenerator.program(push2, List.of(), 2);
+    // JUMPDEST, twice PUSH2 0x0000 POP, then PUSH1 0 JUMP
+    assertEquals(Bytes.fromHexString("0x5b" + "61000050" + "61000050" + "600056"), program);
+    assertEquals(List.of(0, 1, 4, 5, 8, 9, 11), ProgramFuzzer.instructionBoundaries(program));
+
+    SaturationProgramGenerator generator = new SaturationProgramGenerator(1L, 100_000, 16);
+    for (int opcode : new int[] {0x60, 0x7f}) {
+      OpcodeTestModel test = generator.generate("london", opcode);
+      assertNotNull(test);
+      assertEquals(ExceptionalHaltReason.INSUFFICIENT_GAS, test.getHaltReason());
+    }
+  }
+
+  @Test
+  void testRunsUntilTheGasIsSpent() {
+    SaturationProgramGenerator generator = new SaturationProgramGenerator(1L, 100_000, 16);
+    OpcodeTestModel test = generator.generate("london", 0x01);
+    assertNotNull(test);
+    assertEquals("ADD", test.getName());
+    assertEquals(100_000, test.getGasAvailable());
+    assertEquals(ExceptionalHaltReason.INSUFFICIENT_GAS, test.getHaltReason());
+    assertNull(generator.generate("london", 0x00));
+  }
+}
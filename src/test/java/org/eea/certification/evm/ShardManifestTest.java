@@ -0,0 +1,94 @@
+package org.eea.certification.evm;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ShardManifestTest {
+
+  private static final int TESTS = 20;
+
+  private final ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+
+  @Test
+  void testEachTestBelongsToOneShard() {
+    for (int index = 0; index < TESTS; index++) {
+      int owners = 0;
+      for (int shard = 0; shard < 3; shard++) {
+        if (new Shard(shard, 3).owns("london", "ADD", index)) {
+          owners++;
+        }
+      }
+      assertEquals(1, owners);
+    }
+    assertEquals("2/3", Shard.parse("2/3").toString());
+    assertThrows(IllegalArgumentException.class, () -> Shard.parse("3/3"));
+    assertThrows(IllegalArgumentException.class, () -> Shard.parse("1"));
+  }
+
+  @Test
+  void testMergeDoesNotDependOnShardCount(@TempDir Path tempDir) throws IOException {
+    Path fromTwo = tempDir.resolve("two");
+    Path fromThree = tempDir.resolve("three");
+    assertEquals(TESTS, ShardManifest.merge(buildShards(tempDir.resolve("shards-2"), 2), fromTwo, mapper));
+    assertEquals(TESTS, ShardManifest.merge(buildShards(tempDir.resolve("shards-3"), 3), fromThree, mapper));
+    for (int index = 0; index < TESTS; index++) {
+      Path file = Path.of("london", "ADD-" + index + ".yaml");
+      assertArrayEquals(Files.readAllBytes(fromTwo.resolve(file)), Files.readAllBytes(fromThree.resolve(file)));
+    }
+  }
+
+  @Test
+  void testMergeRejectsIncompleteBuilds(@TempDir Path tempDir) throws IOException {
+    List<Path> shards = buildShards(tempDir.resolve("shards"), 3);
+    assertThrows(IOException.class, () -> ShardManifest.merge(shards.subList(0, 2), tempDir.resolve("out"), mapper));
+
+    int owner = Shard.shardOf("london", "ADD", 0, 3);
+    Files.write(shards.get(owner).resolve("london").resolve("ADD-0.yaml"), "edited".getBytes(StandardCharsets.UTF_8));
+    assertThrows(IOException.class, () -> ShardManifest.merge(shards, tempDir.resolve("out"), mapper));
+  }
+
+  @Test
+  void testMergeRejectsInvalidShardManifests(@TempDir Path tempDir) throws IOException {
+    for (String manifest : new String[] {"shard: 3\nshards: 3\n", "shard: 0\nshards: 0\n", "shard: -1\nshards: 2\n"}) {
+      Path folder = tempDir.resolve("shard");
+      Files.createDirectories(folder);
+      Files.write(folder.resolve(ShardManifest.FILE_NAME), manifest.getBytes(StandardCharsets.UTF_8));
+      assertThrows(IOException.class, () -> ShardManifest.merge(List.of(folder), tempDir.resolve("out"), mapper));
+    }
+  }
+
+  private List<Path> buildShards(Path root, int count) throws IOException {
+    List<Path> folders = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      Shard shard = new Shard(i, count);
+      Path folder = root.resolve("shard-" + i);
+      ShardManifest manifest = new ShardManifest(shard, folder);
+      Files.createDirectories(folder.resolve("london"));
+      for (int index = 0; index < TESTS; index++) {
+        if (shard.owns("london", "ADD", index)) {
+          Path file = folder.resolve("london").resolve("ADD-" + index + ".yaml");
+          byte[] contents = ("index: " + index).getBytes(StandardCharsets.UTF_8);
+          Files.write(file, contents);
+          manifest.written(file, ByteBuffer.wrap(contents));
+        }
+      }
+      manifest.save(mapper);
+      folders.add(folder);
+    }
+    return folders;
+  }
+}
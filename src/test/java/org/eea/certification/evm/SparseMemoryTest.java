@@ -0,0 +1,81 @@
+package org.eea.certification.evm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.apache.tuweni.eth.EthJsonModule;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.junit.jupiter.api.Test;
+
+public class SparseMemoryTest {
+
+  @Test
+  void testKeepsOnlyRunsOfNonZeroWords() {
+    List<Bytes32> words = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      words.add(i == 3 || i == 4 || i == 150 ? Bytes32.leftPad(Bytes.of(i)) : Bytes32.ZERO);
+    }
+    SparseMemory memory = SparseMemory.of(words);
+    assertEquals(200, memory.size());
+    assertEquals(2, memory.getRunCount());
+    assertEquals(3, memory.getRunOffset(0));
+    assertEquals(64, memory.getRun(0).size());
+    assertEquals(150, memory.getRunOffset(1));
+    assertEquals(words, memory);
+    assertEquals(memory, words);
+    assertEquals(words.hashCode(), memory.hashCode());
+  }
+
+  @Test
+  void testSplitsRunsAgain() {
+    Bytes32 one = Bytes32.leftPad(Bytes.of(1));
+    Bytes32 two = Bytes32.leftPad(Bytes.of(2));
+    SparseMemory canonical = SparseMemory.of(8, new int[] {1, 5}, new Bytes[] {Bytes.concatenate(one, two), one});
+    Bytes[] runs = new Bytes[] {one, two, Bytes32.ZERO, Bytes.concatenate(one, Bytes32.ZERO)};
+    SparseMemory split = SparseMemory.of(8, new int[] {1, 2, 3, 5}, runs);
+    assertEquals(canonical, split);
+    assertEquals(canonical.hashCode(), split.hashCode());
+    assertEquals(2, split.getRunCount());
+    assertEquals(1, split.getRunOffset(0));
+    assertEquals(5, split.getRunOffset(1));
+    assertEquals(32, split.getRun(1).size());
+    assertEquals(0, SparseMemory.of(8, new int[] {0}, new Bytes[] {Bytes32.ZERO}).getRunCount());
+  }
+
+  @Test
+  void testCopiesRuns() {
+    byte[] contents = new byte[1024 * 32];
+    contents[1000 * 32 + 31] = 1;
+    SparseMemory memory = SparseMemory.wrap(Bytes.wrap(contents));
+    contents[1000 * 32 + 31] = 2;
+    assertEquals(Bytes32.leftPad(Bytes.of(1)), memory.get(1000));
+    assertEquals(32, memory.getRun(0).toArrayUnsafe().length);
+  }
+
+  @Test
+  void testReadsBothLayouts() throws IOException {
+    ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    mapper.registerModule(new JsonModule());
+    mapper.registerModule(new EthJsonModule());
+    String legacy = "stack: []\naccounts: []\nmemory:\n- \"0x00\"\n- \"0x01\"\n- \"0x00\"\n";
+    OpcodeTestModel.Before before = mapper.readValue(legacy, OpcodeTestModel.Before.class);
+    assertTrue(before.getMemory() instanceof SparseMemory);
+    assertEquals(3, before.getMemory().size());
+    assertEquals(Bytes32.leftPad(Bytes.of(1)), before.getMemory().get(1));
+
+    String written = mapper.writeValueAsString(before);
+    assertTrue(written.contains("size: 3"), written);
+    String empty = mapper.writeValueAsString(new OpcodeTestModel.Before(List.of(), List.of(), List.of()));
+    assertTrue(empty.contains("memory: []"), empty);
+    OpcodeTestModel.Before read = mapper.readValue(written, OpcodeTestModel.Before.class);
+    assertEquals(before.getMemory(), read.getMemory());
+  }
+}